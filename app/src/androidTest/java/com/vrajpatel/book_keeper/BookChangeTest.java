@@ -0,0 +1,100 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static com.vrajpatel.book_keeper.TestLibrary.findBook;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that stats kept up to date from book changes match a report generated from
+ *  scratch.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookChangeTest {
+
+    private static final String DB_NAME = "change_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void helper_statsAdjustedByChangesMatchReport() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        FragAppStats.BookListInformation shown = helper.generateStatsReport();
+        BookModel dune = findBook(helper, "dune");
+        BookModel ulysses = findBook(helper, "ulysses");
+
+        ArrayList<BookModel> updates = new ArrayList<>();
+        updates.add(new BookModel("Dune", "dune", "Frank Herbert", false, dune.getID(), "Loft"));
+        updates.add(new BookModel("Ulysses", "ulysses", "James Joyce", true, ulysses.getID(), "Attic"));
+        ArrayList<BookModel> adds = new ArrayList<>();
+        adds.add(new BookModel("Beloved", "beloved", "Toni Morrison", true, 0, "Attic"));
+        DatabaseHelper.BatchWriteResult result = helper.writeBooks(updates, adds);
+
+        ArrayList<BookChange> changes = new ArrayList<>();
+        for (BookModel update : updates) {
+            changes.add(BookChange.updated(result.getPrevious(update.getID()), update));
+        }
+        changes.add(BookChange.added(result.getAdded().getInserted().get(0)));
+        BookModel emma = findBook(helper, "emma");
+        assertTrue(helper.softDeleteBook(emma.getID()));
+        changes.add(BookChange.removed(emma));
+
+        assertEquals(BookChange.FIELD_READ_STATUS | BookChange.FIELD_SHELF, changes.get(0).getChangedFields());
+        assertEquals(BookChange.FIELD_READ_STATUS, changes.get(1).getChangedFields());
+        assertStatsEqual(helper.generateStatsReport(), shown.withChanges(changes));
+        helper.close();
+    }
+
+    private static void assertStatsEqual(FragAppStats.BookListInformation expected,
+                                         FragAppStats.BookListInformation actual) {
+        assertEquals(expected.getBookCount(), actual.getBookCount());
+        assertEquals(expected.getReadCount(), actual.getReadCount());
+        assertEquals(expected.getNotReadCount(), actual.getNotReadCount());
+        assertEquals(expected.getShelves().size(), actual.getShelves().size());
+        for (int i = 0; i < expected.getShelves().size(); i++) {
+            FragAppStats.ShelfInformation shelf = expected.getShelves().get(i);
+            assertEquals(shelf.getShelfName(), actual.getShelves().get(i).getShelfName());
+            assertEquals(shelf.getBookCount(), actual.getShelves().get(i).getBookCount());
+            assertEquals(shelf.getReadCount(), actual.getShelves().get(i).getReadCount());
+        }
+    }
+}
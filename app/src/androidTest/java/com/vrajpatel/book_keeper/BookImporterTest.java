@@ -0,0 +1,174 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static com.vrajpatel.book_keeper.TestLibrary.findBook;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that CSV and JSON libraries are imported in chunks, that an interrupted import
+ *  resumes from its saved position, and that malformed input is reported.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookImporterTest {
+
+    private static final String DB_NAME = "importer_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void helper_importsCsvInChunksAndResumes() throws IOException {
+        String csv = "Title,Author,Read,Shelf\n"
+                + "Dune,Frank Herbert,yes,Attic\n"
+                + "\"Emma, Vol. 1\",  Jane   Austen ,0,\n"
+                + ",Nobody,1,\n"
+                + "Ulysses,James Joyce,maybe,\n"
+                + "\"The \"\"Odyssey\"\"\",Homer,1,Attic\n"
+                + "Middlemarch,,false,\n";
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        BookImporter importer = new BookImporter(helper, 2);
+        String key = "library.csv#" + BookImporter.fingerprint(new BufferedReader(new StringReader(csv)));
+
+        // Stop after the first chunk, as if the process had died
+        CancellationSignal signal = new CancellationSignal();
+        try {
+            importer.importBooks(new BufferedReader(new StringReader(csv)), BookImporter.Format.CSV,
+                    "library.csv", progress -> signal.cancel(), signal);
+            fail("Import was not cancelled");
+        } catch (OperationCanceledException expected) {
+            // The first chunk is stored
+        }
+        assertEquals(2, helper.getStoredBooks().size());
+        assertEquals(2, helper.getImportProgress(key).getRowsRead());
+
+        BookImporter.Progress progress = importer.importBooks(new BufferedReader(new StringReader(csv)),
+                BookImporter.Format.CSV, "library.csv", null, null);
+        assertEquals(2, progress.getResumedAt());
+        assertEquals(6, progress.getRowsRead());
+        assertEquals(4, progress.getInserted());
+        assertEquals(2, progress.getRejected());
+        assertEquals(0, helper.getImportProgress(key).getRowsRead());
+
+        BookModel emma = findBook(helper, "emma, vol. 1");
+        assertEquals("Jane Austen", emma.getAuthor());
+        assertEquals("Default", emma.getShelfLocation());
+        assertEquals("Attic", findBook(helper, "the \"odyssey\"").getShelfLocation());
+        assertEquals("", findBook(helper, "middlemarch").getAuthor());
+        assertTrue(helper.isStatsSummaryConsistent());
+        helper.close();
+    }
+
+    @Test
+    public void helper_importKeysPositionsByContentAndExpiresThem() throws IOException {
+        String csv = "Dune,Frank Herbert,yes,Attic\n"
+                + "Emma,Jane Austen,no,\n"
+                + "Kindred,Octavia Butler,no,\n";
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        BookImporter importer = new BookImporter(helper, 2);
+        String key = "library.csv#" + BookImporter.fingerprint(new BufferedReader(new StringReader(csv)));
+
+        CancellationSignal signal = new CancellationSignal();
+        try {
+            importer.importBooks(new BufferedReader(new StringReader(csv)), BookImporter.Format.CSV,
+                    "library.csv", progress -> signal.cancel(), signal);
+            fail("Import was not cancelled");
+        } catch (OperationCanceledException expected) {
+            // The first chunk is stored
+        }
+        assertEquals(2, helper.getImportProgress(key).getRowsRead());
+
+        // Another file picked under the same name starts from the top
+        BookImporter.Progress other = importer.importBooks(new BufferedReader(new StringReader(
+                "Ulysses,James Joyce,no,\n")), BookImporter.Format.CSV, "library.csv", null, null);
+        assertEquals(0, other.getResumedAt());
+        assertEquals(1, other.getInserted());
+        assertEquals(2, helper.getImportProgress(key).getRowsRead());
+
+        // A position that was not picked up again expires
+        long now = System.currentTimeMillis();
+        assertEquals(0, helper.deleteExpiredImports(now - BookImporter.IMPORT_EXPIRY_MS));
+        assertEquals(1, helper.deleteExpiredImports(now + 1000));
+        assertEquals(0, helper.getImportProgress(key).getRowsRead());
+        helper.close();
+    }
+
+    @Test
+    public void helper_importReportsInvalidJsonAsIOException() {
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        BookImporter importer = new BookImporter(helper);
+        // Valid JSON, but not a list of books: JsonReader throws IllegalStateException for these
+        String[] invalid = {"{\"books\": \"none\"}", "\"just text\""};
+        for (String json : invalid) {
+            try {
+                importer.importBooks(new BufferedReader(new StringReader(json)),
+                        BookImporter.Format.JSON, "broken.json", null, null);
+                fail("Imported " + json);
+            } catch (IOException expected) {
+                // Not an IllegalStateException escaping the importer
+            }
+        }
+        helper.close();
+    }
+
+    @Test
+    public void helper_importsJsonAndSkipsStoredBooks() throws IOException {
+        createVersion2Database(context, DB_NAME).close();
+        String json = "{\"version\": 1, \"books\": ["
+                + "{\"title\": \"Dune\", \"author\": \"Frank Herbert\", \"read\": true},"
+                + "{\"title\": \"Kindred\", \"author\": \"Octavia Butler\", \"is_read\": 0,"
+                + " \"shelf\": \"Attic\", \"isbn\": [1, 2]},"
+                + "\"not a book\"]}";
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+
+        BookImporter.Progress progress = new BookImporter(helper).importBooks(
+                new BufferedReader(new StringReader(json)), BookImporter.Format.JSON, "library.json",
+                null, null);
+        assertEquals(1, progress.getInserted());
+        assertEquals(1, progress.getSkipped());
+        assertEquals(1, progress.getRejected());
+        assertEquals("Attic", findBook(helper, "kindred").getShelfLocation());
+        helper.close();
+    }
+}
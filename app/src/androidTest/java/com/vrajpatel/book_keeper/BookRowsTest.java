@@ -0,0 +1,91 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that BookRows binds loaded pages from their cursors and keeps books that changed
+ *  after loading in their rows.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookRowsTest {
+
+    private static final String DB_NAME = "book_rows_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void bookRows_keepPagesInCursorsAndChangedBooksInPlace() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        BookSortOrder order = BookSortOrder.TITLE;
+        ArrayList<BookModel> all = helper.getBooksPage(order, null, 100, null);
+
+        BookRows rows = new BookRows();
+        rows.addPage(helper.queryBooksPage(order, null, 2, null));
+        BookRows loaded = new BookRows();
+        loaded.addPage(helper.queryBooksPage(order, all.get(1), 2, null));
+        loaded.addPage(helper.queryBooksPage(order, all.get(2), 2, null));    // empty, dropped
+        rows.addAll(loaded);
+        assertEquals(3, rows.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertNotNull(rows.moveTo(i));
+            assertEquals(all.get(i).getID(), rows.getBook(i).getID());
+            assertEquals(i, rows.indexOf(all.get(i).getID()));
+        }
+
+        // Changed books are held in their rows, the others still come from the pages
+        BookModel first = all.get(0);
+        BookModel renamed = new BookModel("Aeneid", "aeneid", first.getAuthor(), first.getReadStatus(),
+                first.getID(), first.getShelfLocation());
+        rows.remove(0);
+        rows.insert(0, renamed);
+        rows.remove(1);
+        assertEquals(2, rows.size());
+        assertNull(rows.moveTo(0));
+        assertEquals("Aeneid", rows.getBook(0).getTitle());
+        assertEquals(all.get(2).getID(), rows.getBook(1).getID());
+        assertEquals(-1, rows.indexOf(all.get(1).getID()));
+        rows.close();
+        helper.close();
+    }
+}
@@ -0,0 +1,99 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures typo tolerant searches of the in-memory index over a generated 100,000 book library.
+ *  Results are written to logcat under the "BookSearchIndexBenchmark" tag. Timings vary between
+ *  devices and runs, so each query's median is only held to a generous budget: it catches a
+ *  search that checks the edit distance of every book again, not small slowdowns.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookSearchIndexBenchmark {
+
+    private static final String TAG = "BookSearchIndexBenchmark";
+    private static final int LIBRARY_BOOKS = 100000;
+    private static final int RUNS = 5;
+    // Most a query's median may take, with the candidates capped at MAX_FUZZY_CANDIDATES
+    private static final long MEDIAN_BUDGET_MS = 50;
+
+    @Test
+    public void fuzzySearch_reportsLatencyAt100kBooks() {
+        // Generated library: three title words out of 30 and one of 256 authors per book
+        String[] words = {"shadow", "river", "garden", "silent", "winter", "empire", "stone", "night",
+                "glass", "ocean", "crown", "forest", "secret", "iron", "summer", "letters", "house",
+                "mirror", "falcon", "harbor", "lantern", "orchard", "thunder", "valley", "whisper",
+                "ember", "meadow", "island", "hollow", "compass"};
+        String[] firstNames = {"James", "Mary", "Robert", "Linda", "Frank", "Susan", "Thomas", "Karen",
+                "Daniel", "Nancy", "Paul", "Laura", "Mark", "Ruth", "Henry", "Alice"};
+        String[] lastNames = {"Herbert", "Austen", "Joyce", "Morrison", "Tolkien", "Orwell", "Woolf",
+                "Hemingway", "Faulkner", "Steinbeck", "Dickens", "Bronte", "Atwood", "Ishiguro",
+                "Murakami", "Achebe"};
+        Random random = new Random(42);
+        ArrayList<BookModel> books = new ArrayList<>();
+        for (int i = 1; i <= LIBRARY_BOOKS; i++) {
+            String title = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)]
+                    + " " + words[random.nextInt(words.length)] + " " + i;
+            String author = firstNames[random.nextInt(firstNames.length)] + " "
+                    + lastNames[random.nextInt(lastNames.length)];
+            books.add(new BookModel(title, title.toLowerCase(), author, false, i, "Default"));
+        }
+        BookSearchIndex index = new BookSearchIndex();
+        long start = System.nanoTime();
+        index.rebuild(books);
+        Log.i(TAG, "Indexed " + index.size() + " books in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        String[] queries = {"hemmingway", "heminway", "murakmi", "tolkein", "steinbek", "orwel",
+                "shadw river", "lanturn", "herbert 42"};
+        // Warm up once so that class loading and the JIT are not measured
+        for (String query : queries) { index.fuzzySearch(query, null);}
+        for (String query : queries) {
+            long[] runs = new long[RUNS];
+            List<BookSearchIndex.Match> matches = null;
+            for (int run = 0; run < runs.length; run++) {
+                start = System.nanoTime();
+                matches = index.fuzzySearch(query, null);
+                runs[run] = System.nanoTime() - start;
+            }
+            long medianMs = median(runs) / 1000000;
+            Log.i(TAG, "fuzzySearch \"" + query + "\" found " + matches.size() + " books, median (ms): "
+                    + medianMs + ", budget " + MEDIAN_BUDGET_MS);
+            assertFalse(query, matches.isEmpty());
+            assertTrue(query + " took " + medianMs + " ms", medianMs <= MEDIAN_BUDGET_MS);
+        }
+    }
+
+    private static long median(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
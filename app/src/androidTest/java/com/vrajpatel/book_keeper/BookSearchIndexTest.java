@@ -0,0 +1,139 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the in-memory search index on its own, over a small library built in the test, without
+ *  a database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookSearchIndexTest {
+
+    private static final int DUNE = 1;
+    private static final int EMMA = 2;
+    private static final int ULYSSES = 3;
+
+    private ArrayList<BookModel> books;
+
+    @Before
+    public void setUp() {
+        books = new ArrayList<>();
+        books.add(new BookModel("Dune", "dune", "Frank Herbert", true, DUNE, "Default"));
+        books.add(new BookModel("Emma", "emma", "Jane Austen", false, EMMA, "Default"));
+        books.add(new BookModel("Ulysses", "ulysses", "James Joyce", false, ULYSSES, "Attic"));
+    }
+
+    @Test
+    public void search_findsSubstringsAndFollowsEdits() {
+        BookSearchIndex index = new BookSearchIndex();
+        index.rebuild(books);
+
+        assertEquals(3, index.size());
+        assertNull(index.search(" ,. ", null));
+        // Inside a word, across title and author, and shorter than a trigram
+        assertEquals(Collections.singletonList(DUNE), index.search("erber", null));
+        assertEquals(Collections.singletonList(EMMA), index.search("EMM, austen", null));
+        assertEquals(2, index.search("j", null).size());
+        assertTrue(index.search("dune austen", null).isEmpty());
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        try {
+            index.search("j", signal);
+            fail("Search was not cancelled");
+        } catch (OperationCanceledException expected) {
+            // A newer query replaced this one
+        }
+        // Refining checks single books against the longer query
+        String[] terms = BookSearchIndex.terms("jam joy");
+        assertTrue(index.matches(ULYSSES, terms));
+        assertFalse(index.matches(EMMA, terms));
+
+        index.put(new BookModel("Dune Messiah", "dune messiah", "Frank Herbert", true, DUNE, "Default"));
+        assertEquals(Collections.singletonList(DUNE), index.search("ssia", null));
+        int postings = index.postingCount();
+        index.remove(DUNE);
+        assertTrue(index.search("herbert", null).isEmpty());
+        assertTrue(index.postingCount() < postings);
+    }
+
+    @Test
+    public void fuzzySearch_findsMisspelledWords() {
+        books.add(new BookModel("Sense and Sensibility", "sense and sensibility", "Jane Austin", false,
+                10000, "Default"));
+        BookSearchIndex index = new BookSearchIndex();
+        index.rebuild(books);
+
+        assertEquals(1, BookSearchIndex.substringDistance("herbrt", "dune\nfrank herbert", new int[14]));
+        List<BookSearchIndex.Match> matches = index.fuzzySearch("herbrt", null);
+        assertEquals(1, matches.size());
+        assertEquals(DUNE, matches.get(0).id);
+        assertEquals(1, matches.get(0).distance);
+
+        // The exact match comes before the one with a typo
+        matches = index.fuzzySearch("jane austen", null);
+        assertEquals(2, matches.size());
+        assertEquals(EMMA, matches.get(0).id);
+        assertEquals(0, matches.get(0).distance);
+        assertEquals(10000, matches.get(1).id);
+
+        assertEquals(1, index.fuzzySearch("joyse", null).size());
+        assertEquals(EMMA, index.fuzzySearch("emmx", null).get(0).id);
+        // The typo breaks every trigram the word has, the book is found by its bigrams
+        assertEquals(EMMA, index.fuzzySearch("emxa", null).get(0).id);
+        assertEquals(ULYSSES, index.fuzzySearch("jomce", null).get(0).id);
+        // Words of three letters allow no typos
+        assertTrue(index.fuzzySearch("ema", null).isEmpty());
+        assertNull(index.fuzzySearch("", null));
+    }
+
+    @Test
+    public void fuzzySearch_picksShortWordCandidatesFromBigrams() {
+        // More books than are ever checked, none sharing a bigram with "emxa" or "jomce"
+        for (int i = 0; i < 2 * BookSearchIndex.MAX_FUZZY_CANDIDATES; i++) {
+            books.add(new BookModel("Volume " + i, "volume " + i, "Nobody", false, 10000 + i, "Default"));
+        }
+        BookSearchIndex index = new BookSearchIndex();
+        index.rebuild(books);
+
+        List<BookSearchIndex.Match> matches = index.fuzzySearch("emxa", null);
+        assertEquals(1, matches.size());
+        assertEquals(EMMA, matches.get(0).id);
+        assertEquals(ULYSSES, index.fuzzySearch("jomce", null).get(0).id);
+        // Sharing a bigram is not enough when the typos allowed would leave more of them
+        assertTrue(index.fuzzySearch("vozqjwk", null).isEmpty());
+
+        int postings = index.postingCount();
+        index.remove(EMMA);
+        assertTrue(index.fuzzySearch("emxa", null).isEmpty());
+        assertTrue(index.postingCount() < postings);
+    }
+}
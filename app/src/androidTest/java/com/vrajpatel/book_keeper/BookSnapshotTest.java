@@ -0,0 +1,91 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the snapshot drawn on cold start reads back exactly the rows and columns of the
+ *  live query it was written from.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookSnapshotTest {
+
+    private static final String DB_NAME = "snapshot_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void helper_snapshotMatchesLiveQuery() throws IOException {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        helper.addData("Middlemarch", null, "middlemarch", true, "Attic");
+        File file = new File(context.getCacheDir(), "test_" + BookSnapshot.FILE_NAME);
+
+        Cursor live = helper.queryBooks(BookSortOrder.SHELF, null);
+        BookSnapshot.write(file, BookSortOrder.SHELF, live);
+        Cursor snapshot = BookSnapshot.open(file, BookSortOrder.SHELF);
+        assertNotNull(snapshot);
+        assertNull(BookSnapshot.open(file, BookSortOrder.TITLE));
+
+        assertEquals(live.getCount(), snapshot.getCount());
+        CharArrayBuffer buffer = new CharArrayBuffer(4);
+        while (live.moveToNext()) {
+            assertTrue(snapshot.moveToNext());
+            for (String column : live.getColumnNames()) {
+                int index = snapshot.getColumnIndexOrThrow(column);
+                assertEquals(live.getString(live.getColumnIndexOrThrow(column)), snapshot.getString(index));
+            }
+            int title = snapshot.getColumnIndexOrThrow(DatabaseHelper.COL_TITLE);
+            snapshot.copyStringToBuffer(title, buffer);
+            assertEquals(snapshot.getString(title), new String(buffer.data, 0, buffer.sizeCopied));
+            assertEquals(live.isNull(live.getColumnIndexOrThrow(DatabaseHelper.COL_AUTHOR)),
+                    snapshot.isNull(snapshot.getColumnIndexOrThrow(DatabaseHelper.COL_AUTHOR)));
+        }
+        live.close();
+        snapshot.close();
+        file.delete();
+        helper.close();
+    }
+}
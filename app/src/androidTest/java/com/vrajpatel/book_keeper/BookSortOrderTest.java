@@ -0,0 +1,104 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that every sort order pages through the books without gaps or repeats, and that
+ *  BookSortOrder.compare() places books the same way as the ORDER BY of its query.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookSortOrderTest {
+
+    private static final String DB_NAME = "sort_order_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void helper_pagesEverySortOrderWithoutGapsOrRepeats() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        // Books without an author and books sharing an author cover the NULL and tie cases
+        helper.getWritableDatabase().execSQL("INSERT INTO book_table (title, lowercase_title, "
+                + "author, is_read, shelf_id) VALUES ('Beowulf', 'beowulf', NULL, 0, 1), "
+                + "('Edda', 'edda', NULL, 0, 1), ('Persuasion', 'persuasion', 'Jane Austen', 0, 1)");
+
+        for (BookSortOrder order : BookSortOrder.values()) {
+            ArrayList<BookModel> paged = new ArrayList<>();
+            BookModel last = null;
+            ArrayList<BookModel> page;
+            do {
+                page = helper.getBooksPage(order, last, 2, null);
+                paged.addAll(page);
+                if (!page.isEmpty()) { last = page.get(page.size() - 1);}
+            } while (page.size() == 2);
+
+            ArrayList<BookModel> all = helper.getBooksPage(order, null, 100, null);
+            assertEquals(order.name(), 6, all.size());
+            assertEquals(order.name(), all.size(), paged.size());
+            for (int i = 0; i < all.size(); i++) {
+                assertEquals(order.name(), all.get(i).getID(), paged.get(i).getID());
+            }
+        }
+        helper.close();
+    }
+
+    @Test
+    public void sortOrder_compareMatchesTheQueryOrder() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        helper.getWritableDatabase().execSQL("INSERT INTO book_table (title, lowercase_title, "
+                + "author, is_read, shelf_id) VALUES ('Beowulf', 'beowulf', NULL, 0, 1), "
+                + "('Kalevala', 'kalevala', '', 0, 1), "
+                + "('Persuasion', 'persuasion', 'Jane Austen', 0, 1)");
+
+        // BookPager places changed books with compare(), so it must agree with ORDER BY
+        for (BookSortOrder order : BookSortOrder.values()) {
+            ArrayList<BookModel> all = helper.getBooksPage(order, null, 100, null);
+            for (int i = 1; i < all.size(); i++) {
+                assertTrue(order.name() + " at " + i, order.compare(all.get(i - 1), all.get(i)) < 0);
+                assertTrue(order.name() + " at " + i, order.compare(all.get(i), all.get(i - 1)) > 0);
+            }
+        }
+        helper.close();
+    }
+}
@@ -0,0 +1,109 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static com.vrajpatel.book_keeper.TestLibrary.findBook;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that queued edits and adds are written together in one transaction and that a
+ *  failed batch is put back on the queue only once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookWriteQueueTest {
+
+    private static final String DB_NAME = "write_queue_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void helper_writesQueuedEditsAndAddsTogether() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        BookModel dune = findBook(helper, "dune");
+        BookModel emma = findBook(helper, "emma");
+        long seq = helper.getJournalSeq();
+
+        ArrayList<BookModel> updates = new ArrayList<>();
+        updates.add(new BookModel("Dune Messiah", "dune messiah", "Frank Herbert", true, dune.getID(), "Attic"));
+        // Would duplicate Ulysses, only this edit is refused
+        updates.add(new BookModel("Ulysses", "ulysses", "James Joyce", false, emma.getID(), "Default"));
+        ArrayList<BookModel> adds = new ArrayList<>();
+        adds.add(new BookModel("Beloved", "beloved", "Toni Morrison", false, 0, "Loft"));
+        adds.add(new BookModel("Dune Messiah", "dune messiah", "Frank Herbert", false, 0, "Default"));
+
+        DatabaseHelper.BatchWriteResult result = helper.writeBooks(updates, adds);
+        assertEquals(1, result.getRejectedUpdates().size());
+        assertSame(updates.get(1), result.getRejectedUpdates().get(0));
+        // The second add now duplicates the edited Dune
+        assertEquals(1, result.getAdded().getInserted().size());
+        assertSame(adds.get(1), result.getAdded().getSkipped().get(0));
+
+        assertEquals("Attic", findBook(helper, "dune messiah").getShelfLocation());
+        assertNotNull(findBook(helper, "emma"));
+        assertNotNull(findBook(helper, "beloved"));
+        assertEquals(4, helper.getStoredBooks().size());
+        assertEquals(seq + 2, helper.getJournalSeq());
+        assertTrue(helper.isStatsSummaryConsistent());
+        helper.close();
+    }
+
+    @Test
+    public void writeQueue_restoresAFailedBatchOnce() {
+        BookWriteQueue queue = new BookWriteQueue(() -> {});
+        queue.update(new BookModel("Dune", "dune", "Frank Herbert", true, 1, "Attic"), null, null);
+        queue.add(new BookModel("Beloved", "beloved", "Toni Morrison", false, 0, "Loft"), null, null);
+        BookWriteQueue.Batch failed = queue.take();
+
+        // An edit made while the batch was committing wins over the restored one
+        queue.update(new BookModel("Dune", "dune", "Frank Herbert", false, 1, "Loft"), null, null);
+        assertTrue(queue.restore(failed));
+        BookWriteQueue.Batch retry = queue.take();
+        assertEquals(1, retry.getUpdates().size());
+        assertEquals("Loft", retry.getUpdates().iterator().next().getShelfLocation());
+        assertEquals(1, retry.getAdds().size());
+        assertEquals("beloved", retry.getAdds().get(0).getTitleLowerCase());
+
+        // A batch that already failed once is given up on
+        assertFalse(queue.restore(retry));
+        assertNull(queue.take());
+    }
+}
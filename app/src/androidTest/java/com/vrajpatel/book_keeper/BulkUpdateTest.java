@@ -0,0 +1,135 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static com.vrajpatel.book_keeper.TestLibrary.findBook;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the set-based updates: a whole shelf's books or a set of search results changed with
+ *  a few statements, in batches below SQLite's bound value limit.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkUpdateTest {
+
+    private static final String DB_NAME = "bulk_update_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void helper_updatesBooksInBulk() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+
+        assertEquals(1, helper.setShelfReadStatus("Default", true));
+        assertTrue(findBook(helper, "emma").getReadStatus());
+        assertEquals(2, helper.moveShelfBooks("Default", "Attic"));
+        assertEquals("Attic", findBook(helper, "dune").getShelfLocation());
+        assertTrue(helper.getShelfNames().contains("Default"));
+
+        ArrayList<Integer> all = new ArrayList<>();
+        for (BookModel book : helper.getStoredBooks()) {
+            all.add(book.getID());
+        }
+        assertEquals(2, helper.setReadStatus(all, false).size());
+        all.clear();
+        all.add(findBook(helper, "ulysses").getID());
+        assertEquals(1, helper.setReadStatus(all, true).size());
+        assertTrue(findBook(helper, "ulysses").getReadStatus());
+
+        assertEquals(3, helper.deleteShelfBooks("Attic"));
+        assertEquals(0, helper.deleteShelfBooks("Attic"));
+        assertEquals(0, helper.getStoredBooks().size());
+        assertTrue(helper.isStatsSummaryConsistent());
+        // Only soft deleted, the rows wait for the purge
+        assertEquals(3, helper.purgeDeletedBooks(Long.MAX_VALUE, 10));
+        helper.close();
+    }
+
+    @Test
+    public void helper_setsReadStatusInBatches() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        // Enough books for a second batch, all not read
+        int added = DatabaseHelper.MAX_BATCH_IDS + 50;
+        db.beginTransaction();
+        for (int i = 0; i < added; i++) {
+            db.execSQL("INSERT INTO book_table (title, lowercase_title, author, is_read, shelf_id) "
+                    + "VALUES ('Book " + i + "', 'book " + i + "', NULL, 0, 1)");
+        }
+        db.setTransactionSuccessful();
+        db.endTransaction();
+
+        ArrayList<Integer> ids = new ArrayList<>();
+        for (BookModel book : helper.getStoredBooks()) {
+            ids.add(book.getID());
+        }
+        ids.add(-1);    // no such book
+        int dune = findBook(helper, "dune").getID();
+        helper.softDeleteBook(findBook(helper, "emma").getID());
+
+        // Dune is read already and Emma deleted, neither changes
+        ArrayList<Integer> changed = helper.setReadStatus(ids, true);
+        assertEquals(added + 1, changed.size());
+        assertFalse(changed.contains(dune));
+        assertTrue(findBook(helper, "ulysses").getReadStatus());
+        assertTrue(findBook(helper, "book " + (added - 1)).getReadStatus());
+        assertEquals(0, helper.setReadStatus(ids, true).size());
+        assertTrue(helper.isStatsSummaryConsistent());
+        helper.close();
+    }
+
+    @Test
+    public void helper_setsReadStatusOfSearchResults() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        BookSearchIndex index = new BookSearchIndex();
+        index.rebuild(helper.getStoredBooks());
+
+        ArrayList<Integer> ids = new ArrayList<>(index.search("ja", null));
+        assertEquals(2, helper.setReadStatus(ids, true).size());
+        assertEquals(0, helper.setReadStatus(ids, true).size());
+        assertTrue(helper.isStatsSummaryConsistent());
+        helper.close();
+    }
+}
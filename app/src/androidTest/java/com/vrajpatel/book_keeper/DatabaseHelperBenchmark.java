@@ -0,0 +1,107 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the per-operation latency of the persistent, WAL enabled connection against the old
+ *  pattern of closing the database after every call. Results are written to logcat under the
+ *  "DatabaseHelperBenchmark" tag and are not asserted on, timings vary too much between devices
+ *  and runs; only the properties that make the persistent connection cheaper are checked.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseHelperBenchmark {
+
+    private static final String TAG = "DatabaseHelperBenchmark";
+    private static final String DB_NAME = "benchmark_book_table";
+    private static final int SEED_BOOKS = 500;
+    private static final int ITERATIONS = 200;
+
+    private Context context;
+    private DatabaseHelper helper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        helper = new DatabaseHelper(context, DB_NAME);
+        for (int i = 0; i < SEED_BOOKS; i++) {
+            helper.addData("Title " + i, "Author " + i, "title " + i, i % 2 == 0, "Default");
+        }
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void persistentConnection_reportsLatency() {
+        // Warm up both paths once so that class loading is not measured
+        helper.getStoredBooks();
+        helper.close();
+
+        long[] openClose = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            helper.generateStatsReport();
+            helper.close();    // previous behaviour: every call closed the database
+            openClose[i] = System.nanoTime() - start;
+        }
+
+        SQLiteDatabase db = helper.getReadableDatabase();
+        long[] persistent = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            helper.generateStatsReport();
+            persistent[i] = System.nanoTime() - start;
+        }
+
+        long openCloseMedian = median(openClose);
+        long persistentMedian = median(persistent);
+        Log.i(TAG, "generateStatsReport median (us): open/close=" + openCloseMedian / 1000
+                + " persistent=" + persistentMedian / 1000);
+
+        // The same WAL connection served every call instead of being reopened
+        assertSame(db, helper.getReadableDatabase());
+        assertTrue(db.isOpen());
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null).toLowerCase());
+    }
+
+    private static long median(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,101 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static com.vrajpatel.book_keeper.TestLibrary.findBook;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that maintenance gives the pages of deleted books back to the file system, switching
+ *  an older database over to incremental vacuum on its first run.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseMaintenanceTest {
+
+    private static final String DB_NAME = "maintenance_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void helper_maintenanceReclaimsDeletedBooks() {
+        // Created before incremental vacuum was turned on
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        DatabaseMaintenance maintenance = new DatabaseMaintenance(helper);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals(0, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+
+        for (int round = 0; round < 2; round++) {
+            ArrayList<BookModel> books = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                String title = "Maintenance book " + i + " with a title long enough to fill pages";
+                books.add(new BookModel(title, title.toLowerCase(), "Author " + i, false, 0, "Cellar"));
+            }
+            helper.addBooks(books);
+            helper.checkpointWal();
+            long filled = helper.getDatabaseFile().length();
+            assertEquals(2000, helper.deleteShelfBooks("Cellar"));
+            assertEquals(2000, helper.purgeDeletedBooks(Long.MAX_VALUE, 5000));
+            helper.trimJournal(helper.getJournalSeq());
+
+            DatabaseMaintenance.Report report = maintenance.run(null);
+            assertTrue(report.getPagesFreed() > 0);
+            assertTrue(report.getDatabaseBytesAfter() < filled);
+            assertEquals(0, report.getWalBytesAfter());
+            assertEquals(BookSortOrder.values().length + 1, report.getQueryMsAfter().length);
+            assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+            assertEquals(0, DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null));
+        }
+        assertEquals(3, helper.getStoredBooks().size());
+        assertNotNull(findBook(helper, "dune"));
+        assertTrue(helper.isStatsSummaryConsistent());
+        helper.close();
+    }
+
+    @Test
+    public void helper_newDatabaseUsesIncrementalVacuum() {
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        assertEquals(2, DatabaseUtils.longForQuery(helper.getReadableDatabase(), "PRAGMA auto_vacuum", null));
+        helper.close();
+    }
+}
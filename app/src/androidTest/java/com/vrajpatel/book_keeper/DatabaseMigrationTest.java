@@ -0,0 +1,245 @@
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion1Database;
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static com.vrajpatel.book_keeper.TestLibrary.indexNames;
+import static org.junit.Assert.*;
+
+/**
+ * Runs each migration step against a real database file written in the layout of an older
+ *  version of the app, then checks the data and the schema that come out of it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseMigrationTest {
+
+    private static final String DB_NAME = "migration_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void migrate1To2_addsShelfColumnWithDefault() {
+        SQLiteDatabase db = createVersion1Database(context, DB_NAME);
+        DatabaseMigrations.migrate(db, 1, 2);
+
+        Cursor cursor = db.rawQuery("SELECT " + DatabaseHelper.COL_SHELF_LOCATION + " FROM "
+                + DatabaseHelper.TABLE_NAME, null);
+        assertEquals(3, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals("Default", cursor.getString(0));
+        }
+        cursor.close();
+        db.close();
+    }
+
+    @Test
+    public void migrate2To3_removesDuplicatesAndAddsUniqueIndex() {
+        SQLiteDatabase db = createVersion2Database(context, DB_NAME);
+        db.execSQL("INSERT INTO book_table (title, lowercase_title, author, is_read, shelf_location)"
+                + " VALUES ('Dune', 'dune', 'Frank Herbert', 1, 'Attic')");
+        DatabaseMigrations.migrate(db, 2, 3);
+
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, DatabaseHelper.TABLE_NAME));
+        assertTrue(indexNames(db).contains(DatabaseMigrations.INDEX_TITLE_AUTHOR));
+        // The oldest copy of a duplicate is the one that is kept
+        assertEquals("Default", DatabaseUtils.stringForQuery(db, "SELECT shelf_location FROM "
+                + "book_table WHERE lowercase_title = 'dune'", null));
+        db.close();
+    }
+
+    @Test
+    public void migrate3To4_addsLookupIndexes() {
+        SQLiteDatabase db = createVersion2Database(context, DB_NAME);
+        DatabaseMigrations.migrate(db, 2, 4);
+
+        ArrayList<String> indexes = indexNames(db);
+        assertTrue(indexes.contains(DatabaseMigrations.INDEX_AUTHOR));
+        assertTrue(indexes.contains(DatabaseMigrations.INDEX_SHELF_LOCATION));
+        assertTrue(indexes.contains(DatabaseMigrations.INDEX_IS_READ));
+        db.close();
+    }
+
+    @Test
+    public void migrate4To5_indexesExistingBooksAndFollowsChanges() {
+        SQLiteDatabase db = createVersion2Database(context, DB_NAME);
+        DatabaseMigrations.migrate(db, 2, 5);
+
+        assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM book_fts WHERE "
+                + "book_fts MATCH 'joy*'", null));
+        db.execSQL("UPDATE book_table SET author = 'Jim Joyce' WHERE lowercase_title = 'ulysses'");
+        assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM book_fts WHERE "
+                + "book_fts MATCH 'jim'", null));
+        db.execSQL("DELETE FROM book_table WHERE lowercase_title = 'ulysses'");
+        assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM book_fts WHERE "
+                + "book_fts MATCH 'joy*'", null));
+        db.close();
+    }
+
+    @Test
+    public void migrate5To6_countsExistingBooksAndFollowsChanges() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        assertTrue(helper.isStatsSummaryConsistent());
+        FragAppStats.BookListInformation stats = helper.generateStatsReport();
+        assertEquals(3, stats.getBookCount());
+        assertEquals(1, stats.getReadCount());
+        assertEquals(2, stats.getShelves().size());
+
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.execSQL("UPDATE book_table SET shelf_id = (SELECT ID FROM shelves WHERE name = 'Attic'), "
+                + "is_read = 1 WHERE lowercase_title = 'emma'");
+        db.execSQL("DELETE FROM book_table WHERE lowercase_title = 'dune'");
+        assertTrue(helper.isStatsSummaryConsistent());
+        stats = helper.generateStatsReport();
+        assertEquals(2, stats.getBookCount());
+        assertEquals(1, stats.getReadCount());
+        assertEquals(1, stats.getShelves().size());
+
+        // A summary that drifted is caught and repaired by a rebuild
+        db.execSQL("UPDATE book_stats_totals SET book_count = 40");
+        assertFalse(helper.isStatsSummaryConsistent());
+        helper.rebuildStatsSummary();
+        assertTrue(helper.isStatsSummaryConsistent());
+        helper.close();
+    }
+
+    @Test
+    public void migrate6To7_movesShelfNamesIntoShelfTable() {
+        SQLiteDatabase db = createVersion2Database(context, DB_NAME);
+        db.execSQL("UPDATE book_table SET shelf_location = NULL WHERE lowercase_title = 'emma'");
+        DatabaseMigrations.migrate(db, 2, 7);
+
+        assertEquals(2, DatabaseUtils.queryNumEntries(db, DatabaseHelper.SHELF_TABLE_NAME));
+        assertEquals("Default", DatabaseUtils.stringForQuery(db, "SELECT s.name FROM book_table b "
+                + "JOIN shelves s ON s.ID = b.shelf_id WHERE b.lowercase_title = 'emma'", null));
+        assertEquals("Attic", DatabaseUtils.stringForQuery(db, "SELECT s.name FROM book_table b "
+                + "JOIN shelves s ON s.ID = b.shelf_id WHERE b.lowercase_title = 'ulysses'", null));
+        assertTrue(indexNames(db).contains(DatabaseMigrations.INDEX_SHELF_ID));
+        // The rebuilt table still feeds the full-text index
+        assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM book_fts WHERE "
+                + "book_fts MATCH 'joy*'", null));
+        db.close();
+    }
+
+    @Test
+    public void migrate7To8_replacesLookupIndexesWithSortIndexes() {
+        SQLiteDatabase db = createVersion2Database(context, DB_NAME);
+        DatabaseMigrations.migrate(db, 2, 8);
+
+        ArrayList<String> indexes = indexNames(db);
+        assertTrue(indexes.contains(DatabaseMigrations.INDEX_TITLE_ORDER));
+        assertTrue(indexes.contains(DatabaseMigrations.INDEX_AUTHOR_ORDER));
+        assertTrue(indexes.contains(DatabaseMigrations.INDEX_SHELF_ORDER));
+        assertFalse(indexes.contains(DatabaseMigrations.INDEX_AUTHOR));
+        assertFalse(indexes.contains(DatabaseMigrations.INDEX_SHELF_ID));
+        db.close();
+    }
+
+    @Test
+    public void migrate11To12_storesMissingAuthorsAsEmpty() {
+        SQLiteDatabase db = createVersion2Database(context, DB_NAME);
+        DatabaseMigrations.migrate(db, 2, 11);
+        // The NULLs do not clash in the unique index, so both copies get in
+        db.execSQL("INSERT INTO book_table (title, lowercase_title, author, is_read, shelf_id)"
+                + " VALUES ('Beowulf', 'beowulf', NULL, 0, 1), ('Beowulf', 'beowulf', NULL, 1, 1)");
+        DatabaseMigrations.migrate(db, 11, 12);
+
+        assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM book_table WHERE "
+                + "lowercase_title = 'beowulf' AND author = ''", null));
+        assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM book_table WHERE "
+                + "author IS NULL", null));
+        assertEquals(4, DatabaseUtils.longForQuery(db, "SELECT book_count FROM book_stats_totals", null));
+        db.close();
+
+        // From now on a book without an author is a duplicate like any other
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        assertFalse(helper.addData("Beowulf", null, "beowulf", false, "Default"));
+        assertTrue(helper.addData("Grendel", null, "grendel", false, "Default"));
+        assertFalse(helper.addData("Grendel", null, "grendel", true, "Attic"));
+        helper.close();
+    }
+
+    @Test
+    public void migrate12To13_dropsImportPositionsSavedByName() {
+        SQLiteDatabase db = createVersion2Database(context, DB_NAME);
+        DatabaseMigrations.migrate(db, 2, 12);
+        db.execSQL("INSERT INTO import_progress (source, rows_read, inserted_count, skipped_count, "
+                + "rejected_count) VALUES ('content://library.csv', 1000, 990, 10, 0)");
+        DatabaseMigrations.migrate(db, 12, 13);
+
+        assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM import_progress", null));
+        db.execSQL("INSERT INTO import_progress (source, rows_read, inserted_count, skipped_count, "
+                + "rejected_count, updated_at) VALUES ('content://library.csv#1:1', 1, 1, 0, 0, 5)");
+        db.close();
+    }
+
+    @Test
+    public void migrate13To14_dropsFullTextIndex() {
+        SQLiteDatabase db = createVersion2Database(context, DB_NAME);
+        DatabaseMigrations.migrate(db, 2, 13);
+        assertTrue(schemaCount(db, "book_fts%") > 0);
+        DatabaseMigrations.migrate(db, 13, 14);
+
+        // The virtual table's shadow tables go with it
+        assertEquals(0, schemaCount(db, "book_fts%"));
+        db.execSQL("UPDATE book_table SET author = 'Jim Joyce' WHERE lowercase_title = 'ulysses'");
+        db.execSQL("DELETE FROM book_table WHERE lowercase_title = 'emma'");
+        assertEquals(2, DatabaseUtils.queryNumEntries(db, DatabaseHelper.TABLE_NAME));
+        db.close();
+    }
+
+    @Test
+    public void helper_upgradesVersion2FileToLatest() {
+        createVersion2Database(context, DB_NAME).close();
+
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        assertEquals(DatabaseMigrations.LATEST_VERSION, helper.getReadableDatabase().getVersion());
+        assertEquals(3, helper.getStoredBooks().size());
+        helper.close();
+    }
+
+    @Test
+    public void helper_freshInstallMatchesUpgradedSchema() {
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        ArrayList<String> fresh = indexNames(helper.getReadableDatabase());
+        helper.close();
+        context.deleteDatabase(DB_NAME);
+
+        createVersion1Database(context, DB_NAME).close();
+        helper = new DatabaseHelper(context, DB_NAME);
+        ArrayList<String> upgraded = indexNames(helper.getReadableDatabase());
+        helper.close();
+
+        assertEquals(fresh, upgraded);
+    }
+
+    private static long schemaCount(SQLiteDatabase db, String namePattern) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name LIKE ?",
+                new String[] {namePattern});
+    }
+}
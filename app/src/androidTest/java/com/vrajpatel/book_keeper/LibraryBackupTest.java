@@ -0,0 +1,96 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static com.vrajpatel.book_keeper.TestLibrary.deleteDirectory;
+import static com.vrajpatel.book_keeper.TestLibrary.findBook;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that backups are written incrementally from the change journal and that restoring
+ *  them brings back the library as it was at the last backup.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LibraryBackupTest {
+
+    private static final String DB_NAME = "backup_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void helper_backsUpFromTheJournalAndRestores() throws IOException {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        File directory = new File(context.getCacheDir(), "test_" + LibraryBackup.DIRECTORY_NAME);
+        deleteDirectory(directory);
+        LibraryBackup backup = new LibraryBackup(helper);
+
+        LibraryBackup.Result base = backup.backUp(directory);
+        assertTrue(base.isBase());
+        assertEquals(3, base.getBooks());
+        assertEquals(0, backup.backUp(directory).getBooks());
+
+        helper.softDeleteBook(findBook(helper, "dune").getID());
+        helper.addData("Kindred", "Octavia Butler", "kindred", false, "Default");
+        helper.renameShelf("Attic", "Loft");
+        LibraryBackup.Result changes = backup.backUp(directory);
+        assertFalse(changes.isBase());
+        assertEquals(3, changes.getBooks());
+
+        // A change that was never backed up is lost by the restore
+        helper.addData("Beloved", "Toni Morrison", "beloved", false, "Default");
+        LibraryBackup.Result restored = backup.restore(directory);
+        assertEquals(6, restored.getBooks());
+        assertEquals(3, helper.getStoredBooks().size());
+        assertNull(findBook(helper, "dune"));
+        assertNull(findBook(helper, "beloved"));
+        assertEquals("Loft", findBook(helper, "ulysses").getShelfLocation());
+        assertTrue(helper.isStatsSummaryConsistent());
+
+        // The journal carries on from the restored backup
+        assertEquals(restored.getSeq(), helper.getJournalSeq());
+        helper.setShelfReadStatus("Loft", true);
+        assertFalse(backup.backUp(directory).isBase());
+        deleteDirectory(directory);
+        helper.close();
+    }
+}
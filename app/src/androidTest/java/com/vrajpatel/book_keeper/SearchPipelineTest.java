@@ -0,0 +1,88 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the search pipeline only refines with the steps that are cheaper than the index
+ *  lookup they follow.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchPipelineTest {
+
+    private static final String DB_NAME = "search_pipeline_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void searchPipeline_refinesOnlyStepsSmallerThanTheIndexLookup() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        BookRepository repository = new BookRepository(helper,
+                new File(context.getCacheDir(), "search_pipeline_test_snapshot"));
+        SearchPipeline pipeline = new SearchPipeline(repository, 0, result -> {});
+
+        // All books, not kept as a step, so the next query searches the index
+        assertEquals(3, pipeline.run("", true, true, false, null).getBooks().size());
+        SearchPipeline.Result result = pipeline.run("j", true, true, false, null);
+        assertEquals(2, result.getBooks().size());
+        assertFalse(result.isRefined());
+        // Too short for trigrams, the index would check every book
+        result = pipeline.run("ja", true, true, false, null);
+        assertEquals(2, result.getBooks().size());
+        assertTrue(result.isRefined());
+        // Only one book has the trigram "jam", fewer than the two results of "ja"
+        result = pipeline.run("jam", true, true, false, null);
+        assertEquals(1, result.getBooks().size());
+        assertFalse(result.isRefined());
+        // Backspace returns the kept results
+        result = pipeline.run("ja", true, true, false, null);
+        assertEquals(2, result.getBooks().size());
+        assertTrue(result.isRefined());
+
+        assertEquals(3, pipeline.run("", true, true, false, null).getBooks().size());
+        result = pipeline.run("d", true, true, false, null);
+        assertEquals(1, result.getBooks().size());
+        assertFalse(result.isRefined());
+        helper.close();
+    }
+}
@@ -0,0 +1,76 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static com.vrajpatel.book_keeper.TestLibrary.findBook;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that shelves are renamed, merged and deleted through their own table, with the
+ *  books on them following and the stats summary kept exact.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ShelvesTest {
+
+    private static final String DB_NAME = "shelves_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void helper_renamesMergesAndDeletesShelves() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        assertTrue(helper.addShelf("Garage"));
+        assertFalse(helper.addShelf("Garage"));
+
+        assertTrue(helper.renameShelf("Attic", "Loft"));
+        assertEquals("Loft", findBook(helper, "ulysses").getShelfLocation());
+
+        // Renaming onto a taken name merges the shelves
+        assertTrue(helper.renameShelf("Loft", "Garage"));
+        assertEquals("Garage", findBook(helper, "ulysses").getShelfLocation());
+        assertFalse(helper.getShelfNames().contains("Loft"));
+
+        assertTrue(helper.deleteShelf("Garage"));
+        assertEquals("Default", findBook(helper, "ulysses").getShelfLocation());
+        assertFalse(helper.deleteShelf("Default"));
+        assertTrue(helper.isStatsSummaryConsistent());
+        helper.close();
+    }
+}
@@ -0,0 +1,84 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.vrajpatel.book_keeper.TestLibrary.createVersion2Database;
+import static com.vrajpatel.book_keeper.TestLibrary.findBook;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that deleted books are kept as tombstones that can be restored until they are
+ *  purged, without blocking the same book from being added again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SoftDeleteTest {
+
+    private static final String DB_NAME = "soft_delete_test_book_table";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void helper_softDeletesRestoresAndPurgesBooks() {
+        createVersion2Database(context, DB_NAME).close();
+        DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+        int dune = findBook(helper, "dune").getID();
+        int emma = findBook(helper, "emma").getID();
+
+        assertTrue(helper.softDeleteBook(dune));
+        assertFalse(helper.softDeleteBook(dune));
+        assertNull(findBook(helper, "dune"));
+        assertTrue(helper.isStatsSummaryConsistent());
+
+        assertTrue(helper.restoreBook(dune));
+        assertNotNull(findBook(helper, "dune"));
+        assertTrue(helper.isStatsSummaryConsistent());
+
+        // A tombstoned copy must not block adding the same book again
+        assertTrue(helper.softDeleteBook(emma));
+        assertTrue(helper.addData("Emma", "Jane Austen", "emma", false, "Default"));
+        assertFalse(helper.restoreBook(emma));
+
+        helper.softDeleteBook(dune);
+        assertEquals(0, helper.purgeDeletedBooks(0, 10));
+        assertEquals(1, helper.purgeDeletedBooks(Long.MAX_VALUE, 10));
+        assertFalse(helper.restoreBook(dune));
+        assertEquals(2, helper.getStoredBooks().size());
+        assertTrue(helper.isStatsSummaryConsistent());
+        helper.close();
+    }
+}
@@ -0,0 +1,90 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Databases and lookups shared by the database tests. Both old layouts hold the same library:
+ *  Dune (Frank Herbert, read), Emma (Jane Austen) and Ulysses (James Joyce); from version 2 on
+ *  Dune and Emma are on the Default shelf and Ulysses is in the Attic.
+ */
+final class TestLibrary {
+
+    private TestLibrary() {}
+
+    static SQLiteDatabase openRawDatabase(Context context, String name) {
+        File file = context.getDatabasePath(name);
+        file.getParentFile().mkdirs();
+        return SQLiteDatabase.openOrCreateDatabase(file, null);
+    }
+
+    static SQLiteDatabase createVersion1Database(Context context, String name) {
+        SQLiteDatabase db = openRawDatabase(context, name);
+        DatabaseMigrations.createInitialSchema(db);
+        db.execSQL("INSERT INTO book_table (title, lowercase_title, author, is_read) VALUES "
+                + "('Dune', 'dune', 'Frank Herbert', 1), "
+                + "('Emma', 'emma', 'Jane Austen', 0), "
+                + "('Ulysses', 'ulysses', 'James Joyce', 0)");
+        db.setVersion(1);
+        return db;
+    }
+
+    static SQLiteDatabase createVersion2Database(Context context, String name) {
+        // Version 2 layout as written by the original onCreate
+        SQLiteDatabase db = openRawDatabase(context, name);
+        db.execSQL("CREATE TABLE book_table (ID INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT, "
+                + "lowercase_title TEXT, author TEXT, is_read INTEGER, shelf_location TEXT)");
+        db.execSQL("INSERT INTO book_table (title, lowercase_title, author, is_read, shelf_location)"
+                + " VALUES ('Dune', 'dune', 'Frank Herbert', 1, 'Default'), "
+                + "('Emma', 'emma', 'Jane Austen', 0, 'Default'), "
+                + "('Ulysses', 'ulysses', 'James Joyce', 0, 'Attic')");
+        db.setVersion(2);
+        return db;
+    }
+
+    static BookModel findBook(DatabaseHelper helper, String titleLowerCase) {
+        for (BookModel book : helper.getStoredBooks()) {
+            if (book.getTitleLowerCase().equals(titleLowerCase)) { return book;}
+        }
+        return null;
+    }
+
+    static ArrayList<String> indexNames(SQLiteDatabase db) {
+        ArrayList<String> names = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND "
+                + "name NOT LIKE 'sqlite_%' ORDER BY name", null);
+        while (cursor.moveToNext()) {
+            names.add(cursor.getString(0));
+        }
+        cursor.close();
+        return names;
+    }
+
+    static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) { file.delete();}
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,122 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import java.util.List;
+
+/**
+ * BookChange
+ *  One change to the stored books, as published by BookRepository to every open screen once it
+ *   has been committed. Carries the book's values before and after the change, so a screen can
+ *   update just the rows or counters it affects instead of reloading everything. Changes that
+ *   touch many books at once (shelf operations, imports, restores) are published as a single
+ *   RELOADED change, after which everything should be read again.
+ */
+public final class BookChange {
+
+    public enum Type { ADDED, UPDATED, REMOVED, RELOADED }
+
+    // Fields that can differ between before and after, see getChangedFields()
+    public static final int FIELD_TITLE = 1;
+    public static final int FIELD_AUTHOR = 1 << 1;
+    public static final int FIELD_READ_STATUS = 1 << 2;
+    public static final int FIELD_SHELF = 1 << 3;
+
+    private static final BookChange RELOADED = new BookChange(Type.RELOADED, 0, null, null);
+
+    private final Type type;
+    private final int bookID;
+    private final BookModel before;
+    private final BookModel after;
+    private final int changedFields;
+
+    /*-----------------------------------------------------------------------------------
+     * Listener: (interface)
+     *  Receives the changes of each commit, in order, on the UI thread. See
+     *   BookRepository.addChangeListener().
+     */
+    public interface Listener {
+        void onBooksChanged(List<BookChange> changes);
+    }
+
+    //==============================================================================================
+    private BookChange(Type type, int bookID, BookModel before, BookModel after) {
+        this.type = type;
+        this.bookID = bookID;
+        this.before = before;
+        this.after = after;
+        this.changedFields = before == null || after == null ? 0 : diff(before, after);
+    }
+    //==============================================================================================
+
+    static BookChange added(BookModel book) {
+        return new BookChange(Type.ADDED, book.getID(), null, book);
+    }
+
+    static BookChange removed(BookModel book) {
+        return new BookChange(Type.REMOVED, book.getID(), book, null);
+    }
+
+    static BookChange updated(BookModel before, BookModel after) {
+        return new BookChange(Type.UPDATED, after.getID(), before, after);
+    }
+
+    static BookChange reloaded() {
+        return RELOADED;
+    }
+    //==============================================================================================
+
+    /**
+     * isReload:
+     *  Checks a list of changes for a RELOADED change.
+     * @param changes  Changes of one commit
+     * @return boolean  True if the changes cannot be applied one by one
+     */
+    public static boolean isReload(List<BookChange> changes) {
+        for (BookChange change : changes) {
+            if (change.type == Type.RELOADED) { return true;}
+        }
+        return false;
+    }
+    //==============================================================================================
+
+    public Type getType() {return type;}
+    public int getBookID() {return bookID;}
+    // Values before the change, null for ADDED and RELOADED
+    public BookModel getBefore() {return before;}
+    // Values after the change, null for REMOVED and RELOADED
+    public BookModel getAfter() {return after;}
+    // FIELD_* flags of the fields that differ, only set for UPDATED
+    public int getChangedFields() {return changedFields;}
+    public boolean hasChanged(int field) {return (changedFields & field) != 0;}
+
+    //==============================================================================================
+    // Books are never changed once the repository has cached them, so they are kept as they are
+    private static int diff(BookModel before, BookModel after) {
+        int fields = 0;
+        if (!equal(before.getTitle(), after.getTitle())) { fields |= FIELD_TITLE;}
+        if (!equal(before.getAuthor(), after.getAuthor())) { fields |= FIELD_AUTHOR;}
+        if (before.getReadStatus() != after.getReadStatus()) { fields |= FIELD_READ_STATUS;}
+        if (!equal(before.getShelfLocation(), after.getShelfLocation())) { fields |= FIELD_SHELF;}
+        return fields;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+    //==============================================================================================
+}
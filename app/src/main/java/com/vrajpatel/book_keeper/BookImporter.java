@@ -0,0 +1,504 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.os.CancellationSignal;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * BookImporter
+ *  Adds a whole library from a CSV or JSON file. The file is read one row at a time, so memory
+ *   use does not grow with its size, and the books are added in chunks of CHUNK_SIZE, each in
+ *   its own transaction. The position in the file is saved in the same transaction as each
+ *   chunk, so an import that was interrupted (even by the process being killed) picks up after
+ *   the last committed chunk when the same file is imported again. A file counts as the same
+ *   if it has the same name and starts with the same FINGERPRINT_CHARS characters, and a saved
+ *   position is forgotten after IMPORT_EXPIRY_MS.
+ *
+ *  CSV files may start with a header naming the columns (title, author, read, shelf), otherwise
+ *   the columns are expected in that order. JSON files hold an array of objects with the same
+ *   keys, either at the top level or under "books".
+ */
+public class BookImporter {
+
+    private static final String TAG = "BookImporter";
+
+    // Books added per transaction: large enough that the commits are cheap, small enough that a
+    //  chunk never holds the writer for long and little work is repeated after a crash
+    static final int CHUNK_SIZE = 1000;
+
+    // Characters at the start of the file hashed into the key of its saved position
+    static final int FINGERPRINT_CHARS = 16 * 1024;
+
+    // Time after which the saved position of an import that was not picked up again is dropped
+    static final long IMPORT_EXPIRY_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    // Position of each book field in a row
+    private static final int FIELD_TITLE = 0;
+    private static final int FIELD_AUTHOR = 1;
+    private static final int FIELD_READ = 2;
+    private static final int FIELD_SHELF = 3;
+    private static final int FIELD_COUNT = 4;
+
+    private final DatabaseHelper mDatabaseHelper;
+    private final int chunkSize;
+
+    /*-----------------------------------------------------------------------------------
+     * Format: (enum)
+     *  Supported file formats.
+     */
+    public enum Format {
+        CSV, JSON;
+
+        /**
+         * detect:
+         *  Picks the format from the mime type or, failing that, the file name. CSV is assumed
+         *   when neither says JSON.
+         * @param mimeType  Mime type of the file, may be null
+         * @param fileName  Name of the file, may be null
+         * @return Format of the file
+         */
+        public static Format detect(String mimeType, String fileName) {
+            if (mimeType != null && mimeType.contains("json")) { return JSON;}
+            if (fileName != null && fileName.toLowerCase().endsWith(".json")) { return JSON;}
+            return CSV;
+        }
+    }
+
+    /*-----------------------------------------------------------------------------------
+     * ProgressListener: (interface)
+     *  Told about the progress after every committed chunk. Called on the importing thread.
+     */
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+    }
+
+    //==============================================================================================
+    public BookImporter(DatabaseHelper databaseHelper) {
+        this(databaseHelper, CHUNK_SIZE);
+    }
+    //==============================================================================================
+
+    BookImporter(DatabaseHelper databaseHelper, int chunkSize) {
+        this.mDatabaseHelper = databaseHelper;
+        this.chunkSize = chunkSize;
+    }
+    //==============================================================================================
+
+    /**
+     * importBooks:
+     *  Imports every row of the file. Rows that were committed by an earlier run for the same
+     *   source are read again but skipped. Cancelling stops the import after the next chunk is
+     *   committed, so it can be resumed later.
+     * @param reader    Reader over the file, closed by the caller
+     * @param format    Format of the file
+     * @param source    Stable name of the file, used with its fingerprint to find the saved
+     *                   position
+     * @param listener  Told about the progress, may be null
+     * @param signal    Stops the import when triggered, may be null
+     * @return Progress once the whole file has been imported
+     * @throws IOException if the file cannot be read or is not valid CSV/JSON
+     */
+    public Progress importBooks(BufferedReader reader, Format format, String source,
+                                ProgressListener listener, CancellationSignal signal) throws IOException {
+        skipByteOrderMark(reader);
+        String key = source + "#" + fingerprint(reader);
+        RowSource rows = format == Format.JSON ? new JsonRowSource(reader) : new CsvRowSource(reader);
+        mDatabaseHelper.deleteExpiredImports(System.currentTimeMillis() - IMPORT_EXPIRY_MS);
+        Progress progress = mDatabaseHelper.getImportProgress(key);
+        progress.resumedAt = progress.rowsRead;
+        Log.d(TAG, "importBooks: Importing " + source + " from row " + progress.rowsRead);
+
+        String[] row = new String[FIELD_COUNT];
+        for (long skipped = 0; skipped < progress.rowsRead; skipped++) {
+            if (!rows.next(row)) { break;}
+        }
+
+        ArrayList<BookModel> chunk = new ArrayList<>(chunkSize);
+        while (rows.next(row)) {
+            progress.rowsRead++;
+            BookModel book = toBook(row);
+            if (book == null) {
+                progress.rejected++;
+            } else {
+                chunk.add(book);
+            }
+            if (chunk.size() == chunkSize) {
+                commit(key, chunk, progress, false, listener);
+                if (signal != null) { signal.throwIfCanceled();}
+            }
+        }
+        commit(key, chunk, progress, true, listener);
+        Log.d(TAG, "importBooks: Finished " + source + ", inserted " + progress.inserted);
+        return progress;
+    }
+    //==============================================================================================
+
+    private void commit(String key, ArrayList<BookModel> chunk, Progress progress, boolean finished,
+                        ProgressListener listener) {
+        mDatabaseHelper.addImportChunk(key, chunk, progress, finished);
+        chunk.clear();
+        if (listener != null) { listener.onProgress(new Progress(progress));}
+    }
+    //==============================================================================================
+
+    /**
+     * toBook:
+     *  Validates and normalizes one row. Whitespace is trimmed and collapsed, an empty shelf is
+     *   the default shelf and the lowercase title is filled in the same way as FragAddBook does.
+     * @param row  Raw fields of the row
+     * @return BookModel, or null if the row has no title or an unknown read status
+     */
+    static BookModel toBook(String[] row) {
+        String title = clean(row[FIELD_TITLE]);
+        Boolean readStatus = parseReadStatus(row[FIELD_READ]);
+        if (title == null || readStatus == null) { return null;}
+        String shelf = clean(row[FIELD_SHELF]);
+        return new BookModel(title, title.toLowerCase(), clean(row[FIELD_AUTHOR]), readStatus, 0,
+                shelf != null ? shelf : DatabaseHelper.DEFAULT_SHELF);
+    }
+    //==============================================================================================
+
+    // Trims the value and collapses runs of whitespace to one space, null if nothing is left
+    private static String clean(String value) {
+        if (value == null) { return null;}
+        StringBuilder cleaned = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = cleaned.length() > 0;
+            } else {
+                if (space) { cleaned.append(' ');}
+                cleaned.append(c);
+                space = false;
+            }
+        }
+        return cleaned.length() > 0 ? cleaned.toString() : null;
+    }
+    //==============================================================================================
+
+    // Accepts the usual spellings of a yes/no flag, a missing value means not read
+    private static Boolean parseReadStatus(String value) {
+        String status = value == null ? "" : value.trim().toLowerCase();
+        switch (status) {
+            case "":
+            case "0":
+            case "false":
+            case "no":
+            case "n":
+            case "unread":
+                return Boolean.FALSE;
+            case "1":
+            case "true":
+            case "yes":
+            case "y":
+            case "x":
+            case "read":
+                return Boolean.TRUE;
+            default:
+                return null;
+        }
+    }
+    //==============================================================================================
+
+    // Maps a column name or JSON key to a book field, -1 if it is not one
+    private static int fieldFor(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "title":
+                return FIELD_TITLE;
+            case "author":
+                return FIELD_AUTHOR;
+            case "read":
+            case "is_read":
+            case "read_status":
+                return FIELD_READ;
+            case "shelf":
+            case "shelf_location":
+            case "shelf_name":
+                return FIELD_SHELF;
+            default:
+                return -1;
+        }
+    }
+    //==============================================================================================
+
+    private static void skipByteOrderMark(BufferedReader reader) throws IOException {
+        reader.mark(1);
+        if (reader.read() != '\uFEFF') { reader.reset();}
+    }
+    //==============================================================================================
+
+    /**
+     * fingerprint:
+     *  Hashes the first FINGERPRINT_CHARS characters of the file without consuming them, so that
+     *   a different file picked under the same name does not resume the import of the old one.
+     * @param reader  Reader over the file, left where it was
+     * @return String  Hash and number of characters hashed
+     * @throws IOException if the file cannot be read
+     */
+    static String fingerprint(BufferedReader reader) throws IOException {
+        reader.mark(FINGERPRINT_CHARS);
+        char[] chars = new char[4096];
+        long hash = 17;
+        int total = 0;
+        int read;
+        while (total < FINGERPRINT_CHARS
+                && (read = reader.read(chars, 0, Math.min(chars.length, FINGERPRINT_CHARS - total))) > 0) {
+            for (int i = 0; i < read; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            total += read;
+        }
+        reader.reset();
+        return Long.toHexString(hash) + ":" + total;
+    }
+    //==============================================================================================
+
+    /*-----------------------------------------------------------------------------------
+     * RowSource: (interface)
+     *  Reads the rows of a file one at a time into a reused array of FIELD_COUNT fields.
+     *   Missing fields are null.
+     */
+    private interface RowSource {
+        boolean next(String[] row) throws IOException;
+    }
+
+    /**
+     * CsvRowSource
+     *  RFC 4180 CSV: fields may be quoted, quoted fields may hold commas, line breaks and doubled
+     *   quotes. Blank lines are skipped. Reads through its own buffer instead of one read() call
+     *   per character.
+     */
+    private static class CsvRowSource implements RowSource {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+        private final StringBuilder field = new StringBuilder();
+        private final ArrayList<String> record = new ArrayList<>();
+        private int[] columns = {FIELD_TITLE, FIELD_AUTHOR, FIELD_READ, FIELD_SHELF};
+        private boolean pending;    // the first record was not a header and has not been returned
+
+        CsvRowSource(Reader reader) throws IOException {
+            this.reader = reader;
+            if (readRecord()) {
+                int[] header = headerColumns();
+                if (header != null) {
+                    columns = header;
+                } else {
+                    pending = true;
+                }
+            }
+        }
+
+        @Override
+        public boolean next(String[] row) throws IOException {
+            if (pending) {
+                pending = false;
+            } else if (!readRecord()) {
+                return false;
+            }
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                row[i] = columns[i] >= 0 && columns[i] < record.size() ? record.get(columns[i]) : null;
+            }
+            return true;
+        }
+
+        // Column of each book field if the current record is a header naming a title column
+        private int[] headerColumns() {
+            int[] header = new int[FIELD_COUNT];
+            Arrays.fill(header, -1);
+            for (int i = 0; i < record.size(); i++) {
+                int field = fieldFor(record.get(i));
+                if (field >= 0 && header[field] < 0) { header[field] = i;}
+            }
+            return header[FIELD_TITLE] >= 0 ? header : null;
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+
+        // Reads the next record that is not blank, false at the end of the file
+        private boolean readRecord() throws IOException {
+            record.clear();
+            field.setLength(0);
+            boolean quoted = false;
+            boolean blank = true;
+            int c;
+            while ((c = read()) != -1) {
+                if (quoted) {
+                    if (c != '"') {
+                        field.append((char) c);
+                        continue;
+                    }
+                    // A doubled quote is a literal quote, anything else ends the quoted part
+                    c = read();
+                    if (c == '"') {
+                        field.append('"');
+                        continue;
+                    }
+                    quoted = false;
+                    if (c == -1) { break;}
+                }
+                if (c == '"') {
+                    quoted = true;
+                    blank = false;
+                } else if (c == ',') {
+                    record.add(field.toString());
+                    field.setLength(0);
+                    blank = false;
+                } else if (c == '\n' || c == '\r') {
+                    // \r\n leaves a blank line behind, which is skipped like any other
+                    if (!blank) { break;}
+                } else {
+                    field.append((char) c);
+                    blank = false;
+                }
+            }
+            if (quoted) { throw new IOException("Unterminated quoted field");}
+            if (blank) { return false;}
+            record.add(field.toString());
+            return true;
+        }
+    }
+
+    /**
+     * JsonRowSource
+     *  Walks the array of books with a streaming JsonReader. Unknown keys are skipped, and an
+     *   array element that is not an object becomes an empty row so it is counted as rejected.
+     *   JsonReader reports a value of the wrong kind with an IllegalStateException; it is thrown
+     *   on as an IOException, like the syntax errors it reports.
+     */
+    private static class JsonRowSource implements RowSource {
+        private final JsonReader json;
+        private boolean done;
+
+        JsonRowSource(Reader reader) throws IOException {
+            json = new JsonReader(reader);
+            try {
+                start();
+            } catch (IllegalStateException e) {
+                throw invalid(e);
+            }
+        }
+
+        // Moves into the array of books, done if there is none
+        private void start() throws IOException {
+            if (json.peek() == JsonToken.BEGIN_OBJECT) {
+                json.beginObject();
+                done = true;
+                while (json.hasNext()) {
+                    if (json.nextName().equals("books")) {
+                        done = false;
+                        break;
+                    }
+                    json.skipValue();
+                }
+                if (done) { return;}
+            }
+            json.beginArray();
+        }
+
+        @Override
+        public boolean next(String[] row) throws IOException {
+            try {
+                return readRow(row);
+            } catch (IllegalStateException e) {
+                throw invalid(e);
+            }
+        }
+
+        private boolean readRow(String[] row) throws IOException {
+            if (done || !json.hasNext()) {
+                done = true;
+                return false;
+            }
+            Arrays.fill(row, null);
+            if (json.peek() != JsonToken.BEGIN_OBJECT) {
+                json.skipValue();
+                return true;
+            }
+            json.beginObject();
+            while (json.hasNext()) {
+                int field = fieldFor(json.nextName());
+                JsonToken token = json.peek();
+                if (field < 0) {
+                    json.skipValue();
+                } else if (token == JsonToken.BOOLEAN) {
+                    row[field] = json.nextBoolean() ? "true" : "false";
+                } else if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                    row[field] = json.nextString();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+            return true;
+        }
+
+        private static IOException invalid(IllegalStateException e) {
+            return new IOException("Not a valid book list: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Progress
+     *  How far an import has got. The counts cover every run of the same import, including the
+     *   runs before it was resumed.
+     */
+    public static class Progress {
+        long rowsRead;      // rows of the file that have been dealt with
+        int inserted;       // books added
+        int skipped;        // books that were already stored
+        int rejected;       // rows without a title or with an unknown read status
+        long resumedAt;     // rows that had already been read when this run started
+
+        Progress() {}
+
+        Progress(Progress other) {
+            this.rowsRead = other.rowsRead;
+            this.inserted = other.inserted;
+            this.skipped = other.skipped;
+            this.rejected = other.rejected;
+            this.resumedAt = other.resumedAt;
+        }
+
+        public long getRowsRead() {return rowsRead;}
+        public int getInserted() {return inserted;}
+        public int getSkipped() {return skipped;}
+        public int getRejected() {return rejected;}
+        public long getResumedAt() {return resumedAt;}
+    }
+}
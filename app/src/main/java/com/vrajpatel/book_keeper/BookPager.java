@@ -0,0 +1,263 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * BookPager
+ *  Loads the book list one page at a time, so the first screen only needs one small keyset query
+ *   and memory grows only as far as the user actually scrolls. The next page is requested while
+ *   the user is still PREFETCH_DISTANCE rows away from the end. Pages are loaded on the database
+ *   executor, so scrolling never waits on a query. The loaded rows stay in the cursors of their
+ *   pages (see BookRows), no book is built for a row until one is asked for.
+ */
+public class BookPager extends RecyclerView.OnScrollListener {
+
+    private static final String TAG = "BookPager";
+    static final int PAGE_SIZE = 50;
+    static final int PREFETCH_DISTANCE = 15;
+
+    private final BookRepository repository;
+    private final BookSortOrder order;
+    private final DatabaseExecutor.TaskScope tasks;
+    private final Listener listener;
+    private final ListUpdateCallback updates;
+    private BookRows rows = new BookRows();   // Loaded rows, in order
+    private int wanted;            // Number of books to load before stopping
+    private boolean reachedEnd;
+    private boolean loading;
+    private boolean stale;         // Loaded rows are out of date, the next load starts over
+    private int changeCount;       // Bumped by every change, a load started before one is dropped
+
+    /*-----------------------------------------------------------------------------------
+     * Listener: (interface)
+     *  Receives the loaded rows after every load. They stay owned by the pager, which closes
+     *   them once they are replaced or the pager is closed.
+     */
+    public interface Listener {
+        void onBooksLoaded(BookRows rows);
+    }
+
+    //==============================================================================================
+    /**
+     * BookPager:
+     *  Constructs a pager, nothing is loaded until loadAtLeast() is called or the list scrolled.
+     * @param repository  Repository to load books from
+     * @param order       Order the books are listed in
+     * @param tasks       Scope the page loads run in, cancelling it stops any pending load
+     * @param listener    Receives the loaded rows
+     * @param updates     Told about every row added to, removed from or changed in the loaded rows
+     */
+    public BookPager(BookRepository repository, BookSortOrder order, DatabaseExecutor.TaskScope tasks,
+                     Listener listener, ListUpdateCallback updates) {
+        this.repository = repository;
+        this.order = order;
+        this.tasks = tasks;
+        this.listener = listener;
+        this.updates = updates;
+    }
+    //==============================================================================================
+
+    /**
+     * loadAtLeast:
+     *  Loads pages in the background until at least the given number of books are loaded, or
+     *   every book is.
+     * @param count  Number of books wanted
+     */
+    public void loadAtLeast(int count) {
+        wanted = Math.max(wanted, count);
+        load();
+    }
+    //==============================================================================================
+
+    /**
+     * isComplete:
+     *  Tells if every book has been loaded.
+     * @return boolean  True once the last page has been loaded
+     */
+    public boolean isComplete() {
+        return reachedEnd && !stale;
+    }
+    //==============================================================================================
+
+    /**
+     * applyChanges:
+     *  Updates the loaded rows after books were added, edited or deleted, without querying them
+     *   again: a book is taken out where it was and put in where the sort order places it, and
+     *   each row changed is passed on to the update callback. A book that belongs after the last
+     *   loaded one is left for the page that will load it. After a RELOADED change the loaded
+     *   rows stay shown until as many have been loaded again from the start.
+     * @param changes  Changes of one commit
+     */
+    public void applyChanges(List<BookChange> changes) {
+        changeCount++;
+        if (BookChange.isReload(changes)) {
+            stale = true;
+            load();
+            return;
+        }
+        for (BookChange change : changes) {
+            int from = change.getBefore() != null ? rows.indexOf(change.getBookID()) : -1;
+            if (from >= 0) { rows.remove(from);}
+            int size = rows.size();
+            int to = change.getAfter() != null ? place(change.getAfter()) : -1;
+            if (to >= 0 && (to == from || rows.size() == size)) {
+                // Edited where it was, or already loaded by a page that overlapped the change
+                updates.onChanged(to, 1, null);
+            } else {
+                if (from >= 0) { updates.onRemoved(from, 1);}
+                if (to >= 0) { updates.onInserted(to, 1);}
+            }
+        }
+        load();
+    }
+    //==============================================================================================
+
+    // Puts a book in at its place in the sort order, returns its position or -1 if that is past
+    //  the loaded rows. Only the rows the binary search probes are built into books.
+    private int place(BookModel book) {
+        int low = 0;
+        int high = rows.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = order.compare(rows.getBook(mid), book);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                rows.set(mid, book);
+                return mid;
+            }
+        }
+        if (low == rows.size() && !reachedEnd) { return -1;}
+        rows.insert(low, book);
+        return low;
+    }
+    //==============================================================================================
+
+    /**
+     * load:
+     *  Loads the pages after the last loaded row, or all the wanted books again from the start if
+     *   they are stale. A load that finishes after a change is dropped and started again, it may
+     *   have read the books from before the change.
+     */
+    private void load() {
+        if (loading || (!stale && (reachedEnd || rows.size() >= wanted))) { return;}
+        loading = true;
+        final boolean fromStart = stale;
+        final BookModel last = fromStart || rows.size() == 0 ? null : rows.getBook(rows.size() - 1);
+        final int limit = fromStart ? Math.max(PAGE_SIZE, Math.max(wanted, rows.size()))
+                : Math.max(PAGE_SIZE, wanted - rows.size());
+        final int changesAtStart = changeCount;
+        stale = false;
+        tasks.submitQuery(signal -> loadPages(last, limit, signal), loaded -> {
+            loading = false;
+            if (changesAtStart != changeCount) {
+                loaded.close();
+                stale |= fromStart;
+                load();
+                return;
+            }
+            Log.d(TAG, "load: Loaded " + loaded.size() + " books after " + (fromStart ? 0 : rows.size()));
+            reachedEnd = loaded.size() < limit;
+            if (fromStart) {
+                BookRows old = rows;
+                rows = loaded;
+                listener.onBooksLoaded(rows);
+                old.close();
+            } else {
+                int start = rows.size();
+                rows.addAll(loaded);
+                updates.onInserted(start, rows.size() - start);
+                listener.onBooksLoaded(rows);
+            }
+            load();
+        }, error -> {
+            // Tried again on the next scroll or change
+            Log.e(TAG, "load: Could not load books", error);
+            loading = false;
+            stale |= fromStart;
+        });
+    }
+    //==============================================================================================
+
+    /**
+     * loadPages:
+     *  Runs on the executor: loads up to limit books after the given one, PAGE_SIZE at a time so
+     *   every page fits in the window of its cursor.
+     * @param after   Last book loaded so far, null to start from the first book
+     * @param limit   Number of books to load at most
+     * @param signal  Stops the load when it is no longer wanted
+     * @return BookRows holding the pages loaded
+     */
+    private BookRows loadPages(BookModel after, int limit, CancellationSignal signal) {
+        BookRows loaded = new BookRows();
+        try {
+            while (loaded.size() < limit) {
+                int pageLimit = Math.min(PAGE_SIZE, limit - loaded.size());
+                Cursor page = repository.queryBooksPage(order, after, pageLimit, signal);
+                int count = page.getCount();
+                loaded.addPage(page);
+                if (count < pageLimit) { break;}
+                after = loaded.getBook(loaded.size() - 1);
+            }
+        } catch (RuntimeException e) {
+            loaded.close();
+            throw e;
+        }
+        return loaded;
+    }
+    //==============================================================================================
+
+    /**
+     * close:
+     *  Closes the cursors of the loaded rows, the pager must not be used afterwards. Cancel the
+     *   task scope first so no load lands after it.
+     */
+    public void close() {
+        rows.close();
+    }
+    //==============================================================================================
+
+    /**
+     * onScrolled: (overridden method)
+     *  Requests the next page once the last visible row is close to the end of the loaded books.
+     *   The page is delivered through a posted callback, so the adapter is never changed from
+     *   inside this scroll callback.
+     * @param recyclerView  RecyclerView being scrolled
+     * @param dx            Horizontal scroll amount
+     * @param dy            Vertical scroll amount
+     */
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy <= 0) { return;}
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        loadAtLeast(layoutManager.findLastVisibleItemPosition() + PREFETCH_DISTANCE + 1);
+    }
+    //==============================================================================================
+}
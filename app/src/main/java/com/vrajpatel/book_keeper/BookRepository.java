@@ -0,0 +1,908 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * BookRepository
+ *  Process-wide, in-memory copy of the library that every fragment reads from. Cached books are
+ *   never changed in place, so they can be read on any thread: writes go to the database first
+ *   and then replace the cached copy of each changed book with a new BookModel, so switching
+ *   tabs never needs to query the table again. Screens edit a copy of a book and hand it to
+ *   updateBook().
+ *  Single book adds and edits are queued instead (see BookWriteQueue) and committed together by
+ *   flushWrites() on the executor's write lane. The other writes run it first, so the queued
+ *   writes are committed in order; reads never write and see the committed books, the queued
+ *   ones reach open screens through the published changes.
+ *  Every committed change is published to the listeners added with addChangeListener(), see
+ *   BookChange, so open screens can update only what changed.
+ *  All methods are thread safe and may block on the database, call them from the executor:
+ *   reads from either lane, writes from the write lane only. The lock is only held while the
+ *   cache is read or changed, never during database work. addBook() and updateBook() only queue
+ *   the write and may be called from the UI thread.
+ */
+public class BookRepository {
+
+    private static final String TAG = "BookRepository";
+
+    // Same order as the database: lowercase title, then ID for books with the same title
+    static final Comparator<BookModel> TITLE_ORDER = (a, b) -> {
+        int byTitle = a.getTitleLowerCase().compareTo(b.getTitleLowerCase());
+        return byTitle != 0 ? byTitle : Integer.compare(a.getID(), b.getID());
+    };
+
+    // A deleted book can be restored for at least this long, purges run this long after a delete
+    static final long UNDO_WINDOW_MS = 10 * 1000;
+    static final long PURGE_DELAY_MS = 30 * 1000;
+    static final int PURGE_BATCH_SIZE = 200;
+
+    // The snapshot is rewritten this long after the last change, so a burst of edits writes it once
+    static final long SNAPSHOT_DELAY_MS = 2 * 1000;
+
+    private static BookRepository sInstance;
+
+    private final DatabaseHelper mDatabaseHelper;
+    private final HashMap<Integer, BookModel> booksByID = new HashMap<>();
+    private final ArrayList<BookModel> booksByTitle = new ArrayList<>();
+    private final BookSearchIndex searchIndex = new BookSearchIndex();    // follows booksByTitle
+    private final Object loadLock = new Object();
+    private boolean loaded;
+    private int writeCount;    // lets a load that raced with a write notice and start over
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean purgeScheduled;
+    // Screens told about every change, only used on the UI thread
+    private final ArrayList<BookChange.Listener> changeListeners = new ArrayList<>();
+    private final BookWriteQueue writeQueue = new BookWriteQueue(() ->
+            DatabaseExecutor.getInstance().submitWrite(this::flushWrites, null));
+
+    // Snapshot of the book list for cold starts, see BookSnapshot
+    private final File snapshotFile;
+    private final Object snapshotLock = new Object();
+    private BookSortOrder snapshotOrder;         // order the book list is shown in
+    private BookSortOrder savedSnapshotOrder;    // order of the snapshot on disk
+    private int savedSnapshotWriteCount = -1;    // writeCount when the snapshot on disk was read
+    private boolean snapshotScheduled;
+
+    // Backups and restores of the same directory must not overlap
+    private final Object backupLock = new Object();
+
+    //==============================================================================================
+    /**
+     * getInstance:
+     *  Returns the repository shared by the whole process.
+     * @param context Context of calling class.
+     * @return BookRepository
+     */
+    public static synchronized BookRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookRepository(DatabaseHelper.getInstance(context),
+                    new File(context.getApplicationContext().getCacheDir(), BookSnapshot.FILE_NAME));
+        }
+        return sInstance;
+    }
+    //==============================================================================================
+
+    BookRepository(DatabaseHelper databaseHelper, File snapshotFile) {
+        this.mDatabaseHelper = databaseHelper;
+        this.snapshotFile = snapshotFile;
+    }
+    //==============================================================================================
+
+    /**
+     * getBooks:
+     *  Returns every stored book sorted alphabetically by title. The table is only read the
+     *   first time; the returned list is new, but the books in it are the cached copies.
+     * @param signal  Cancels the initial load when triggered, may be null
+     * @return ArrayList of stored books
+     */
+    public ArrayList<BookModel> getBooks(CancellationSignal signal) {
+        ensureLoaded(signal);
+        synchronized (this) {
+            return new ArrayList<>(booksByTitle);
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * searchBooks:
+     *  Returns the books whose title or author contains every word of the query, sorted
+     *   alphabetically by title. Matching uses the in-memory index kept with the cache (see
+     *   BookSearchIndex), so no book is read or lowercased while the user types.
+     * @param query    Search text entered by the user, every book matches an empty one
+     * @param read     Include books that have been read
+     * @param notRead  Include books that have not been read
+     * @param signal   Cancels the initial load and the search when triggered, may be null
+     * @return ArrayList of the cached matching books
+     */
+    public ArrayList<BookModel> searchBooks(String query, boolean read, boolean notRead,
+                                            CancellationSignal signal) {
+        ensureLoaded(signal);
+        synchronized (this) {
+            ArrayList<BookModel> found = new ArrayList<>();
+            if (!read && !notRead) { return found;}
+            List<Integer> ids = searchIndex.search(query, signal);
+            if (ids == null) { return booksWithReadStatus(read, notRead, signal);}
+            for (Integer id : ids) {
+                BookModel book = booksByID.get(id);
+                if (book != null && (book.getReadStatus() ? read : notRead)) { found.add(book);}
+            }
+            Collections.sort(found, TITLE_ORDER);
+            return found;
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * fuzzySearchBooks:
+     *  Like searchBooks(), but also finds books whose title or author contains the words of the
+     *   query with a few typos, see BookSearchIndex.fuzzySearch(). Books with fewer typos come
+     *   first, exact matches before all others, and books with as many are sorted by title.
+     * @param query    Search text entered by the user, every book matches an empty one
+     * @param read     Include books that have been read
+     * @param notRead  Include books that have not been read
+     * @param signal   Cancels the initial load and the search when triggered, may be null
+     * @return ArrayList of the cached matching books, best matches first
+     */
+    public ArrayList<BookModel> fuzzySearchBooks(String query, boolean read, boolean notRead,
+                                                 CancellationSignal signal) {
+        ensureLoaded(signal);
+        synchronized (this) {
+            ArrayList<BookModel> found = new ArrayList<>();
+            if (!read && !notRead) { return found;}
+            List<BookSearchIndex.Match> matches = searchIndex.fuzzySearch(query, signal);
+            if (matches == null) { return booksWithReadStatus(read, notRead, signal);}
+
+            ArrayList<BookSearchIndex.Match> kept = new ArrayList<>();
+            for (BookSearchIndex.Match match : matches) {
+                BookModel book = booksByID.get(match.id);
+                if (book != null && (book.getReadStatus() ? read : notRead)) { kept.add(match);}
+            }
+            Collections.sort(kept, (a, b) -> a.distance != b.distance ? Integer.compare(a.distance, b.distance)
+                    : TITLE_ORDER.compare(booksByID.get(a.id), booksByID.get(b.id)));
+            for (BookSearchIndex.Match match : kept) {
+                found.add(booksByID.get(match.id));
+            }
+            return found;
+        }
+    }
+    //==============================================================================================
+
+    // Every cached book with one of the given read statuses, in title order. Lock must be held.
+    private ArrayList<BookModel> booksWithReadStatus(boolean read, boolean notRead, CancellationSignal signal) {
+        ArrayList<BookModel> found = new ArrayList<>();
+        for (int i = 0; i < booksByTitle.size(); i++) {
+            BookSearchIndex.throwIfCanceled(signal, i);
+            BookModel book = booksByTitle.get(i);
+            if (book.getReadStatus() ? read : notRead) { found.add(book);}
+        }
+        return found;
+    }
+    //==============================================================================================
+
+    /**
+     * refineSearch:
+     *  Narrows the results of an earlier search to the books that also match a longer query,
+     *   checking only those books against the index keys instead of searching every book again.
+     *   Only valid if the query extends the earlier one, the read filters are the same and
+     *   getWriteCount() has not changed since the earlier search.
+     * @param previous  Results of the earlier search, in title order
+     * @param query     Search text entered by the user
+     * @param signal    Cancels the initial load and the search when triggered, may be null
+     * @return ArrayList of the books of previous that match the query, in the same order
+     */
+    public ArrayList<BookModel> refineSearch(List<BookModel> previous, String query,
+                                             CancellationSignal signal) {
+        ensureLoaded(signal);
+        synchronized (this) {
+            String[] terms = BookSearchIndex.terms(query);
+            ArrayList<BookModel> found = new ArrayList<>();
+            for (int i = 0; i < previous.size(); i++) {
+                BookSearchIndex.throwIfCanceled(signal, i);
+                BookModel book = previous.get(i);
+                if (searchIndex.matches(book.getID(), terms)) { found.add(book);}
+            }
+            return found;
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * countSearchCandidates:
+     *  Returns how many books searchBooks() would check against a query, see
+     *   BookSearchIndex.countCandidates(). Lets a caller holding earlier results tell if
+     *   refineSearch() on them is cheaper than a new search.
+     * @param query   Search text entered by the user
+     * @param signal  Cancels the initial load when triggered, may be null
+     * @return int  Number of books an index lookup would check
+     */
+    public int countSearchCandidates(String query, CancellationSignal signal) {
+        ensureLoaded(signal);
+        synchronized (this) {
+            return searchIndex.countCandidates(query);
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * getWriteCount:
+     *  Returns a number that changes whenever the books change, so results derived from them can
+     *   tell if they are out of date.
+     * @return int  Count of changes made so far
+     */
+    public synchronized int getWriteCount() {
+        return writeCount;
+    }
+    //==============================================================================================
+
+    /**
+     * queryBooksPage:
+     *  Loads one page of books in the given order, starting right after a book of the previous
+     *   page, into a cursor that can be bound without building the books, see
+     *   DatabaseHelper.queryBooksPage(). The caller must close it.
+     * @param order  Order to sort the books in
+     * @param after  Last book of the previous page, or null for the first page
+     * @param limit  Maximum number of books to load
+     * @param signal Cancels the query when triggered, may be null
+     * @return Cursor over the page of books
+     */
+    public Cursor queryBooksPage(BookSortOrder order, BookModel after, int limit, CancellationSignal signal) {
+        return mDatabaseHelper.queryBooksPage(order, after, limit, signal);
+    }
+    //==============================================================================================
+
+    /**
+     * queryBooks:
+     *  Opens a cursor over every book in the given order for reading them all without building a
+     *   BookModel for each, see DatabaseHelper.queryBooks(). The caller must close it.
+     * @param order  Order to sort the books in
+     * @param signal Cancels the query when triggered, may be null
+     * @return Cursor over the books
+     */
+    public Cursor queryBooks(BookSortOrder order, CancellationSignal signal) {
+        return mDatabaseHelper.queryBooks(order, signal);
+    }
+    //==============================================================================================
+
+    /**
+     * backUp:
+     *  Writes the changes since the last backup to the backup directory, see LibraryBackup.
+     * @param directory  Backup directory
+     * @return LibraryBackup.Result of the backup
+     * @throws IOException if the backup cannot be written
+     */
+    public LibraryBackup.Result backUp(File directory) throws IOException {
+        flushWrites(null);
+        synchronized (backupLock) {
+            return new LibraryBackup(mDatabaseHelper).backUp(directory);
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * restoreBackup:
+     *  Replaces the library with the one in the backup directory and drops the cache.
+     * @param directory  Backup directory
+     * @return LibraryBackup.Result of the restore
+     * @throws IOException if there is no backup or it cannot be read
+     */
+    public LibraryBackup.Result restoreBackup(File directory) throws IOException {
+        flushWrites(null);
+        synchronized (backupLock) {
+            try {
+                return new LibraryBackup(mDatabaseHelper).restore(directory);
+            } finally {
+                invalidate();
+            }
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * getBook:
+     *  Returns the cached copy of a book.
+     * @param id  ID of the book
+     * @return BookModel, or null if the book is not cached
+     */
+    public synchronized BookModel getBook(int id) {
+        return booksByID.get(id);
+    }
+    //==============================================================================================
+
+    /**
+     * addBook:
+     *  Queues a new book to be saved. Returns straight away without touching the database; the
+     *   book is added to the cache once it has been committed.
+     * @param book           Book to add, its ID is ignored
+     * @param callback       Receives the book as stored (with its new ID), or null if the book
+     *                        already exists, on the UI thread; may be null
+     * @param errorCallback  Told on the UI thread if the book could not be saved, may be null
+     */
+    public void addBook(BookModel book, DatabaseExecutor.Callback<BookModel> callback,
+                        DatabaseExecutor.ErrorCallback errorCallback) {
+        writeQueue.add(book, callback, errorCallback);
+    }
+    //==============================================================================================
+
+    /**
+     * importBooks:
+     *  Imports a CSV or JSON library file in chunks, see BookImporter. Reads carry on between
+     *   chunks, writes queue up behind the import on the executor's write lane; the cache is
+     *   dropped afterwards (also when the import fails or is cancelled) so the imported books are
+     *   picked up by the next read.
+     * @param reader    Reader over the file, closed by the caller
+     * @param format    Format of the file
+     * @param source    Stable name of the file, used to resume an interrupted import
+     * @param listener  Told about the progress after every chunk, may be null
+     * @param signal    Stops the import after the current chunk when triggered, may be null
+     * @return BookImporter.Progress once the whole file has been imported
+     * @throws IOException if the file cannot be read or is not valid CSV/JSON
+     */
+    public BookImporter.Progress importBooks(BufferedReader reader, BookImporter.Format format,
+                                             String source, BookImporter.ProgressListener listener,
+                                             CancellationSignal signal) throws IOException {
+        flushWrites(null);
+        try {
+            return new BookImporter(mDatabaseHelper).importBooks(reader, format, source, listener, signal);
+        } finally {
+            invalidate();
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * updateBook:
+     *  Queues the edited fields of a book to be saved. Returns straight away without touching the
+     *   database; repeated edits of the same book before the commit are saved once. The cached
+     *   book is replaced with the edited one on commit.
+     * @param book           Copy of a book with edited information, never the cached book itself
+     * @param callback       Receives the book once saved, or null if the edit was refused because
+     *                        it would duplicate another book, on the UI thread; may be null
+     * @param errorCallback  Told on the UI thread if the edit could not be saved, may be null
+     */
+    public void updateBook(BookModel book, DatabaseExecutor.Callback<BookModel> callback,
+                           DatabaseExecutor.ErrorCallback errorCallback) {
+        writeQueue.update(book, callback, errorCallback);
+    }
+    //==============================================================================================
+
+    /**
+     * flushWrites:
+     *  Commits the queued adds and edits in one transaction and applies them to the cache. Does
+     *   nothing if no writes are queued. If the commit fails the writes are put back in the queue
+     *   to be tried once more, see BookWriteQueue.restore(), and the error is thrown on. Must run
+     *   on the write lane, which keeps commits in order; the lock is only taken to apply them.
+     * @param signal  Unused, writes always run to completion
+     * @return Integer  Number of writes committed
+     */
+    public Integer flushWrites(CancellationSignal signal) {
+        BookWriteQueue.Batch batch = writeQueue.take();
+        if (batch == null) { return 0;}
+
+        DatabaseHelper.BatchWriteResult result;
+        try {
+            result = mDatabaseHelper.writeBooks(batch.getUpdates(), batch.getAdds());
+        } catch (RuntimeException e) {
+            // The transaction was rolled back, so neither the table nor the cache has the writes
+            if (!writeQueue.restore(batch)) { batch.notifyFailure(mainHandler, e);}
+            throw e;
+        }
+        batch.setResult(result);
+        synchronized (this) {
+            onDataChanged();
+            ArrayList<BookChange> changes = new ArrayList<>();
+            for (BookModel update : batch.getUpdates()) {
+                // A refused edit never reached the cache, the cached book still matches the table
+                if (result.getRejectedUpdates().contains(update)) { continue;}
+                BookModel before = result.getPrevious(update.getID());
+                if (before != null) { changes.add(BookChange.updated(before, update));}
+                replaceCached(update);
+            }
+            for (BookModel added : result.getAdded().getInserted()) {
+                changes.add(BookChange.added(added));
+                if (loaded) { insertSorted(added);}
+            }
+            publish(changes);
+        }
+        batch.notifyCallbacks(mainHandler);
+        return batch.getUpdates().size() + batch.getAdds().size();
+    }
+    //==============================================================================================
+
+    /**
+     * deleteBook:
+     *  Soft deletes a book and removes it from the cache. The row stays in the database until the
+     *   purge scheduled here removes it, so the delete can be undone with restoreBook() meanwhile.
+     * @param book  Book to remove
+     * @return boolean  True if the book was removed
+     */
+    public boolean deleteBook(BookModel book) {
+        flushWrites(null);
+        if (!mDatabaseHelper.softDeleteBook(book.getID())) { return false;}
+        synchronized (this) {
+            onDataChanged();
+            // The caller's copy may be older than the cached one, which is what is sorted
+            BookModel cached = booksByID.remove(book.getID());
+            publish(Collections.singletonList(BookChange.removed(cached != null ? cached : book)));
+            if (loaded && cached != null) { removeSorted(cached);}
+        }
+        schedulePurge();
+        return true;
+    }
+    //==============================================================================================
+
+    /**
+     * restoreBook:
+     *  Undoes deleteBook() if the book has not been purged yet.
+     * @param book  Book that was deleted
+     * @return boolean  True if the book was restored
+     */
+    public boolean restoreBook(BookModel book) {
+        flushWrites(null);
+        if (!mDatabaseHelper.restoreBook(book.getID())) { return false;}
+        synchronized (this) {
+            onDataChanged();
+            publish(Collections.singletonList(BookChange.added(book)));
+            if (loaded) {
+                insertSorted(book);
+            } else {
+                booksByID.put(book.getID(), book);
+            }
+        }
+        return true;
+    }
+    //==============================================================================================
+
+    /**
+     * schedulePurge:
+     *  Purges soft deleted books PURGE_DELAY_MS from now on the database executor. Calls made
+     *   while a purge is already waiting are folded into it.
+     */
+    public synchronized void schedulePurge() {
+        if (purgeScheduled) { return;}
+        purgeScheduled = true;
+        mainHandler.postDelayed(() -> {
+            synchronized (this) { purgeScheduled = false;}
+            DatabaseExecutor.getInstance().submitWrite(this::purgeDeletedBooks, null);
+        }, PURGE_DELAY_MS);
+    }
+    //==============================================================================================
+
+    /**
+     * purgeDeletedBooks:
+     *  Removes the books that were soft deleted more than UNDO_WINDOW_MS ago, PURGE_BATCH_SIZE at a
+     *   time. The cache is not touched, deleted books were already removed from it.
+     * @param signal  Stops the purge between batches when triggered, may be null
+     * @return Integer  Number of books removed
+     */
+    public Integer purgeDeletedBooks(CancellationSignal signal) {
+        long deletedBefore = System.currentTimeMillis() - UNDO_WINDOW_MS;
+        int purged = 0;
+        int batch;
+        do {
+            if (signal != null) { signal.throwIfCanceled();}
+            batch = mDatabaseHelper.purgeDeletedBooks(deletedBefore, PURGE_BATCH_SIZE);
+            purged += batch;
+        } while (batch == PURGE_BATCH_SIZE);
+        Log.d(TAG, "purgeDeletedBooks: Purged " + purged + " books");
+        return purged;
+    }
+    //==============================================================================================
+
+    /**
+     * openSnapshot:
+     *  Opens the snapshot of the book list saved on disk, so the list can be drawn before the
+     *   database is ready. Also remembers the order the list is shown in, so the snapshot is kept
+     *   in that order from now on. Opens and maps the file, so call it off the UI thread.
+     * @param order  Order the list is shown in
+     * @return Cursor over the saved list, or null if there is none or this process has changed
+     *         the books since it was written
+     */
+    public Cursor openSnapshot(BookSortOrder order) {
+        synchronized (this) {
+            snapshotOrder = order;
+            // A snapshot from an earlier run is shown and replaced once the database is read
+            boolean current = order == savedSnapshotOrder && writeCount == savedSnapshotWriteCount;
+            if (!current) { scheduleSnapshot();}
+            if (!current && writeCount != 0) { return null;}
+        }
+        return BookSnapshot.open(snapshotFile, order);
+    }
+    //==============================================================================================
+
+    /**
+     * scheduleSnapshot:
+     *  Rewrites the snapshot SNAPSHOT_DELAY_MS from now on the database executor. Calls made
+     *   while a rewrite is already waiting are folded into it.
+     */
+    private synchronized void scheduleSnapshot() {
+        if (snapshotScheduled || snapshotOrder == null) { return;}
+        snapshotScheduled = true;
+        mainHandler.postDelayed(() -> {
+            synchronized (this) { snapshotScheduled = false;}
+            DatabaseExecutor.getInstance().submitQuery(this::saveSnapshot, null);
+        }, SNAPSHOT_DELAY_MS);
+    }
+    //==============================================================================================
+
+    /**
+     * saveSnapshot:
+     *  Writes the book list, in the order it is shown, to the snapshot file unless the file
+     *   already matches the database.
+     * @param signal  Cancels the query when triggered, may be null
+     * @return Boolean  True if the snapshot was written
+     */
+    public Boolean saveSnapshot(CancellationSignal signal) {
+        synchronized (snapshotLock) {
+            BookSortOrder order;
+            int writes;
+            synchronized (this) {
+                order = snapshotOrder;
+                writes = writeCount;
+                if (order == null || (order == savedSnapshotOrder && writes == savedSnapshotWriteCount)) {
+                    return false;
+                }
+            }
+            // A write that lands during the query changes writeCount, so it is caught next time
+            Cursor books = mDatabaseHelper.queryBooks(order, signal);
+            int count = books.getCount();
+            try {
+                BookSnapshot.write(snapshotFile, order, books);
+            } catch (IOException e) {
+                Log.e(TAG, "saveSnapshot: Could not write the snapshot", e);
+                snapshotFile.delete();
+                return false;
+            } finally {
+                books.close();
+            }
+            synchronized (this) {
+                savedSnapshotOrder = order;
+                savedSnapshotWriteCount = writes;
+            }
+            Log.d(TAG, "saveSnapshot: Saved " + count + " books");
+            return true;
+        }
+    }
+    //==============================================================================================
+
+    // Called with the lock held after every change to the books
+    private void onDataChanged() {
+        writeCount++;
+        scheduleSnapshot();
+    }
+    //==============================================================================================
+
+    /**
+     * addChangeListener:
+     *  Registers a listener to be told about every change to the books from now on, see
+     *   BookChange. Must be called on the UI thread and undone with removeChangeListener().
+     * @param listener  Listener to add
+     */
+    public void addChangeListener(BookChange.Listener listener) {
+        changeListeners.add(listener);
+    }
+    //==============================================================================================
+
+    /**
+     * removeChangeListener:
+     *  Stops telling a listener about changes. Must be called on the UI thread.
+     * @param listener  Listener to remove
+     */
+    public void removeChangeListener(BookChange.Listener listener) {
+        changeListeners.remove(listener);
+    }
+    //==============================================================================================
+
+    // Hands the changes of one commit to the listeners, in commit order, on the UI thread
+    private void publish(List<BookChange> changes) {
+        if (changes.isEmpty()) { return;}
+        mainHandler.post(() -> {
+            for (BookChange.Listener listener : new ArrayList<>(changeListeners)) {
+                listener.onBooksChanged(changes);
+            }
+        });
+    }
+    //==============================================================================================
+
+    /**
+     * getShelfNames:
+     *  Returns the name of every shelf, "Default" first.
+     * @return ArrayList of shelf names
+     */
+    public ArrayList<String> getShelfNames() {
+        return mDatabaseHelper.getShelfNames();
+    }
+    //==============================================================================================
+
+    /**
+     * addShelf:
+     *  Adds a new, empty shelf.
+     * @param name  Name of the shelf
+     * @return boolean  True if the shelf was added, false if the name is already taken
+     */
+    public boolean addShelf(String name) {
+        return mDatabaseHelper.addShelf(name);
+    }
+    //==============================================================================================
+
+    /**
+     * renameShelf:
+     *  Renames a shelf, or merges it into another shelf if the new name is already taken. The
+     *   cached books on it are replaced with moved copies.
+     * @param oldName  Current name of the shelf
+     * @param newName  New name of the shelf
+     * @return boolean  True if the shelf was renamed
+     */
+    public boolean renameShelf(String oldName, String newName) {
+        flushWrites(null);
+        if (!mDatabaseHelper.renameShelf(oldName, newName)) { return false;}
+        synchronized (this) {
+            onDataChanged();
+            publish(Collections.singletonList(BookChange.reloaded()));
+            moveCachedBooks(oldName, newName);
+        }
+        return true;
+    }
+    //==============================================================================================
+
+    /**
+     * deleteShelf:
+     *  Deletes a shelf. The books on it, cached ones included, are moved to the "Default" shelf.
+     * @param name  Name of the shelf to delete
+     * @return boolean  True if the shelf was deleted
+     */
+    public boolean deleteShelf(String name) {
+        flushWrites(null);
+        if (!mDatabaseHelper.deleteShelf(name)) { return false;}
+        synchronized (this) {
+            onDataChanged();
+            publish(Collections.singletonList(BookChange.reloaded()));
+            moveCachedBooks(name, DatabaseHelper.DEFAULT_SHELF);
+        }
+        return true;
+    }
+    //==============================================================================================
+
+    /**
+     * setReadStatusForSearch:
+     *  Marks every book matching a search as read or not read in one transaction. The books are
+     *   picked with searchBooks() or fuzzySearchBooks(), so exactly the books the search shows
+     *   are changed.
+     * @param query       Search text entered by the user
+     * @param read        Include books that have been read
+     * @param notRead     Include books that have not been read
+     * @param fuzzy       Include books matching the query with a few typos
+     * @param readStatus  New read status
+     * @return int  Number of books that changed
+     */
+    public int setReadStatusForSearch(String query, boolean read, boolean notRead, boolean fuzzy,
+                                      boolean readStatus) {
+        flushWrites(null);
+        ArrayList<BookModel> matches = fuzzy ? fuzzySearchBooks(query, read, notRead, null)
+                : searchBooks(query, read, notRead, null);
+        ArrayList<Integer> ids = new ArrayList<>();
+        for (BookModel book : matches) {
+            if (book.getReadStatus() != readStatus) { ids.add(book.getID());}
+        }
+        ArrayList<Integer> changed = mDatabaseHelper.setReadStatus(ids, readStatus);
+        synchronized (this) {
+            onDataChanged();
+            publish(Collections.singletonList(BookChange.reloaded()));
+            for (Integer id : changed) {
+                BookModel book = booksByID.get(id);
+                if (book != null) { replaceCached(withReadStatus(book, readStatus));}
+            }
+            return changed.size();
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * setShelfReadStatus:
+     *  Marks every book on a shelf as read or not read in one statement.
+     * @param shelfName   Name of the shelf
+     * @param readStatus  New read status
+     * @return int  Number of books that changed
+     */
+    public int setShelfReadStatus(String shelfName, boolean readStatus) {
+        flushWrites(null);
+        int changed = mDatabaseHelper.setShelfReadStatus(shelfName, readStatus);
+        synchronized (this) {
+            onDataChanged();
+            publish(Collections.singletonList(BookChange.reloaded()));
+            for (BookModel book : new ArrayList<>(booksByID.values())) {
+                if (shelfName.equals(book.getShelfLocation())) { replaceCached(withReadStatus(book, readStatus));}
+            }
+        }
+        return changed;
+    }
+    //==============================================================================================
+
+    /**
+     * moveShelfBooks:
+     *  Moves every book on one shelf to another in one statement, keeping the emptied shelf.
+     * @param fromShelf  Shelf to take the books from
+     * @param toShelf    Shelf to put the books on
+     * @return int  Number of books moved
+     */
+    public int moveShelfBooks(String fromShelf, String toShelf) {
+        flushWrites(null);
+        int moved = mDatabaseHelper.moveShelfBooks(fromShelf, toShelf);
+        synchronized (this) {
+            onDataChanged();
+            publish(Collections.singletonList(BookChange.reloaded()));
+            moveCachedBooks(fromShelf, toShelf);
+        }
+        return moved;
+    }
+    //==============================================================================================
+
+    /**
+     * deleteShelfBooks:
+     *  Soft deletes every book on a shelf in one statement, keeping the shelf. The books are
+     *   removed for good by the next purge, see purgeDeletedBooks().
+     * @param shelfName  Name of the shelf
+     * @return int  Number of books deleted
+     */
+    public int deleteShelfBooks(String shelfName) {
+        flushWrites(null);
+        int deleted = mDatabaseHelper.deleteShelfBooks(shelfName);
+        synchronized (this) {
+            onDataChanged();
+            publish(Collections.singletonList(BookChange.reloaded()));
+            Iterator<BookModel> cached = booksByID.values().iterator();
+            while (cached.hasNext()) {
+                BookModel book = cached.next();
+                if (shelfName.equals(book.getShelfLocation())) {
+                    cached.remove();
+                    searchIndex.remove(book.getID());
+                }
+            }
+            // One pass over the sorted list rather than a removeSorted() scan per book
+            ArrayList<BookModel> kept = new ArrayList<>(booksByTitle.size());
+            for (BookModel book : booksByTitle) {
+                if (!shelfName.equals(book.getShelfLocation())) { kept.add(book);}
+            }
+            booksByTitle.clear();
+            booksByTitle.addAll(kept);
+        }
+        return deleted;
+    }
+    //==============================================================================================
+
+    private void moveCachedBooks(String fromShelf, String toShelf) {
+        for (BookModel book : new ArrayList<>(booksByID.values())) {
+            if (fromShelf.equals(book.getShelfLocation())) {
+                replaceCached(new BookModel(book.getTitle(), book.getTitleLowerCase(), book.getAuthor(),
+                        book.getReadStatus(), book.getID(), toShelf));
+            }
+        }
+    }
+
+    private static BookModel withReadStatus(BookModel book, boolean readStatus) {
+        return new BookModel(book.getTitle(), book.getTitleLowerCase(), book.getAuthor(), readStatus,
+                book.getID(), book.getShelfLocation());
+    }
+    //==============================================================================================
+
+    /**
+     * invalidate:
+     *  Drops the cache after a change made directly in the database, e.g. a bulk update. The next
+     *   read loads the library again.
+     */
+    public synchronized void invalidate() {
+        Log.d(TAG, "invalidate: Clearing the cached library");
+        booksByID.clear();
+        booksByTitle.clear();
+        searchIndex.clear();
+        loaded = false;
+        onDataChanged();
+        publish(Collections.singletonList(BookChange.reloaded()));
+    }
+    //==============================================================================================
+
+    /**
+     * ensureLoaded:
+     *  Reads the whole table into the cache the first time it is needed. The table is read
+     *   without holding the repository lock so that pages and writes are not held up; if a write
+     *   lands in the meantime the read is repeated.
+     */
+    private void ensureLoaded(CancellationSignal signal) {
+        synchronized (loadLock) {
+            while (true) {
+                int startCount;
+                synchronized (this) {
+                    if (loaded) { return;}
+                    startCount = writeCount;
+                }
+                ArrayList<BookModel> stored = mDatabaseHelper.getStoredBooks(signal);
+                synchronized (this) {
+                    if (writeCount != startCount) { continue;}
+                    booksByID.clear();
+                    booksByTitle.clear();
+                    for (BookModel book : stored) {
+                        booksByID.put(book.getID(), book);
+                        booksByTitle.add(book);
+                    }
+                    searchIndex.rebuild(booksByTitle);
+                    loaded = true;
+                    Log.d(TAG, "ensureLoaded: Cached " + booksByTitle.size() + " books");
+                    return;
+                }
+            }
+        }
+    }
+    //==============================================================================================
+
+    // A load that overlapped the commit may have read the book already, it is replaced then
+    private void insertSorted(BookModel book) {
+        BookModel cached = booksByID.put(book.getID(), book);
+        if (cached != null) { removeSorted(cached);}
+        int index = Collections.binarySearch(booksByTitle, book, TITLE_ORDER);
+        booksByTitle.add(index >= 0 ? index : -(index + 1), book);
+        searchIndex.put(book);
+    }
+
+    // Cached books never change, so the one to remove is still where its title sorts
+    private boolean removeSorted(BookModel book) {
+        int index = Collections.binarySearch(booksByTitle, book, TITLE_ORDER);
+        if (index < 0) { return false;}
+        booksByTitle.remove(index);
+        searchIndex.remove(book.getID());
+        return true;
+    }
+
+    /**
+     * replaceCached:
+     *  Swaps the cached copy of a book for a changed one. A book whose title did not change keeps
+     *   its place in the title order, and is only indexed again if its author changed. Does
+     *   nothing if the book is not cached. Lock must be held.
+     * @param book  New copy of the book
+     */
+    private void replaceCached(BookModel book) {
+        BookModel cached = booksByID.get(book.getID());
+        if (cached == null) { return;}
+        booksByID.put(book.getID(), book);
+        if (!loaded) { return;}
+        int index = Collections.binarySearch(booksByTitle, cached, TITLE_ORDER);
+        if (index >= 0 && TITLE_ORDER.compare(cached, book) == 0
+                && cached.getTitle().equals(book.getTitle())) {
+            booksByTitle.set(index, book);
+            if (!TextUtils.equals(cached.getAuthor(), book.getAuthor())) { searchIndex.put(book);}
+        } else {
+            removeSorted(cached);
+            insertSorted(book);
+        }
+    }
+    //==============================================================================================
+}
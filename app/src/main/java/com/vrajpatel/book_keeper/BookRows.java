@@ -0,0 +1,178 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.database.Cursor;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * BookRows
+ *  The loaded rows of the book list, kept as the cursors of the pages they were loaded in rather
+ *   than as a BookModel each: every page's rows are read into its cursor's window on the
+ *   executor, so the adapter binds straight from the window while scrolling. A book is only built
+ *   when one is asked for, e.g. for the edit popup.
+ *  Rows are added, removed and replaced as the books change (see BookPager.applyChanges()). The
+ *   pages cannot change, so a book that was edited or added after its page was loaded is kept as
+ *   a BookModel in its place instead.
+ *  Built on the executor and only used on the UI thread afterwards. Closing it closes the pages.
+ */
+final class BookRows implements Closeable {
+
+    private final ArrayList<Cursor> pages = new ArrayList<>();
+    private int[] pageStarts = new int[4];    // number of the first row of each page
+    private int pageRowCount;                 // rows in all pages together
+
+    // Books changed since their page was loaded, referenced by the rows that show them
+    private final ArrayList<BookModel> changed = new ArrayList<>();
+
+    // One entry per row shown, in order: the row's number across the pages if it is >= 0,
+    //  otherwise -(index in changed + 1)
+    private int[] rows = new int[64];
+    private int size;
+
+    //==============================================================================================
+    /**
+     * addPage:
+     *  Adds the rows of a page after the rows shown so far. The page's rows must already be in
+     *   its window, see DatabaseHelper.queryBooksPage().
+     * @param page  Cursor over the page, closed with these rows
+     */
+    void addPage(Cursor page) {
+        int count = page.getCount();
+        // An empty page would share its first row number with the next one
+        if (count == 0) {
+            page.close();
+            return;
+        }
+        if (pages.size() == pageStarts.length) { pageStarts = Arrays.copyOf(pageStarts, pages.size() * 2);}
+        pageStarts[pages.size()] = pageRowCount;
+        pages.add(page);
+        ensureCapacity(size + count);
+        for (int i = 0; i < count; i++) {
+            rows[size++] = pageRowCount + i;
+        }
+        pageRowCount += count;
+    }
+    //==============================================================================================
+
+    /**
+     * addAll:
+     *  Moves the pages of rows loaded in the background behind these rows. They must not have
+     *   been changed since they were loaded. Closing the other rows afterwards does nothing.
+     * @param loaded  Rows holding the new pages
+     */
+    void addAll(BookRows loaded) {
+        for (Cursor page : loaded.pages) {
+            addPage(page);
+        }
+        loaded.pages.clear();
+        loaded.size = 0;
+    }
+    //==============================================================================================
+
+    int size() {
+        return size;
+    }
+    //==============================================================================================
+
+    /**
+     * moveTo:
+     *  Positions the cursor of a row's page on the row, so it can be bound without building a
+     *   book.
+     * @param position  Position of the row
+     * @return Cursor on the row, or null if the row shows a changed book, see getBook()
+     */
+    Cursor moveTo(int position) {
+        int row = rows[position];
+        if (row < 0) { return null;}
+        int page = Arrays.binarySearch(pageStarts, 0, pages.size(), row);
+        // A row that does not start a page belongs to the page before the insertion point
+        if (page < 0) { page = -(page + 1) - 1;}
+        Cursor cursor = pages.get(page);
+        cursor.moveToPosition(row - pageStarts[page]);
+        return cursor;
+    }
+    //==============================================================================================
+
+    /**
+     * getBook:
+     *  Returns the book shown in a row, building it from the row's page if it has not changed.
+     * @param position  Position of the row
+     * @return BookModel shown in the row
+     */
+    BookModel getBook(int position) {
+        Cursor cursor = moveTo(position);
+        return cursor != null ? DatabaseHelper.readBook(cursor) : changed.get(-rows[position] - 1);
+    }
+    //==============================================================================================
+
+    /**
+     * indexOf:
+     *  Finds the row showing a book, reading only the ID of each row.
+     * @param id  ID of the book
+     * @return Position of the row, or -1 if no row shows the book
+     */
+    int indexOf(int id) {
+        for (int i = 0; i < size; i++) {
+            Cursor cursor = moveTo(i);
+            // The ID is the first column of a page, see DatabaseHelper.readBook()
+            int rowID = cursor != null ? cursor.getInt(0) : changed.get(-rows[i] - 1).getID();
+            if (rowID == id) { return i;}
+        }
+        return -1;
+    }
+    //==============================================================================================
+
+    void remove(int position) {
+        System.arraycopy(rows, position + 1, rows, position, size - position - 1);
+        size--;
+    }
+
+    void insert(int position, BookModel book) {
+        ensureCapacity(size + 1);
+        System.arraycopy(rows, position, rows, position + 1, size - position);
+        size++;
+        set(position, book);
+    }
+
+    void set(int position, BookModel book) {
+        changed.add(book);
+        rows[position] = -changed.size();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > rows.length) { rows = Arrays.copyOf(rows, Math.max(capacity, rows.length * 2));}
+    }
+    //==============================================================================================
+
+    /**
+     * close: (overridden method)
+     *  Closes the cursors of every page. The rows must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (Cursor page : pages) {
+            page.close();
+        }
+        pages.clear();
+        size = 0;
+    }
+    //==============================================================================================
+}
@@ -0,0 +1,491 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BookSearchIndex
+ *  In-memory substring index over the titles and authors of the cached books, kept by
+ *   BookRepository. Each book's search key (lowercase title and author) is built once, when the
+ *   book is added to the index, and every three-character sequence (trigram) of the key maps to
+ *   the sorted IDs of the books containing it. A search term is looked up by intersecting the
+ *   posting lists of its trigrams, starting with the shortest, and only the books left are
+ *   checked against the term itself; nothing is lowercased or scanned per book while typing.
+ *   Terms shorter than three characters match too many books for an index to help, they are
+ *   checked against the keys directly.
+ *  The same posting lists give candidates for typo tolerant searches (see fuzzySearch()): books
+ *   sharing the most trigrams with the query are picked first, and only a bounded number of them
+ *   get the exact edit distance check. The typos allowed in a word of up to eight characters can
+ *   break every one of its trigrams, so the two-character sequences (bigrams) of the keys are
+ *   indexed as well; a typo breaks fewer of those and they still pick the candidates.
+ *  Not thread safe, the repository only uses it with its lock held.
+ */
+final class BookSearchIndex {
+
+    // Separates title and author in a key, so no trigram spans both
+    private static final char FIELD_SEPARATOR = '\n';
+
+    // Scans check for cancellation once per this many books
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    // Most books a fuzzy search picks by shared trigrams or bigrams to check the edit distance of
+    static final int MAX_FUZZY_CANDIDATES = 1000;
+
+    private final HashMap<Integer, String> keys = new HashMap<>();
+    private final HashMap<Long, IdList> postings = new HashMap<>();
+    private final HashMap<Long, IdList> bigramPostings = new HashMap<>();    // only for fuzzySearch()
+
+    /*-----------------------------------------------------------------------------------
+     * IdList:
+     *  Sorted, growable array of book IDs. Adding in ID order only appends.
+     */
+    private static final class IdList {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) { return;}
+            index = -(index + 1);
+            if (size == ids.length) { ids = Arrays.copyOf(ids, size * 2);}
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) { return;}
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+
+    /*-----------------------------------------------------------------------------------
+     * Match:
+     *  A book found by a fuzzy search and the number of typos it took, 0 for an exact match.
+     */
+    static final class Match {
+        final int id;
+        final int distance;
+
+        Match(int id, int distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+    }
+
+    private static final Comparator<IdList> SHORTEST_FIRST = (a, b) -> Integer.compare(a.size, b.size);
+
+    //==============================================================================================
+    /**
+     * rebuild:
+     *  Replaces the contents of the index with the given books. They are indexed in ID order so
+     *   that every posting list is filled by appending.
+     * @param books  Every cached book
+     */
+    void rebuild(Collection<BookModel> books) {
+        clear();
+        ArrayList<BookModel> byID = new ArrayList<>(books);
+        Collections.sort(byID, (a, b) -> Integer.compare(a.getID(), b.getID()));
+        for (BookModel book : byID) {
+            put(book);
+        }
+    }
+    //==============================================================================================
+
+    void clear() {
+        keys.clear();
+        postings.clear();
+        bigramPostings.clear();
+    }
+    //==============================================================================================
+
+    /**
+     * put:
+     *  Indexes a book, replacing what was indexed for it before (e.g. before an edit).
+     * @param book  Book to index
+     */
+    void put(BookModel book) {
+        remove(book.getID());
+        String key = keyFor(book);
+        keys.put(book.getID(), key);
+        for (int i = 0; i + 2 <= key.length(); i++) {
+            if (i + 3 <= key.length()) { addPosting(postings, trigram(key, i), book.getID());}
+            addPosting(bigramPostings, bigram(key, i), book.getID());
+        }
+    }
+
+    private static void addPosting(HashMap<Long, IdList> index, Long gram, int id) {
+        IdList list = index.get(gram);
+        if (list == null) {
+            list = new IdList();
+            index.put(gram, list);
+        }
+        list.add(id);
+    }
+    //==============================================================================================
+
+    /**
+     * remove:
+     *  Takes a book out of the index, using the key it was indexed with.
+     * @param id  ID of the book
+     */
+    void remove(int id) {
+        String key = keys.remove(id);
+        if (key == null) { return;}
+        for (int i = 0; i + 2 <= key.length(); i++) {
+            if (i + 3 <= key.length()) { removePosting(postings, trigram(key, i), id);}
+            removePosting(bigramPostings, bigram(key, i), id);
+        }
+    }
+
+    private static void removePosting(HashMap<Long, IdList> index, Long gram, int id) {
+        IdList list = index.get(gram);
+        if (list == null) { return;}
+        list.remove(id);
+        if (list.size == 0) { index.remove(gram);}
+    }
+    //==============================================================================================
+
+    /**
+     * search:
+     *  Finds the books whose title or author contains every word of the query.
+     * @param query   Search text entered by the user
+     * @param signal  Stops the search when triggered, may be null
+     * @return List of the IDs of matching books in no particular order, or null if the query has
+     *         no words and so matches every book
+     */
+    List<Integer> search(String query, CancellationSignal signal) {
+        String[] terms = terms(query);
+        if (terms.length == 0) { return null;}
+        // The longest term narrows the candidates the most, the others only need to be checked
+        Arrays.sort(terms, (a, b) -> Integer.compare(b.length(), a.length()));
+
+        List<Integer> candidates = terms[0].length() >= 3 ? lookUp(terms[0], signal) : new ArrayList<>(keys.keySet());
+        ArrayList<Integer> found = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            throwIfCanceled(signal, i);
+            Integer id = candidates.get(i);
+            String key = keys.get(id);
+            if (containsAll(key, terms)) { found.add(id);}
+        }
+        return found;
+    }
+    //==============================================================================================
+
+    /**
+     * countCandidates:
+     *  Number of books search() would check against a query, without checking them: the length
+     *   of the shortest posting list of the longest word, or every book if it has no trigrams.
+     * @param query  Search text entered by the user
+     * @return int  Upper bound on the books search() visits
+     */
+    int countCandidates(String query) {
+        String longest = "";
+        for (String term : terms(query)) {
+            if (term.length() > longest.length()) { longest = term;}
+        }
+        if (longest.length() < 3) { return keys.size();}
+        int fewest = keys.size();
+        for (int i = 0; i + 3 <= longest.length(); i++) {
+            IdList list = postings.get(trigram(longest, i));
+            if (list == null) { return 0;}
+            fewest = Math.min(fewest, list.size);
+        }
+        return fewest;
+    }
+    //==============================================================================================
+
+    /**
+     * matches:
+     *  Checks one book against already split query terms, see terms().
+     * @param id     ID of the book
+     * @param terms  Lowercase words of the query
+     * @return True if the book is indexed and contains every term
+     */
+    boolean matches(int id, String[] terms) {
+        String key = keys.get(id);
+        return key != null && containsAll(key, terms);
+    }
+    //==============================================================================================
+
+    /**
+     * lookUp:
+     *  Intersects the posting lists of a term's trigrams.
+     * @param term    Lowercase term of at least three characters
+     * @param signal  Stops the search when triggered, may be null
+     * @return IDs of the books containing every trigram of the term, which still have to be
+     *         checked against the term
+     */
+    private List<Integer> lookUp(String term, CancellationSignal signal) {
+        ArrayList<IdList> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            IdList list = postings.get(trigram(term, i));
+            if (list == null) { return Collections.emptyList();}
+            lists.add(list);
+        }
+        Collections.sort(lists, SHORTEST_FIRST);
+
+        IdList shortest = lists.get(0);
+        ArrayList<Integer> ids = new ArrayList<>(shortest.size);
+        for (int i = 0; i < shortest.size; i++) {
+            throwIfCanceled(signal, i);
+            int id = shortest.ids[i];
+            boolean inAll = true;
+            for (int j = 1; j < lists.size() && inAll; j++) {
+                inAll = lists.get(j).contains(id);
+            }
+            if (inAll) { ids.add(id);}
+        }
+        return ids;
+    }
+    //==============================================================================================
+
+    /**
+     * fuzzySearch:
+     *  Finds the books whose title or author contains every word of the query allowing for a few
+     *   typos per word, see maxTypos(). Exact matches are found with search() and always
+     *   included. Near misses are looked for among the candidates picked by the longest word:
+     *   books sharing at least as many of its trigrams (or bigrams, see fuzzyCandidates()) as a
+     *   match within maxTypos() must keep, most shared first, up to MAX_FUZZY_CANDIDATES books.
+     *   Only those are checked against every word with the exact edit distance.
+     * @param query   Search text entered by the user
+     * @param signal  Stops the search when triggered, may be null
+     * @return List of matching books with their total number of typos, exact matches first, or
+     *         null if the query has no words and so matches every book
+     */
+    List<Match> fuzzySearch(String query, CancellationSignal signal) {
+        List<Integer> exact = search(query, signal);
+        if (exact == null) { return null;}
+        ArrayList<Match> found = new ArrayList<>();
+        for (Integer id : exact) { found.add(new Match(id, 0));}
+
+        String[] terms = terms(query);
+        Arrays.sort(terms, (a, b) -> Integer.compare(b.length(), a.length()));
+        // Too short to have trigrams or to allow typos
+        if (terms[0].length() < 3) { return found;}
+
+        ArrayList<Match> nearMisses = new ArrayList<>();
+        int[] distanceRows = new int[2 * (terms[0].length() + 1)];
+        for (Integer id : fuzzyCandidates(terms[0], new HashSet<>(exact), signal)) {
+            String key = keys.get(id);
+            int distance = 0;
+            for (int i = 0; i < terms.length && distance >= 0; i++) {
+                int typos = substringDistance(terms[i], key, distanceRows);
+                distance = typos <= maxTypos(terms[i]) ? distance + typos : -1;
+            }
+            if (distance > 0) { nearMisses.add(new Match(id, distance));}
+        }
+        Collections.sort(nearMisses, (a, b) -> Integer.compare(a.distance, b.distance));
+        found.addAll(nearMisses);
+        return found;
+    }
+    //==============================================================================================
+
+    /**
+     * fuzzyCandidates:
+     *  Counts how many of a term's q-grams each book contains, by merging the term's sorted
+     *   posting lists, and keeps the books with enough of them. A match within maxTypos() keeps
+     *   all but q of the term's q-grams per typo. Trigrams rule out the most books; when the
+     *   typos can break all of them (words of four to eight characters, e.g. "emxa" and "emma")
+     *   the bigrams are used, which two typos per word never break all of.
+     * @param term     Lowercase term of at least three characters
+     * @param exclude  IDs of the books already found, e.g. the exact matches
+     * @param signal   Stops the search when triggered, may be null
+     * @return IDs of at most MAX_FUZZY_CANDIDATES books, those sharing the most q-grams first
+     */
+    private List<Integer> fuzzyCandidates(String term, Set<Integer> exclude, CancellationSignal signal) {
+        int typos = maxTypos(term);
+        int q = term.length() - 2 > 3 * typos ? 3 : 2;
+        HashMap<Long, IdList> index = q == 3 ? postings : bigramPostings;
+        int gramCount = term.length() - q + 1;
+        // q-grams a match within maxTypos() keeps at the least, at least one for any term
+        int bound = gramCount - q * typos;
+
+        ArrayList<IdList> lists = new ArrayList<>();
+        HashSet<Long> distinct = new HashSet<>();
+        for (int i = 0; i < gramCount; i++) {
+            Long gram = q == 3 ? trigram(term, i) : bigram(term, i);
+            if (!distinct.add(gram)) { continue;}
+            IdList list = index.get(gram);
+            if (list != null) { lists.add(list);}
+        }
+        // A repeated q-gram is only counted once, a match may have kept only its repeats
+        int needed = Math.max(1, bound - (gramCount - distinct.size()));
+        if (needed > lists.size()) { return Collections.emptyList();}
+
+        // byShared[n] holds the books containing n of the q-grams, in ID order
+        IdList[] byShared = new IdList[lists.size() + 1];
+        int[] heads = new int[lists.size()];
+        for (int visited = 0; ; visited++) {
+            throwIfCanceled(signal, visited);
+            int lowest = Integer.MAX_VALUE;
+            for (int i = 0; i < heads.length; i++) {
+                IdList list = lists.get(i);
+                if (heads[i] < list.size) { lowest = Math.min(lowest, list.ids[heads[i]]);}
+            }
+            if (lowest == Integer.MAX_VALUE) { break;}
+            int shared = 0;
+            for (int i = 0; i < heads.length; i++) {
+                IdList list = lists.get(i);
+                if (heads[i] < list.size && list.ids[heads[i]] == lowest) {
+                    heads[i]++;
+                    shared++;
+                }
+            }
+            if (shared < needed || exclude.contains(lowest)) { continue;}
+            if (byShared[shared] == null) { byShared[shared] = new IdList();}
+            byShared[shared].add(lowest);
+        }
+
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (int shared = byShared.length - 1; shared >= needed; shared--) {
+            IdList books = byShared[shared];
+            for (int i = 0; books != null && i < books.size; i++) {
+                if (candidates.size() == MAX_FUZZY_CANDIDATES) { return candidates;}
+                candidates.add(books.ids[i]);
+            }
+        }
+        return candidates;
+    }
+    //==============================================================================================
+
+    /**
+     * maxTypos:
+     *  Number of typos (inserted, deleted or replaced characters) allowed in a search term.
+     *   Short words allow none, otherwise nearly every short word would match.
+     */
+    static int maxTypos(String term) {
+        if (term.length() <= 3) { return 0;}
+        return term.length() <= 5 ? 1 : 2;
+    }
+
+    /**
+     * substringDistance:
+     *  Smallest edit distance between a term and any part of a key, i.e. the number of typos it
+     *   takes to find the term in the key (Sellers' algorithm).
+     * @param term  Lowercase term
+     * @param key   Search key of a book
+     * @param rows  Scratch space of at least 2 * (term.length() + 1) ints
+     * @return Number of typos, 0 if the key contains the term
+     */
+    static int substringDistance(String term, String key, int[] rows) {
+        int width = term.length() + 1;
+        int previous = 0;
+        int current = width;
+        for (int i = 0; i < width; i++) { rows[i] = i;}
+        int best = term.length();
+        for (int j = 0; j < key.length() && best > 0; j++) {
+            char c = key.charAt(j);
+            // The match may start anywhere in the key
+            rows[current] = 0;
+            for (int i = 1; i < width; i++) {
+                int replace = rows[previous + i - 1] + (term.charAt(i - 1) == c ? 0 : 1);
+                int insert = rows[previous + i] + 1;
+                int delete = rows[current + i - 1] + 1;
+                rows[current + i] = Math.min(replace, Math.min(insert, delete));
+            }
+            best = Math.min(best, rows[current + width - 1]);
+            int swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return best;
+    }
+    //==============================================================================================
+
+    /**
+     * throwIfCanceled:
+     *  Called for every book a scan visits, checks the signal every CANCEL_CHECK_INTERVAL books.
+     * @param signal  Signal of the search, may be null
+     * @param done    Number of books visited so far
+     */
+    static void throwIfCanceled(CancellationSignal signal, int done) {
+        if (signal != null && done % CANCEL_CHECK_INTERVAL == 0) { signal.throwIfCanceled();}
+    }
+
+    private static boolean containsAll(String key, String[] terms) {
+        for (String term : terms) {
+            if (!key.contains(term)) { return false;}
+        }
+        return true;
+    }
+
+    /**
+     * terms:
+     *  Splits the search text into lowercase words, dropping punctuation. Letters and digits of
+     *   any script are kept.
+     */
+    static String[] terms(String query) {
+        if (query == null) { return new String[0];}
+        ArrayList<String> terms = new ArrayList<>();
+        for (String token : query.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (token.length() > 0) { terms.add(token);}
+        }
+        return terms.toArray(new String[0]);
+    }
+
+    private static String keyFor(BookModel book) {
+        String title = book.getTitleLowerCase() != null ? book.getTitleLowerCase() : book.getTitle().toLowerCase();
+        String author = book.getAuthor() != null ? book.getAuthor().toLowerCase() : "";
+        return title + FIELD_SEPARATOR + author;
+    }
+
+    private static Long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    private static Long bigram(String text, int start) {
+        return ((long) text.charAt(start) << 16) | text.charAt(start + 1);
+    }
+    //==============================================================================================
+
+    // Number of indexed books
+    int size() {
+        return keys.size();
+    }
+    //==============================================================================================
+
+    // Used by tests to check that removed books leave nothing behind
+    int postingCount() {
+        int count = 0;
+        for (Map.Entry<Long, IdList> entry : postings.entrySet()) {
+            count += entry.getValue().size;
+        }
+        for (Map.Entry<Long, IdList> entry : bigramPostings.entrySet()) {
+            count += entry.getValue().size;
+        }
+        return count;
+    }
+}
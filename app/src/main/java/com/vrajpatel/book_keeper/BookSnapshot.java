@@ -0,0 +1,320 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.database.AbstractCursor;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * BookSnapshot
+ *  Binary copy of the book list in the order it is shown, so that a cold start can draw the list
+ *   before the database has even been opened. The file is memory-mapped and read through a
+ *   Cursor, so the adapter binds from it exactly as it does from the live query, and only the
+ *   rows on screen are ever paged in.
+ *
+ *  Layout (big-endian):
+ *   header   MAGIC, FORMAT_VERSION, database version, sort order, book count, pool length
+ *   records  one RECORD_SIZE record per book in display order: ID, is_read, then the offset and
+ *            length (in chars) of the title, lowercase title, author and shelf name. A missing
+ *            author has length -1.
+ *   pool     UTF-16 characters of every string. Each shelf name is stored once.
+ */
+final class BookSnapshot {
+
+    private static final String TAG = "BookSnapshot";
+
+    static final String FILE_NAME = "book_snapshot.bin";
+
+    private static final int MAGIC = 0x424b534e;    // "BKSN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 6 * 4;
+    private static final int RECORD_SIZE = 10 * 4;
+
+    // Byte offset of each field inside a record, strings are an offset followed by a length
+    private static final int REC_ID = 0;
+    private static final int REC_IS_READ = 4;
+    private static final int REC_TITLE = 8;
+    private static final int REC_TITLE_LOWERCASE = 16;
+    private static final int REC_AUTHOR = 24;
+    private static final int REC_SHELF = 32;
+
+    // Same columns, in the same order, as DatabaseHelper.queryBooks()
+    private static final String[] COLUMNS = {DatabaseHelper.COL_ID, DatabaseHelper.COL_TITLE,
+            DatabaseHelper.COL_TITLE_LOWERCASE, DatabaseHelper.COL_AUTHOR, DatabaseHelper.COL_IS_READ,
+            DatabaseHelper.COL_SHELF_NAME};
+    private static final int[] COLUMN_FIELDS = {REC_ID, REC_TITLE, REC_TITLE_LOWERCASE, REC_AUTHOR,
+            REC_IS_READ, REC_SHELF};
+
+    // Writes are staged in buffers of this size before going to the file
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private BookSnapshot() {}
+
+    //==============================================================================================
+    /**
+     * write:
+     *  Writes every book of the cursor to the snapshot file. Records and strings are streamed to
+     *   their own region of the file, so memory use does not grow with the library. The file is
+     *   written under a temporary name and renamed, so a reader never sees half a snapshot.
+     * @param file   Snapshot file
+     * @param order  Order the books are sorted in
+     * @param books  Cursor from DatabaseHelper.queryBooks(), read from the start
+     * @throws IOException if the file cannot be written
+     */
+    static void write(File file, BookSortOrder order, Cursor books) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            int count = books.getCount();
+            Writer records = new Writer(channel, HEADER_SIZE);
+            Writer pool = new Writer(channel, HEADER_SIZE + (long) count * RECORD_SIZE);
+            HashMap<String, Integer> shelfOffsets = new HashMap<>();
+            CharArrayBuffer text = new CharArrayBuffer(64);
+
+            int colID = books.getColumnIndexOrThrow(DatabaseHelper.COL_ID);
+            int colTitle = books.getColumnIndexOrThrow(DatabaseHelper.COL_TITLE);
+            int colTitleLower = books.getColumnIndexOrThrow(DatabaseHelper.COL_TITLE_LOWERCASE);
+            int colAuthor = books.getColumnIndexOrThrow(DatabaseHelper.COL_AUTHOR);
+            int colIsRead = books.getColumnIndexOrThrow(DatabaseHelper.COL_IS_READ);
+            int colShelf = books.getColumnIndexOrThrow(DatabaseHelper.COL_SHELF_NAME);
+
+            books.moveToPosition(-1);
+            while (books.moveToNext()) {
+                records.putInt(books.getInt(colID));
+                records.putInt(books.getInt(colIsRead));
+                putString(records, pool, books, colTitle, text);
+                putString(records, pool, books, colTitleLower, text);
+                if (books.isNull(colAuthor)) {
+                    records.putInt(0);
+                    records.putInt(-1);
+                } else {
+                    putString(records, pool, books, colAuthor, text);
+                }
+                String shelf = books.getString(colShelf);
+                Integer shelfOffset = shelfOffsets.get(shelf);
+                if (shelfOffset == null) {
+                    shelfOffset = pool.chars;
+                    shelfOffsets.put(shelf, shelfOffset);
+                    pool.putChars(shelf.toCharArray(), shelf.length());
+                }
+                records.putInt(shelfOffset);
+                records.putInt(shelf.length());
+            }
+            books.moveToPosition(-1);
+            records.flush();
+            pool.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(DatabaseMigrations.LATEST_VERSION)
+                    .putInt(order.ordinal()).putInt(count).putInt(pool.chars);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(false);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+    //==============================================================================================
+
+    private static void putString(Writer records, Writer pool, Cursor books, int column,
+                                  CharArrayBuffer text) throws IOException {
+        books.copyStringToBuffer(column, text);
+        records.putInt(pool.chars);
+        records.putInt(text.sizeCopied);
+        pool.putChars(text.data, text.sizeCopied);
+    }
+    //==============================================================================================
+
+    /**
+     * open:
+     *  Maps the snapshot file and returns a cursor over it. The snapshot is ignored if it was
+     *   written for another sort order, by another database version, or is cut short.
+     * @param file   Snapshot file
+     * @param order  Order the books should be sorted in
+     * @return Cursor over the saved books, or null if there is no usable snapshot
+     */
+    static Cursor open(File file, BookSortOrder order) {
+        if (!file.exists()) { return null;}
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                // The mapping stays valid after the file is closed
+                MappedByteBuffer map = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+                if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC
+                        || map.getInt(4) != FORMAT_VERSION
+                        || map.getInt(8) != DatabaseMigrations.LATEST_VERSION
+                        || map.getInt(12) != order.ordinal()) {
+                    return null;
+                }
+                int count = map.getInt(16);
+                long poolStart = HEADER_SIZE + (long) count * RECORD_SIZE;
+                if (map.capacity() != poolStart + 2L * map.getInt(20)) { return null;}
+                return new SnapshotCursor(map, count, (int) poolStart);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "open: Could not read the snapshot", e);
+            return null;
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * Writer
+     *  Buffered, positioned writes to one region of the snapshot file.
+     */
+    private static class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        private long position;
+        int chars;    // chars written so far, only used for the pool
+
+        Writer(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) { flush();}
+            buffer.putInt(value);
+        }
+
+        void putChars(char[] data, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                if (buffer.remaining() < 2) { flush();}
+                buffer.putChar(data[i]);
+            }
+            chars += length;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * SnapshotCursor
+     *  Read-only cursor over a mapped snapshot. Strings are decoded straight from the mapped pool,
+     *   and copyStringToBuffer() copies them without creating a String at all.
+     */
+    private static class SnapshotCursor extends AbstractCursor {
+        private final ByteBuffer records;
+        private final CharBuffer pool;
+        private final int count;
+
+        SnapshotCursor(ByteBuffer map, int count, int poolStart) {
+            this.records = map;
+            this.count = count;
+            ByteBuffer poolBytes = map.duplicate();
+            poolBytes.position(poolStart);
+            this.pool = poolBytes.slice().asCharBuffer();
+        }
+
+        @Override
+        public int getCount() {return count;}
+
+        @Override
+        public String[] getColumnNames() {return COLUMNS;}
+
+        // Byte position of a field of the current record
+        private int fieldAt(int column) {
+            return HEADER_SIZE + getPosition() * RECORD_SIZE + COLUMN_FIELDS[column];
+        }
+
+        private boolean isStringColumn(int column) {
+            int field = COLUMN_FIELDS[column];
+            return field != REC_ID && field != REC_IS_READ;
+        }
+
+        @Override
+        public String getString(int column) {
+            if (!isStringColumn(column)) { return Integer.toString(getInt(column));}
+            int at = fieldAt(column);
+            int length = records.getInt(at + 4);
+            if (length < 0) { return null;}
+            char[] chars = new char[length];
+            copyChars(records.getInt(at), chars, length);
+            return new String(chars);
+        }
+
+        @Override
+        public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+            if (!isStringColumn(column)) {
+                super.copyStringToBuffer(column, buffer);
+                return;
+            }
+            int at = fieldAt(column);
+            int length = Math.max(records.getInt(at + 4), 0);
+            if (buffer.data == null || buffer.data.length < length) {
+                buffer.data = new char[length];
+            }
+            copyChars(records.getInt(at), buffer.data, length);
+            buffer.sizeCopied = length;
+        }
+
+        private void copyChars(int offset, char[] into, int length) {
+            for (int i = 0; i < length; i++) {
+                into[i] = pool.get(offset + i);
+            }
+        }
+
+        @Override
+        public int getInt(int column) {
+            if (isStringColumn(column)) { return Integer.parseInt(getString(column));}
+            return records.getInt(fieldAt(column));
+        }
+
+        @Override
+        public long getLong(int column) {return getInt(column);}
+
+        @Override
+        public short getShort(int column) {return (short) getInt(column);}
+
+        @Override
+        public float getFloat(int column) {return getInt(column);}
+
+        @Override
+        public double getDouble(int column) {return getInt(column);}
+
+        @Override
+        public boolean isNull(int column) {
+            return isStringColumn(column) && records.getInt(fieldAt(column) + 4) < 0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+/**
+ * BookSortOrder
+ *  The orders the book list can be shown in, matching the layout choices in the settings page.
+ *   Each order is a list of columns ending in the book ID, so no two books ever tie, and each has
+ *   an index with the same column order so SQLite reads the rows already sorted.
+ */
+public enum BookSortOrder {
+
+    // Alphabetical by title
+    TITLE("b." + DatabaseHelper.COL_TITLE_LOWERCASE, "b.ID"),
+    // Alphabetical by author, then title
+    AUTHOR("b." + DatabaseHelper.COL_AUTHOR, "b." + DatabaseHelper.COL_TITLE_LOWERCASE, "b.ID"),
+    // By shelf name, then author, then title
+    SHELF("s." + DatabaseHelper.COL_SHELF_NAME, "b." + DatabaseHelper.COL_AUTHOR,
+            "b." + DatabaseHelper.COL_TITLE_LOWERCASE, "b.ID");
+
+    private final String[] columns;
+
+    //==============================================================================================
+    BookSortOrder(String... columns) {
+        this.columns = columns;
+    }
+    //==============================================================================================
+
+    /**
+     * fromViewChoice:
+     *  Converts the sort preference saved by the settings page into a sort order.
+     * @param choice  Index of the sort preference in the settings spinner
+     * @return BookSortOrder, TITLE for an unknown choice
+     */
+    public static BookSortOrder fromViewChoice(int choice) {
+        switch (choice) {
+            case 1:
+                return AUTHOR;
+            case 2:
+                return SHELF;
+            default:
+                return TITLE;
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * getColumns:
+     *  Returns the sort columns, most significant first. They are qualified with "b." for the book
+     *   table and "s." for the shelf table.
+     * @return array of column names
+     */
+    String[] getColumns() {
+        return columns.clone();
+    }
+    //==============================================================================================
+
+    /**
+     * keyOf:
+     *  Returns the values of the sort columns for a book, in the same order as getColumns().
+     * @param book  Book to read the values from
+     * @return array of values, an entry is null where the book has no value
+     */
+    String[] keyOf(BookModel book) {
+        String id = Integer.toString(book.getID());
+        switch (this) {
+            case AUTHOR:
+                return new String[]{book.getAuthor(), book.getTitleLowerCase(), id};
+            case SHELF:
+                return new String[]{book.getShelfLocation(), book.getAuthor(), book.getTitleLowerCase(), id};
+            default:
+                return new String[]{book.getTitleLowerCase(), id};
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * compare:
+     *  Compares two books the way the ORDER BY of this order sorts them: column by column, a
+     *   missing value before any other, text by character code and the ID as a number. Lets a
+     *   changed book be placed among books already loaded without querying them again.
+     * @param a  First book
+     * @param b  Second book
+     * @return int  Negative if a comes first, positive if b does, 0 for the same book
+     */
+    int compare(BookModel a, BookModel b) {
+        String[] keyA = keyOf(a);
+        String[] keyB = keyOf(b);
+        // The last entry is the ID, which is compared as a number below
+        for (int i = 0; i < keyA.length - 1; i++) {
+            if (keyA[i] == null || keyB[i] == null) {
+                if (keyA[i] != keyB[i]) { return keyA[i] == null ? -1 : 1;}
+                continue;
+            }
+            int result = keyA[i].compareTo(keyB[i]);
+            if (result != 0) { return result;}
+        }
+        return a.getID() < b.getID() ? -1 : (a.getID() == b.getID() ? 0 : 1);
+    }
+    //==============================================================================================
+
+    /**
+     * toOrderBy:
+     *  Returns the ORDER BY clause for this order, without the keywords.
+     * @return comma separated list of the sort columns
+     */
+    String toOrderBy() {
+        StringBuilder orderBy = new StringBuilder();
+        for (String column : columns) {
+            if (orderBy.length() > 0) { orderBy.append(", ");}
+            orderBy.append(column);
+        }
+        return orderBy.toString();
+    }
+    //==============================================================================================
+}
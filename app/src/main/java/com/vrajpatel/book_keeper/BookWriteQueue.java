@@ -0,0 +1,280 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * BookWriteQueue
+ *  Holds the book edits and additions that have not been saved yet, so that a burst of them is
+ *   committed in one transaction (one sync of the database file) instead of one each. Queueing a
+ *   write never touches the database and never waits for it, so it can be done from the UI
+ *   thread. Edits of a book that is already queued replace the queued values.
+ *
+ *  A commit is requested COMMIT_DELAY_MS after the first write is queued, or straight away once
+ *   MAX_PENDING writes are waiting. The commit itself is done by BookRepository.flushWrites() on
+ *   the write lane, which also runs it before any other write so that the writes are committed
+ *   in the order they were made. A batch whose commit fails is put back in front of
+ *   the queue and tried once more with the next commit; if that fails too, its writes are
+ *   dropped and their callers told through their error callbacks.
+ */
+class BookWriteQueue {
+
+    static final long COMMIT_DELAY_MS = 500;
+    static final int MAX_PENDING = 50;
+
+    /*-----------------------------------------------------------------------------------
+     * Batch:
+     *  The writes taken from the queue by one commit. Callbacks are told the outcome once the
+     *   commit has set it.
+     */
+    static class Batch {
+        private final LinkedHashMap<Integer, BookModel> updatesByID;
+        private final Collection<BookModel> updates;
+        private final List<BookModel> adds;
+        private final List<Integer> updateCallbackIDs;
+        private final List<DatabaseExecutor.Callback<BookModel>> updateCallbacks;
+        private final List<DatabaseExecutor.Callback<BookModel>> addCallbacks;
+        private final List<DatabaseExecutor.ErrorCallback> errorCallbacks;
+        private final boolean retry;     // Holds writes whose commit already failed once
+        private final HashMap<Integer, BookModel> updateResults = new HashMap<>();
+        private final List<BookModel> addResults = new ArrayList<>();
+
+        private Batch(BookWriteQueue queue) {
+            this.updatesByID = queue.updates;
+            this.updates = queue.updates.values();
+            this.adds = queue.adds;
+            this.updateCallbackIDs = queue.updateCallbackIDs;
+            this.updateCallbacks = queue.updateCallbacks;
+            this.addCallbacks = queue.addCallbacks;
+            this.errorCallbacks = queue.errorCallbacks;
+            this.retry = queue.retry;
+        }
+
+        Collection<BookModel> getUpdates() { return updates;}
+        List<BookModel> getAdds() { return adds;}
+
+        /**
+         * setResult:
+         *  Matches the outcome of the commit to the queued writes: an edit gets its book, or null
+         *   if it was left out; an addition gets the book as stored, or null if it already existed.
+         * @param result  Outcome of DatabaseHelper.writeBooks()
+         */
+        void setResult(DatabaseHelper.BatchWriteResult result) {
+            Set<BookModel> rejected = identitySet(result.getRejectedUpdates());
+            Set<BookModel> skipped = identitySet(result.getAdded().getSkipped());
+            // Merged edits were saved with the values of the last one, so they all get that book
+            for (BookModel update : updates) {
+                updateResults.put(update.getID(), rejected.contains(update) ? null : update);
+            }
+            int inserted = 0;
+            for (BookModel add : adds) {
+                addResults.add(skipped.contains(add) ? null : result.getAdded().getInserted().get(inserted++));
+            }
+        }
+
+        /**
+         * notifyCallbacks:
+         *  Calls every callback of the batch on the UI thread.
+         * @param handler  Handler of the UI thread
+         */
+        void notifyCallbacks(Handler handler) {
+            if (updateCallbacks.isEmpty() && addCallbacks.isEmpty()) { return;}
+            handler.post(() -> {
+                for (int i = 0; i < updateCallbacks.size(); i++) {
+                    updateCallbacks.get(i).onResult(updateResults.get(updateCallbackIDs.get(i)));
+                }
+                for (int i = 0; i < addCallbacks.size(); i++) {
+                    if (addCallbacks.get(i) != null) { addCallbacks.get(i).onResult(addResults.get(i));}
+                }
+            });
+        }
+
+        /**
+         * notifyFailure:
+         *  Calls every error callback of the batch on the UI thread, once its writes have been
+         *   given up on.
+         * @param handler  Handler of the UI thread
+         * @param error    Why the commit failed
+         */
+        void notifyFailure(Handler handler, RuntimeException error) {
+            if (errorCallbacks.isEmpty()) { return;}
+            handler.post(() -> {
+                for (DatabaseExecutor.ErrorCallback errorCallback : errorCallbacks) {
+                    errorCallback.onError(error);
+                }
+            });
+        }
+
+        private static Set<BookModel> identitySet(List<BookModel> books) {
+            Set<BookModel> set = Collections.newSetFromMap(new IdentityHashMap<BookModel, Boolean>());
+            set.addAll(books);
+            return set;
+        }
+    }
+
+    private final Runnable requestCommit;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable delayedCommit = this::commitNow;
+
+    // Queued writes, replaced by new lists whenever a batch is taken
+    private LinkedHashMap<Integer, BookModel> updates = new LinkedHashMap<>();
+    private ArrayList<BookModel> adds = new ArrayList<>();
+    private ArrayList<Integer> updateCallbackIDs = new ArrayList<>();
+    private ArrayList<DatabaseExecutor.Callback<BookModel>> updateCallbacks = new ArrayList<>();
+    private ArrayList<DatabaseExecutor.Callback<BookModel>> addCallbacks = new ArrayList<>();
+    private ArrayList<DatabaseExecutor.ErrorCallback> errorCallbacks = new ArrayList<>();
+    private boolean retry;
+    private boolean commitScheduled;
+
+    //==============================================================================================
+    /**
+     * BookWriteQueue (constructor):
+     * @param requestCommit  Starts a commit in the background, called from any thread
+     */
+    BookWriteQueue(Runnable requestCommit) {
+        this.requestCommit = requestCommit;
+    }
+    //==============================================================================================
+
+    /**
+     * update:
+     *  Queues the current values of an edited book. The values are copied, so the queued write
+     *   never changes with the caller's book; a later edit is queued again.
+     * @param book           Book with edited information
+     * @param callback       Receives the book once saved, or null if the edit would have made it
+     *                        a duplicate; may be null
+     * @param errorCallback  Told if the edit could not be saved at all, may be null
+     */
+    void update(BookModel book, DatabaseExecutor.Callback<BookModel> callback,
+                DatabaseExecutor.ErrorCallback errorCallback) {
+        BookModel values = new BookModel(book.getTitle(), book.getTitleLowerCase(), book.getAuthor(),
+                book.getReadStatus(), book.getID(), book.getShelfLocation());
+        boolean full;
+        synchronized (this) {
+            // Removed first so the edit keeps its place among the others in the order they were made
+            updates.remove(book.getID());
+            updates.put(book.getID(), values);
+            if (callback != null) {
+                updateCallbackIDs.add(book.getID());
+                updateCallbacks.add(callback);
+            }
+            if (errorCallback != null) { errorCallbacks.add(errorCallback);}
+            full = schedule();
+        }
+        if (full) { requestCommit.run();}
+    }
+    //==============================================================================================
+
+    /**
+     * add:
+     *  Queues a new book.
+     * @param book           Book to add, its ID is ignored
+     * @param callback       Receives the book as stored (with its new ID), or null if it already
+     *                        exists; may be null
+     * @param errorCallback  Told if the book could not be saved at all, may be null
+     */
+    void add(BookModel book, DatabaseExecutor.Callback<BookModel> callback,
+             DatabaseExecutor.ErrorCallback errorCallback) {
+        boolean full;
+        synchronized (this) {
+            adds.add(book);
+            addCallbacks.add(callback);
+            if (errorCallback != null) { errorCallbacks.add(errorCallback);}
+            full = schedule();
+        }
+        if (full) { requestCommit.run();}
+    }
+    //==============================================================================================
+
+    // Called with the lock held, returns true if the queue is full and should commit now
+    private boolean schedule() {
+        if (updates.size() + adds.size() >= MAX_PENDING) { return true;}
+        if (!commitScheduled) {
+            commitScheduled = true;
+            mainHandler.postDelayed(delayedCommit, COMMIT_DELAY_MS);
+        }
+        return false;
+    }
+
+    private void commitNow() {
+        synchronized (this) { commitScheduled = false;}
+        requestCommit.run();
+    }
+    //==============================================================================================
+
+    /**
+     * take:
+     *  Empties the queue. The caller must commit the returned writes.
+     * @return Batch of queued writes, or null if nothing was queued
+     */
+    synchronized Batch take() {
+        if (updates.isEmpty() && adds.isEmpty()) { return null;}
+        Batch batch = new Batch(this);
+        updates = new LinkedHashMap<>();
+        adds = new ArrayList<>();
+        updateCallbackIDs = new ArrayList<>();
+        updateCallbacks = new ArrayList<>();
+        addCallbacks = new ArrayList<>();
+        errorCallbacks = new ArrayList<>();
+        retry = false;
+        if (commitScheduled) {
+            commitScheduled = false;
+            mainHandler.removeCallbacks(delayedCommit);
+        }
+        return batch;
+    }
+    //==============================================================================================
+
+    /**
+     * restore:
+     *  Puts the writes of a batch whose commit failed back in front of the queue, so they are
+     *   committed with the next batch. Edits queued since then replace the restored values of the
+     *   same book. A batch that was already a retry is not restored.
+     * @param batch  Batch taken by take() that could not be committed
+     * @return boolean  False if the batch was given up on, its callers must be told
+     */
+    boolean restore(Batch batch) {
+        if (batch.retry) { return false;}
+        boolean full;
+        synchronized (this) {
+            LinkedHashMap<Integer, BookModel> restoredUpdates = new LinkedHashMap<>(batch.updatesByID);
+            restoredUpdates.putAll(updates);
+            updates = restoredUpdates;
+            adds.addAll(0, batch.adds);
+            updateCallbackIDs.addAll(0, batch.updateCallbackIDs);
+            updateCallbacks.addAll(0, batch.updateCallbacks);
+            addCallbacks.addAll(0, batch.addCallbacks);
+            errorCallbacks.addAll(0, batch.errorCallbacks);
+            retry = true;
+            full = schedule();
+        }
+        if (full) { requestCommit.run();}
+        return true;
+    }
+    //==============================================================================================
+}
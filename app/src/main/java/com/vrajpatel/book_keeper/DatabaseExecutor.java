@@ -0,0 +1,317 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DatabaseExecutor
+ *  Runs database work on background threads and hands the results back to the UI thread. Reads
+ *   share a small, fixed pool; writes run one at a time, in the order they were submitted, on a
+ *   lane of their own. Every task gets its own CancellationSignal: cancelling a read stops the
+ *   query inside SQLite and drops its result, cancelling a write only drops the result since the
+ *   write itself must still happen. A result that holds a resource, such as a Cursor, is closed
+ *   when it is dropped.
+ *  Both queues are bounded. A task that fails, or is turned away because its queue is full, is
+ *   reported to its ErrorCallback instead of its Callback, so the caller always hears back.
+ */
+public class DatabaseExecutor {
+
+    private static final String TAG = "DatabaseExecutor";
+
+    // WAL lets readers run next to the single writer, more threads than this would only queue
+    //  up on the database connection pool.
+    private static final int READ_THREAD_COUNT = 2;
+
+    // Tasks that may wait for a thread. Reads are cancelled as screens close, so only a burst of
+    //  them can fill their queue; writes are few but each must run, so they get more room.
+    static final int MAX_QUEUED_READS = 32;
+    static final int MAX_QUEUED_WRITES = 256;
+
+    private static DatabaseExecutor sInstance;
+
+    private final ExecutorService readExecutor;
+    private final ExecutorService writeExecutor;    // single thread, so writes never overlap
+    private final Handler mainHandler;
+
+    /*-----------------------------------------------------------------------------------
+     * Query: (interface)
+     *  Work to run on a background thread. Long running work should pass the signal on to
+     *   the database or check it regularly.
+     */
+    public interface Query<T> {
+        T run(CancellationSignal signal);
+    }
+
+    /*-----------------------------------------------------------------------------------
+     * Callback: (interface)
+     *  Receives the result of a query on the UI thread. Not called if the task was cancelled.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /*-----------------------------------------------------------------------------------
+     * ErrorCallback: (interface)
+     *  Receives the exception of a task that failed, or a RejectedExecutionException if the task
+     *   was turned away, on the UI thread. Not called if the task was cancelled.
+     */
+    public interface ErrorCallback {
+        void onError(RuntimeException error);
+    }
+
+    //==============================================================================================
+    /**
+     * getInstance:
+     *  Returns the executor shared by the whole process.
+     * @return DatabaseExecutor
+     */
+    public static synchronized DatabaseExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new DatabaseExecutor();
+        }
+        return sInstance;
+    }
+    //==============================================================================================
+
+    private DatabaseExecutor() {
+        readExecutor = new ThreadPoolExecutor(READ_THREAD_COUNT, READ_THREAD_COUNT, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_READS), threadFactory("read"));
+        writeExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_WRITES), threadFactory("write"));
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+    //==============================================================================================
+
+    private static ThreadFactory threadFactory(String lane) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "BookKeeper-db-" + lane + "-" + threadCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+    }
+    //==============================================================================================
+
+    /**
+     * submitQuery:
+     *  Runs a read in the background. Cancelling the returned signal interrupts the query and
+     *   prevents the callbacks from being called.
+     * @param query          Work to run in the background
+     * @param callback       Receives the result on the UI thread, may be null
+     * @param errorCallback  Receives the failure on the UI thread, may be null
+     * @return CancellationSignal for this task
+     */
+    public <T> CancellationSignal submitQuery(Query<T> query, Callback<T> callback,
+                                              ErrorCallback errorCallback) {
+        return submit(readExecutor, query, callback, errorCallback, true);
+    }
+
+    public <T> CancellationSignal submitQuery(Query<T> query, Callback<T> callback) {
+        return submitQuery(query, callback, null);
+    }
+    //==============================================================================================
+
+    /**
+     * submitWrite:
+     *  Queues a write on the write lane. The write always runs to completion, cancelling the
+     *   returned signal only prevents the callbacks from being called.
+     * @param write          Work to run in the background
+     * @param callback       Receives the result on the UI thread, may be null
+     * @param errorCallback  Receives the failure on the UI thread, may be null
+     * @return CancellationSignal for this task
+     */
+    public <T> CancellationSignal submitWrite(Query<T> write, Callback<T> callback,
+                                              ErrorCallback errorCallback) {
+        return submit(writeExecutor, write, callback, errorCallback, false);
+    }
+
+    public <T> CancellationSignal submitWrite(Query<T> write, Callback<T> callback) {
+        return submitWrite(write, callback, null);
+    }
+    //==============================================================================================
+
+    private <T> CancellationSignal submit(ExecutorService lane, Query<T> query, Callback<T> callback,
+                                          ErrorCallback errorCallback, boolean cancellable) {
+        final CancellationSignal signal = new CancellationSignal();
+        // Writes are given their own signal so that cancelling the task never aborts them
+        final CancellationSignal workSignal = cancellable ? signal : new CancellationSignal();
+        try {
+            lane.execute(() -> {
+                if (cancellable && signal.isCanceled()) { return;}
+                final T result;
+                try {
+                    result = query.run(workSignal);
+                } catch (OperationCanceledException e) {
+                    Log.d(TAG, "submit: Task was cancelled");
+                    return;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "submit: Background task failed", e);
+                    fail(signal, errorCallback, e);
+                    return;
+                }
+                if (callback != null) {
+                    mainHandler.post(() -> {
+                        if (!signal.isCanceled()) {
+                            callback.onResult(result);
+                        } else {
+                            closeDropped(result);
+                        }
+                    });
+                } else {
+                    closeDropped(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "submit: Queue is full, task was turned away", e);
+            fail(signal, errorCallback, e);
+        }
+        return signal;
+    }
+    //==============================================================================================
+
+    // Hands a failure to the error callback on the UI thread, posted even when called from it so
+    //  the caller always has the returned signal first
+    private void fail(CancellationSignal signal, ErrorCallback errorCallback, RuntimeException error) {
+        if (errorCallback == null) { return;}
+        mainHandler.post(() -> {
+            if (!signal.isCanceled()) { errorCallback.onError(error);}
+        });
+    }
+    //==============================================================================================
+
+    /**
+     * closeDropped:
+     *  Closes a result that nobody is going to receive, so e.g. a Cursor's window is released
+     *   instead of leaking until the finalizer runs.
+     * @param result  Result of a task whose callback was not called
+     */
+    static void closeDropped(Object result) {
+        if (!(result instanceof Closeable)) { return;}
+        try {
+            ((Closeable) result).close();
+        } catch (IOException e) {
+            Log.e(TAG, "closeDropped: Could not close dropped result", e);
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * TaskScope
+     *  Tracks the tasks started by one screen so they can all be cancelled together, e.g. when a
+     *   fragment's view is destroyed. Must only be used from the UI thread.
+     */
+    public static class TaskScope {
+        private final HashSet<CancellationSignal> tasks = new HashSet<>();
+        private boolean cancelled;
+
+        public <T> void submitQuery(Query<T> query, Callback<T> callback, ErrorCallback errorCallback) {
+            final CancellationSignal[] task = new CancellationSignal[1];
+            task[0] = getInstance().submitQuery(query, result -> finish(task[0], callback, result),
+                    error -> fail(task[0], errorCallback, error));
+            track(task[0]);
+        }
+
+        public <T> void submitQuery(Query<T> query, Callback<T> callback) {
+            submitQuery(query, callback, null);
+        }
+
+        public <T> void submitWrite(Query<T> write, Callback<T> callback, ErrorCallback errorCallback) {
+            final CancellationSignal[] task = new CancellationSignal[1];
+            task[0] = getInstance().submitWrite(write, result -> finish(task[0], callback, result),
+                    error -> fail(task[0], errorCallback, error));
+            track(task[0]);
+        }
+
+        public <T> void submitWrite(Query<T> write, Callback<T> callback) {
+            submitWrite(write, callback, null);
+        }
+
+        /**
+         * guard:
+         *  Wraps a callback handed to something other than this executor (e.g. a queued write) so
+         *   that it is dropped once this scope has been cancelled, like the callbacks of its tasks.
+         * @param callback  Callback to wrap, may be null
+         * @return Callback that only runs while the scope is active
+         */
+        public <T> Callback<T> guard(Callback<T> callback) {
+            return result -> {
+                if (!cancelled && callback != null) { callback.onResult(result);}
+            };
+        }
+
+        /**
+         * guardError:
+         *  Same as guard() for an error callback.
+         * @param errorCallback  Error callback to wrap, may be null
+         * @return ErrorCallback that only runs while the scope is active
+         */
+        public ErrorCallback guardError(ErrorCallback errorCallback) {
+            return error -> {
+                if (!cancelled && errorCallback != null) { errorCallback.onError(error);}
+            };
+        }
+
+        /**
+         * cancelAll:
+         *  Cancels every task still running in this scope. Results that arrive later are dropped.
+         */
+        public void cancelAll() {
+            cancelled = true;
+            for (CancellationSignal task : tasks) { task.cancel();}
+            tasks.clear();
+        }
+
+        private void track(CancellationSignal task) {
+            if (cancelled) {
+                task.cancel();
+            } else {
+                tasks.add(task);
+            }
+        }
+
+        // Callbacks are posted to the UI thread, so track() has always run before this
+        private <T> void finish(CancellationSignal task, Callback<T> callback, T result) {
+            tasks.remove(task);
+            if (!cancelled && callback != null) {
+                callback.onResult(result);
+            } else {
+                closeDropped(result);
+            }
+        }
+
+        private void fail(CancellationSignal task, ErrorCallback errorCallback, RuntimeException error) {
+            tasks.remove(task);
+            if (!cancelled && errorCallback != null) { errorCallback.onError(error);}
+        }
+    }
+}
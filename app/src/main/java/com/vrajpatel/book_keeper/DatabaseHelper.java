@@ -18,95 +18,186 @@ package com.vrajpatel.book_keeper;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "DatabaseHelper";
 
-    // Database Information
-    private static final int DATABASE_VERSION_ON_MOBILE_DEVICE = 2;  // Modifications
-    private static final int DATABASE_VERSION_ON_SIMULATOR = 2;      // Modifications
+    // Database Information, bump through DatabaseMigrations when the schema changes
+    private static final int DATABASE_VERSION = DatabaseMigrations.LATEST_VERSION;
 
     // Static strings for the table columns
-    private static final String TABLE_NAME = "book_table";
-    private static final String COL_ID = "id";
-    private static final String COL_TITLE = "title";
-    private static final String COL_TITLE_LOWERCASE = "lowercase_title";
-    private static final String COL_SHELF_LOCATION = "shelf_location";
-    private static final String COL_AUTHOR = "author";
-    private static final String COL_IS_READ = "is_read";
+    static final String TABLE_NAME = "book_table";
+    static final String COL_ID = "id";
+    static final String COL_TITLE = "title";
+    static final String COL_TITLE_LOWERCASE = "lowercase_title";
+    static final String COL_SHELF_LOCATION = "shelf_location";
+    static final String COL_AUTHOR = "author";
+    static final String COL_IS_READ = "is_read";
+    static final String COL_SHELF_ID = "shelf_id";
+    static final String COL_DELETED_AT = "deleted_at";
+
+    // Static strings for the shelf table columns
+    static final String SHELF_TABLE_NAME = "shelves";
+    static final String COL_SHELF_NAME = "name";
+    static final String DEFAULT_SHELF = "Default";
+
+    // Columns read into a BookModel, in the order expected by readBook(), and the tables they
+    //  are read from. Soft deleted books are left out by the join. The ID is renamed so cursor
+    //  users can find it by COL_ID, SQLiteCursor matches column names case-sensitively.
+    private static final String BOOK_COLUMNS = "b.ID AS " + COL_ID + ", b." + COL_TITLE + ", b."
+            + COL_TITLE_LOWERCASE + ", b." + COL_AUTHOR + ", b." + COL_IS_READ + ", s." + COL_SHELF_NAME;
+    private static final String BOOK_TABLES = TABLE_NAME + " b JOIN " + SHELF_TABLE_NAME
+            + " s ON s.ID = b." + COL_SHELF_ID + " AND b." + COL_DELETED_AT + " IS NULL";
+    // Same join with the shelf names as the outer loop (CROSS JOIN fixes the order), so the shelf
+    //  sort walks the unique shelf names and then the shelf order index without a sort step
+    private static final String SHELF_FIRST_TABLES = SHELF_TABLE_NAME + " s CROSS JOIN " + TABLE_NAME
+            + " b ON s.ID = b." + COL_SHELF_ID + " AND b." + COL_DELETED_AT + " IS NULL";
+
+    // Selects the books on the shelf named by the bind argument, through the shelf order index
+    private static final String SHELF_MATCHES_NAME = COL_SHELF_ID + " = (SELECT ID FROM "
+            + SHELF_TABLE_NAME + " WHERE " + COL_SHELF_NAME + " = ?)";
+
+    // Full recounts matching the layout of the stats summary tables
+    private static final String RECOUNT_TOTALS_SQL = "SELECT 0, COUNT(*), COALESCE(SUM(" + COL_IS_READ
+            + " = 1), 0) FROM " + TABLE_NAME + " WHERE " + COL_DELETED_AT + " IS NULL";
+    private static final String RECOUNT_SHELVES_SQL = "SELECT " + COL_SHELF_ID + ", COUNT(*), SUM("
+            + COL_IS_READ + " = 1) FROM " + TABLE_NAME + " WHERE " + COL_DELETED_AT + " IS NULL GROUP BY "
+            + COL_SHELF_ID;
+
+    // Single helper shared by the whole process
+    private static DatabaseHelper sInstance;
+
+    private final Context mContext;
+
+    // Value of PRAGMA auto_vacuum once incremental vacuum is turned on
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // IDs bound per statement in bulk updates, below SQLite's default limit of 999 bound values
+    static final int MAX_BATCH_IDS = 900;
 
     //==============================================================================================
+    /**
+     * getInstance:
+     *  Returns the process-wide helper, creating it on first use. The helper is bound to the
+     *   application context so that it never holds on to a fragment or activity, and its
+     *   connection is kept open for the lifetime of the process instead of being reopened for
+     *   every query.
+     * @param context Context of calling class.
+     * @return DatabaseHelper shared by all callers
+     */
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DatabaseHelper(context.getApplicationContext(), TABLE_NAME);
+        }
+        return sInstance;
+    }
+    //==============================================================================================
+
     /**
      * DatabaseHelper (constructor):
-     * Before pushing update to the phone, make sure that the database version matches that of
-     *   the actual user's phone, otherwise make sure to switch back to the correct one for testing.
+     *  The database version is taken from DatabaseMigrations, so adding a migration step is the
+     *   only thing needed to move every install forward. Write-ahead logging is enabled so that
+     *   reads are not blocked while a write is in progress. Use getInstance() outside of tests so
+     *   that only one connection pool is ever opened.
      * @param context Context of calling class.
+     * @param name    Name of the database file.
+     */
+    DatabaseHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        mContext = context;
+        setWriteAheadLoggingEnabled(true);
+        Log.d(TAG, "DatabaseHelper: Database version: " + DATABASE_VERSION);
+    }
+    //==============================================================================================
+
+    /**
+     * onConfigure: (overridden method)
+     *  Turns on foreign key checks so a book can never point at a shelf that does not exist, and
+     *   incremental vacuum so that space freed by deletes can be reclaimed without a full VACUUM.
+     * @param sqLiteDatabase SQ-lite database
      */
-    public DatabaseHelper(Context context) {
-        super(context, TABLE_NAME, null,2);
-        Log.d(TAG, "DatabaseHelper: Database version simulator: " + DATABASE_VERSION_ON_SIMULATOR);
-        Log.d(TAG, "DatabaseHelper: Database version mobile device: " + DATABASE_VERSION_ON_MOBILE_DEVICE);
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.setForeignKeyConstraintsEnabled(true);
+        // Only takes effect before the first table is created, older files are switched over by
+        //  reclaimFreePages()
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
     }
     //==============================================================================================
 
     /**
      * onCreate: (overridden method)
-     * Creates a new data table if needed with the columns stated.
+     *  Creates the original (version 1) table and then runs every migration step, so a fresh
+     *   install ends up with exactly the same schema as an upgraded one.
      * @param sqLiteDatabase SQ-lite database
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         Log.d(TAG, "onCreate: Creating Database " + TABLE_NAME);
-        String createTable = "CREATE TABLE " + TABLE_NAME + " (ID INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + COL_TITLE + " TEXT, " + COL_TITLE_LOWERCASE + " TEXT, " + COL_AUTHOR + " TEXT, "
-                + COL_IS_READ + " INTEGER, " + COL_SHELF_LOCATION + " TEXT)";
-
-        sqLiteDatabase.execSQL(createTable);
+        DatabaseMigrations.createInitialSchema(sqLiteDatabase);
+        DatabaseMigrations.migrate(sqLiteDatabase, 1, DATABASE_VERSION);
     }
     //==============================================================================================
 
     /**
      * onUpgrade: (overridden method)
-     *  Upgrades data table when a new version is detected.
+     *  Upgrades data table when a new version is detected by running each migration step between
+     *   the two versions in order. SQLiteOpenHelper wraps this in a transaction, so a failed step
+     *   leaves the database at its old version.
      * @param sqLiteDatabase  SQ-lite database
      * @param oldVersion      Older version of SQ-lite database
      * @param newVersion      New version of SQ-lite database
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        if (oldVersion < newVersion) {
-            Log.d(TAG, "onUpgrade: Creating the database table");
-            sqLiteDatabase.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " +
-                    COL_SHELF_LOCATION + " TEXT DEFAULT 'Default'");
-            Log.d(TAG, "onUpgrade: Added new column");
-        }
+        DatabaseMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
     }
     //==============================================================================================
 
     /**
-     * itemPresent:
-     *   Checks to see if the item is already present in the database in the given column.
-     * @param titleLowerCase         Title that is about to be added
-     * @param author                 Author that is about to be added
-     * @return boolean               True if book present, false otherwise
+     * onOpen: (overridden method)
+     *  Moves the shelf names that older versions saved as a single '@' separated string in the
+     *   shared-preferences into the shelf table. The preference is removed afterwards, so this only
+     *   does any work on the first launch after upgrading.
+     * @param sqLiteDatabase SQ-lite database
      */
-    private boolean itemPresent(String titleLowerCase, String author) {
-        Log.d(TAG, "itemPresent: Checking to see if: " + titleLowerCase + " exists in col: " + COL_TITLE_LOWERCASE);
-        SQLiteDatabase db = this.getReadableDatabase();
-        String query = "SELECT * FROM " + TABLE_NAME + " WHERE " + COL_TITLE_LOWERCASE +
-                " = ? AND " + COL_AUTHOR + " =?";
-        Cursor cursor = db.rawQuery(query, new String[]{titleLowerCase, author});
-        int count = cursor.getCount();
-        cursor.close();
-        Log.d(TAG, "itemPresent: located " + count + " item(s) in the db with matching info");
-        return (count > 0);
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+        SharedPreferences sharedPreferences = mContext.getSharedPreferences(MainActivity.SHARED_PREFERENCES,
+                MainActivity.MODE_PRIVATE);
+        String storedNames = sharedPreferences.getString(MainActivity.SHELVES, null);
+        if (storedNames == null) { return;}
+
+        Log.d(TAG, "onOpen: Importing shelf names from the shared-preferences");
+        sqLiteDatabase.beginTransaction();
+        try {
+            for (String name : storedNames.split("@", -1)) {
+                if (name.length() > 0) { shelfIdFor(sqLiteDatabase, name);}
+            }
+            sqLiteDatabase.setTransactionSuccessful();
+        } finally {
+            sqLiteDatabase.endTransaction();
+        }
+        sharedPreferences.edit().remove(MainActivity.SHELVES).apply();
     }
     //==============================================================================================
 
@@ -123,39 +214,330 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public boolean addData(String title, String author, String titleLowerCase, boolean readStatus,
                            String shelfLocation) {
         Log.d(TAG, "addData: Adding a new Book to the database");
+        BookModel book = new BookModel(title, titleLowerCase, author, readStatus, 0, shelfLocation);
+        // The unique index rejects the same book being added twice
+        return !addBooks(Collections.singletonList(book)).getInserted().isEmpty();
+    }
+    //==============================================================================================
+
+    /**
+     * addBooks:
+     *  Adds all the provided books in a single transaction, reusing one compiled insert statement.
+     *   Books that are already stored (same lowercase title and author) are skipped by the unique
+     *   index; a soft deleted copy waiting to be purged is removed first so it does not block the
+     *   new book. The IDs of the provided books are ignored; inserted books are returned with the
+     *   ID they were given in the database.
+     * @param books  Books to add
+     * @return BulkInsertResult holding the inserted and the skipped books
+     */
+    public BulkInsertResult addBooks(Collection<BookModel> books) {
+        Log.d(TAG, "addBooks: Adding " + books.size() + " books to the database");
+        BulkInsertResult result = new BulkInsertResult();
         SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_NAME + " ("
+                + COL_TITLE + ", " + COL_TITLE_LOWERCASE + ", " + COL_AUTHOR + ", " + COL_IS_READ
+                + ", " + COL_SHELF_ID + ") VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement purgeDeletedCopy = db.compileStatement("DELETE FROM " + TABLE_NAME + " WHERE "
+                + COL_TITLE_LOWERCASE + " = ? AND " + COL_AUTHOR + " = ? AND " + COL_DELETED_AT
+                + " IS NOT NULL");
+        HashMap<String, Long> shelfIDs = new HashMap<>();
+
+        db.beginTransaction();
+        try {
+            for (BookModel book : books) {
+                String shelf = shelfNameOrDefault(book.getShelfLocation());
+                Long shelfID = shelfIDs.get(shelf);
+                if (shelfID == null) {
+                    shelfID = shelfIdFor(db, shelf);
+                    shelfIDs.put(shelf, shelfID);
+                }
+                String titleLower = book.getTitleLowerCase() != null ?
+                        book.getTitleLowerCase() : book.getTitle().toLowerCase();
+                String author = authorOrEmpty(book.getAuthor());
+                purgeDeletedCopy.bindString(1, titleLower);
+                purgeDeletedCopy.bindString(2, author);
+                purgeDeletedCopy.executeUpdateDelete();
+                insert.clearBindings();
+                insert.bindString(1, book.getTitle());
+                insert.bindString(2, titleLower);
+                insert.bindString(3, author);
+                insert.bindLong(4, book.getReadStatus() ? 1 : 0);
+                insert.bindLong(5, shelfID);
+
+                // -1 is returned when the unique index ignored the row
+                long rowID = insert.executeInsert();
+                if (rowID == -1) {
+                    result.skipped.add(book);
+                } else {
+                    result.inserted.add(new BookModel(book.getTitle(), titleLower, author,
+                            book.getReadStatus(), (int) rowID, shelf));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+            purgeDeletedCopy.close();
+        }
+        Log.d(TAG, "addBooks: inserted " + result.inserted.size() + ", skipped " + result.skipped.size());
+        return result;
+    }
+    //==============================================================================================
 
-        // Check to make sure that the same book is not already there
-        if (!(itemPresent(titleLowerCase, author))){
+    /**
+     * softDeleteBook:
+     *  Marks a book as deleted without removing its row. The book disappears from every query and
+     *   from the stats, but can be brought back with restoreBook() until it is purged.
+     * @param id  ID of the book
+     * @return boolean  True if a stored book was marked
+     */
+    public boolean softDeleteBook(int id) {
+        ContentValues cv = new ContentValues();
+        cv.put(COL_DELETED_AT, System.currentTimeMillis());
+        return this.getWritableDatabase().update(TABLE_NAME, cv, "ID = ? AND " + COL_DELETED_AT
+                + " IS NULL", new String[]{Integer.toString(id)}) > 0;
+    }
+    //==============================================================================================
 
-            ContentValues contentValues = new ContentValues();
-            contentValues.put(COL_TITLE, title);
-            contentValues.put(COL_TITLE_LOWERCASE,titleLowerCase);
-            contentValues.put(COL_AUTHOR, author);
-            contentValues.put(COL_IS_READ, readStatus? 1 : 0);
-            contentValues.put(COL_SHELF_LOCATION, shelfLocation);
+    /**
+     * restoreBook:
+     *  Undoes softDeleteBook().
+     * @param id  ID of the book
+     * @return boolean  True if the book was still waiting to be purged and has been restored
+     */
+    public boolean restoreBook(int id) {
+        ContentValues cv = new ContentValues();
+        cv.putNull(COL_DELETED_AT);
+        return this.getWritableDatabase().update(TABLE_NAME, cv, "ID = ? AND " + COL_DELETED_AT
+                + " IS NOT NULL", new String[]{Integer.toString(id)}) > 0;
+    }
+    //==============================================================================================
 
-            // Get status of the insertion
-            long result = db.insert(TABLE_NAME, null, contentValues);
-            db.close();
-            return result != -1;
+    /**
+     * purgeDeletedBooks:
+     *  Removes one batch of books that were soft deleted before the given time. Each batch is its
+     *   own short transaction, so other work can run between batches.
+     * @param deletedBefore  Only books deleted before this time (ms since the epoch) are removed
+     * @param batchSize      Maximum number of books to remove
+     * @return number of books removed, less than batchSize once there is nothing left to purge
+     */
+    public int purgeDeletedBooks(long deletedBefore, int batchSize) {
+        return this.getWritableDatabase().delete(TABLE_NAME, "ID IN (SELECT ID FROM " + TABLE_NAME
+                + " WHERE " + COL_DELETED_AT + " < ? LIMIT ?)",
+                new String[]{Long.toString(deletedBefore), Integer.toString(batchSize)});
+    }
+    //==============================================================================================
+
+    /**
+     * getImportProgress:
+     *  Loads how far an earlier, interrupted import of the same source got.
+     * @param source  Name and fingerprint of the imported file, see BookImporter
+     * @return BookImporter.Progress, empty if the source has not been imported before
+     */
+    public BookImporter.Progress getImportProgress(String source) {
+        BookImporter.Progress progress = new BookImporter.Progress();
+        Cursor data = this.getReadableDatabase().query(DatabaseMigrations.IMPORT_PROGRESS_TABLE,
+                new String[]{DatabaseMigrations.COL_ROWS_READ, DatabaseMigrations.COL_INSERTED_COUNT,
+                        DatabaseMigrations.COL_SKIPPED_COUNT, DatabaseMigrations.COL_REJECTED_COUNT},
+                DatabaseMigrations.COL_IMPORT_SOURCE + " = ?", new String[]{source}, null, null, null);
+        if (data.moveToFirst()) {
+            progress.rowsRead = data.getLong(0);
+            progress.inserted = data.getInt(1);
+            progress.skipped = data.getInt(2);
+            progress.rejected = data.getInt(3);
         }
-        return false;
+        data.close();
+        return progress;
     }
     //==============================================================================================
 
     /**
-     * deleteBookWithID:
-     *  Removes the book using the provided book. The ID is extracted from the Book class directly.
-     * @param book  Book that will be removed.
-     * @return boolean    True by default
+     * addImportChunk:
+     *  Adds one chunk of imported books and saves the import's position in the same transaction,
+     *   so after a crash the import resumes exactly after the last chunk that was stored. The
+     *   saved position is removed with the last chunk.
+     * @param source    Name and fingerprint of the imported file, see BookImporter
+     * @param books     Books read since the previous chunk
+     * @param progress  Progress including the rows of this chunk, updated with its counts
+     * @param finished  True for the last chunk of the file
      */
-    public boolean deleteBookWithID(BookModel book) {
+    void addImportChunk(String source, Collection<BookModel> books, BookImporter.Progress progress,
+                        boolean finished) {
         SQLiteDatabase db = this.getWritableDatabase();
-        Log.d(TAG, "deleteBookWithID: removing by item id: " + book.getID() + " title: " + book.getTitle());
-        db.delete(TABLE_NAME, COL_ID + " =?" , new String[]{Long.toString(book.getID())});
-        db.close();
-        return true;
+        db.beginTransaction();
+        try {
+            BulkInsertResult result = addBooks(books);
+            progress.inserted += result.getInserted().size();
+            progress.skipped += result.getSkipped().size();
+            if (finished) {
+                db.delete(DatabaseMigrations.IMPORT_PROGRESS_TABLE, DatabaseMigrations.COL_IMPORT_SOURCE
+                        + " = ?", new String[]{source});
+            } else {
+                ContentValues cv = new ContentValues();
+                cv.put(DatabaseMigrations.COL_IMPORT_SOURCE, source);
+                cv.put(DatabaseMigrations.COL_ROWS_READ, progress.rowsRead);
+                cv.put(DatabaseMigrations.COL_INSERTED_COUNT, progress.inserted);
+                cv.put(DatabaseMigrations.COL_SKIPPED_COUNT, progress.skipped);
+                cv.put(DatabaseMigrations.COL_REJECTED_COUNT, progress.rejected);
+                cv.put(DatabaseMigrations.COL_IMPORT_UPDATED_AT, System.currentTimeMillis());
+                db.insertWithOnConflict(DatabaseMigrations.IMPORT_PROGRESS_TABLE, null, cv,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * deleteExpiredImports:
+     *  Forgets the saved position of every import that has not committed a chunk since the given
+     *   time, so a file that is picked again after that starts from the top.
+     * @param updatedBefore  Time (ms since the epoch) before which a saved position is expired
+     * @return number of saved positions removed
+     */
+    int deleteExpiredImports(long updatedBefore) {
+        return this.getWritableDatabase().delete(DatabaseMigrations.IMPORT_PROGRESS_TABLE,
+                DatabaseMigrations.COL_IMPORT_UPDATED_AT + " < ?",
+                new String[]{Long.toString(updatedBefore)});
+    }
+    //==============================================================================================
+
+    /**
+     * getJournalSeq:
+     *  Returns the sequence number of the newest change journal entry. Read from sqlite_sequence,
+     *   so the number is still right after the journal has been trimmed.
+     * @return long  0 if nothing has been journaled yet
+     */
+    public long getJournalSeq() {
+        return DatabaseUtils.longForQuery(this.getReadableDatabase(), "SELECT COALESCE((SELECT seq FROM "
+                + "sqlite_sequence WHERE name = ?), 0)", new String[]{DatabaseMigrations.JOURNAL_TABLE});
+    }
+    //==============================================================================================
+
+    /**
+     * queryBackupBooks:
+     *  Opens a cursor over every book, by ID, for a full backup. Selects the same columns as
+     *   queryBooks(). The caller must close it.
+     * @return Cursor over the books
+     */
+    public Cursor queryBackupBooks() {
+        return this.getReadableDatabase().rawQuery("SELECT " + BOOK_COLUMNS + " FROM " + BOOK_TABLES
+                + " ORDER BY b.ID", null);
+    }
+    //==============================================================================================
+
+    /**
+     * queryJournalChanges:
+     *  Opens a cursor over the books changed by the journal entries in (afterSeq, upToSeq], once
+     *   per book however often it changed, with the book's current values. A book that has since
+     *   been deleted (or soft deleted) has a null title. Selects the same columns as queryBooks().
+     *   The caller must close it.
+     * @param afterSeq  Last entry that was already backed up
+     * @param upToSeq   Last entry to include
+     * @return Cursor over the changed books
+     */
+    public Cursor queryJournalChanges(long afterSeq, long upToSeq) {
+        return this.getReadableDatabase().rawQuery("SELECT j." + DatabaseMigrations.COL_BOOK_ID + " AS "
+                + COL_ID + ", b." + COL_TITLE + ", b." + COL_TITLE_LOWERCASE + ", b." + COL_AUTHOR + ", b."
+                + COL_IS_READ + ", s." + COL_SHELF_NAME + " FROM (SELECT " + DatabaseMigrations.COL_BOOK_ID
+                + " FROM " + DatabaseMigrations.JOURNAL_TABLE + " WHERE " + DatabaseMigrations.COL_SEQ
+                + " > ? AND " + DatabaseMigrations.COL_SEQ + " <= ? GROUP BY " + DatabaseMigrations.COL_BOOK_ID
+                + ") j LEFT JOIN " + TABLE_NAME + " b ON b.ID = j." + DatabaseMigrations.COL_BOOK_ID + " AND b."
+                + COL_DELETED_AT + " IS NULL LEFT JOIN " + SHELF_TABLE_NAME + " s ON s.ID = b." + COL_SHELF_ID
+                + " ORDER BY j." + DatabaseMigrations.COL_BOOK_ID,
+                new String[]{Long.toString(afterSeq), Long.toString(upToSeq)});
+    }
+    //==============================================================================================
+
+    /**
+     * trimJournal:
+     *  Removes the journal entries that have been backed up.
+     * @param upToSeq  Last entry to remove
+     * @return number of entries removed
+     */
+    public int trimJournal(long upToSeq) {
+        return this.getWritableDatabase().delete(DatabaseMigrations.JOURNAL_TABLE,
+                DatabaseMigrations.COL_SEQ + " <= ?", new String[]{Long.toString(upToSeq)});
+    }
+    //==============================================================================================
+
+    /**
+     * restoreLibrary:
+     *  Replaces every book with the ones replayed from a backup, in a single transaction, so a
+     *   backup that cannot be read leaves the library as it was. Books keep the IDs they had in
+     *   the backup. The journal is emptied and continues from journalSeq, so the next backup
+     *   carries on from the restored one instead of journaling the restore itself.
+     * @param replay      Feeds the books of the backup, in order
+     * @param journalSeq  Journal sequence number the backup was taken at
+     * @throws IOException if the backup cannot be read
+     */
+    void restoreLibrary(LibraryBackup.Replay replay, long journalSeq) throws IOException {
+        Log.d(TAG, "restoreLibrary: Restoring the library up to journal entry " + journalSeq);
+        final SQLiteDatabase db = this.getWritableDatabase();
+        final SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE_NAME + " WHERE ID = ?"
+                + " OR (" + COL_TITLE_LOWERCASE + " = ? AND " + COL_AUTHOR + " = ?)");
+        final SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_NAME + " (ID, "
+                + COL_TITLE + ", " + COL_TITLE_LOWERCASE + ", " + COL_AUTHOR + ", " + COL_IS_READ + ", "
+                + COL_SHELF_ID + ") VALUES (?, ?, ?, ?, ?, ?)");
+        final HashMap<String, Long> shelfIDs = new HashMap<>();
+
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_NAME, null, null);
+            replay.run(new LibraryBackup.Library() {
+                @Override
+                public void putBook(int id, String title, String author, boolean readStatus, String shelf) {
+                    String name = shelfNameOrDefault(shelf);
+                    Long shelfID = shelfIDs.get(name);
+                    if (shelfID == null) {
+                        shelfID = shelfIdFor(db, name);
+                        shelfIDs.put(name, shelfID);
+                    }
+                    String titleLower = title.toLowerCase();
+                    // Delete and insert rather than INSERT OR REPLACE, which would skip the delete
+                    //  triggers for a clashing title/author
+                    delete.clearBindings();
+                    delete.bindLong(1, id);
+                    delete.bindString(2, titleLower);
+                    delete.bindString(3, authorOrEmpty(author));
+                    delete.executeUpdateDelete();
+                    insert.clearBindings();
+                    insert.bindLong(1, id);
+                    insert.bindString(2, title);
+                    insert.bindString(3, titleLower);
+                    insert.bindString(4, authorOrEmpty(author));
+                    insert.bindLong(5, readStatus ? 1 : 0);
+                    insert.bindLong(6, shelfID);
+                    insert.executeInsert();
+                }
+
+                @Override
+                public void deleteBook(int id) {
+                    db.delete(TABLE_NAME, "ID = ?", new String[]{Integer.toString(id)});
+                }
+
+                @Override
+                public void addShelf(String name) {
+                    shelfIdFor(db, name);
+                }
+            });
+
+            db.delete(DatabaseMigrations.JOURNAL_TABLE, null, null);
+            ContentValues cv = new ContentValues();
+            cv.put("seq", journalSeq);
+            if (db.update("sqlite_sequence", cv, "name = ?",
+                    new String[]{DatabaseMigrations.JOURNAL_TABLE}) == 0) {
+                cv.put("name", DatabaseMigrations.JOURNAL_TABLE);
+                db.insert("sqlite_sequence", null, cv);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            delete.close();
+            insert.close();
+        }
     }
     //==============================================================================================
 
@@ -166,93 +548,711 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @return ArrayList of stored books
      */
     public ArrayList<BookModel> getStoredBooks() {
+        return getStoredBooks(null);
+    }
+    //==============================================================================================
+
+    /**
+     * getStoredBooks:
+     *   Same as getStoredBooks(), but the query can be cancelled from another thread.
+     * @param signal  Cancels the query when triggered, may be null
+     * @return ArrayList of stored books
+     */
+    public ArrayList<BookModel> getStoredBooks(CancellationSignal signal) {
         ArrayList<BookModel> books = new ArrayList<>();
-        String queryContent = "SELECT * FROM " + TABLE_NAME + " ORDER BY " + COL_TITLE_LOWERCASE;
+        String queryContent = "SELECT " + BOOK_COLUMNS + " FROM " + BOOK_TABLES + " ORDER BY "
+                + BookSortOrder.TITLE.toOrderBy();
         SQLiteDatabase db = this.getReadableDatabase();
 
         // Obtain the data from db
-        Cursor data = db.rawQuery(queryContent, null);
+        Cursor data = db.rawQuery(queryContent, null, signal);
 
         if (data.moveToFirst()) {
             // Create the book using the provided information
             do {
-                // Get the book information here
-                int ID = data.getInt(0);
-                String title = data.getString(1);
-                String titleLower = data.getString(2);
-                String author = data.getString(3);
-                boolean readStatus = data.getInt(4) == 1;
-                String shelfLocation = data.getString(5);
-
-                // Create a new book with that
-                books.add(new BookModel(title, titleLower, author, readStatus, ID, shelfLocation));
+                if (signal != null) { signal.throwIfCanceled();}
+                books.add(readBook(data));
             } while(data.moveToNext());
 
         } else {
             Log.d(TAG, "getStoredBooks: There was nothing to fetch");
         }
         data.close();
-        db.close();
         return books;
     }
     //==============================================================================================
 
+    /**
+     * getBooksPage:
+     *  Loads one page of books in the given sort order, using keyset (seek) pagination: the page
+     *   starts right after the last book of the previous page rather than at an OFFSET, so every
+     *   page costs the same no matter how deep into the list it is. The sort ends in the book ID
+     *   so that no book is skipped or repeated between pages.
+     * @param order  Order to sort the books in
+     * @param after  Last book of the previous page, or null for the first page
+     * @param limit  Maximum number of books to load
+     * @param signal Cancels the query when triggered, may be null
+     * @return ArrayList holding the next page of books
+     */
+    public ArrayList<BookModel> getBooksPage(BookSortOrder order, BookModel after, int limit,
+                                             CancellationSignal signal) {
+        ArrayList<BookModel> books = new ArrayList<>();
+        Cursor data = queryBooksPage(order, after, limit, signal);
+        while (data.moveToNext()) {
+            books.add(readBook(data));
+        }
+        data.close();
+        return books;
+    }
+    //==============================================================================================
+
+    /**
+     * queryBooksPage:
+     *  Same page as getBooksPage(), as a cursor with the columns of queryBooks(). Its rows are
+     *   read into the cursor's window before it is returned, so a page loaded on the executor can
+     *   be bound on the UI thread without building a BookModel per row. A page must fit in one
+     *   window, see BookPager.PAGE_SIZE. The caller owns the cursor and must close it.
+     * @param order  Order to sort the books in
+     * @param after  Last book of the previous page, or null for the first page
+     * @param limit  Maximum number of books to load
+     * @param signal Cancels the query when triggered, may be null
+     * @return Cursor positioned before the first book of the page
+     */
+    public Cursor queryBooksPage(BookSortOrder order, BookModel after, int limit, CancellationSignal signal) {
+        ArrayList<String> args = new ArrayList<>();
+        String query = "SELECT " + BOOK_COLUMNS + " FROM " + tablesFor(order);
+        if (after != null) {
+            query += " WHERE " + keysetCondition(order.getColumns(), order.keyOf(after), args);
+        }
+        query += " ORDER BY " + order.toOrderBy() + " LIMIT ?";
+        args.add(Integer.toString(limit));
+
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor data = db.rawQuery(query, args.toArray(new String[0]), signal);
+        // Counting runs the query and fills the window
+        data.getCount();
+        return data;
+    }
+    //==============================================================================================
+
+    /**
+     * queryBooks:
+     *  Opens a cursor over every book in the given order, for reading the whole list without
+     *   building a BookModel per row (e.g. to write the snapshot). The cursor selects the ID,
+     *   title, lowercase_title, author, is_read and name (of the shelf) columns. The query only
+     *   runs as the cursor is read, a list shown on screen should be paged with queryBooksPage()
+     *   instead, since counting the rows reads them all. The caller owns the cursor and must
+     *   close it.
+     * @param order  Order to sort the books in
+     * @param signal Cancels the query when triggered, may be null
+     * @return Cursor positioned before the first book
+     */
+    public Cursor queryBooks(BookSortOrder order, CancellationSignal signal) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        return db.rawQuery("SELECT " + BOOK_COLUMNS + " FROM " + tablesFor(order)
+                + " ORDER BY " + order.toOrderBy(), null, signal);
+    }
+    //==============================================================================================
+
+    // The shelf order reads the shelf names first, see SHELF_FIRST_TABLES
+    private static String tablesFor(BookSortOrder order) {
+        return order == BookSortOrder.SHELF ? SHELF_FIRST_TABLES : BOOK_TABLES;
+    }
+    //==============================================================================================
+
+    /**
+     * keysetCondition:
+     *  Builds the WHERE clause matching every row that sorts after the given key, i.e.
+     *   (c1 > v1) OR (c1 = v1 AND c2 > v2) OR ... spelled out, since row values are not supported
+     *   by the SQLite versions the app runs on. A range on the first column is added in front so
+     *   the index can seek to the start key. SQLite sorts NULL first, so a NULL value matches
+     *   every non-NULL one after it.
+     * @param columns  Sort columns, most significant first
+     * @param values   Values of the sort columns for the last row of the previous page
+     * @param args     Receives the bind arguments, in order
+     * @return condition to put after WHERE
+     */
+    private static String keysetCondition(String[] columns, String[] values, List<String> args) {
+        StringBuilder sql = new StringBuilder();
+        if (values[0] != null) {
+            sql.append(columns[0]).append(" >= ? AND ");
+            args.add(values[0]);
+        }
+        sql.append("(");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) { sql.append(" OR ");}
+            sql.append("(");
+            for (int j = 0; j < i; j++) {
+                if (values[j] == null) {
+                    sql.append(columns[j]).append(" IS NULL AND ");
+                } else {
+                    sql.append(columns[j]).append(" = ? AND ");
+                    args.add(values[j]);
+                }
+            }
+            if (values[i] == null) {
+                sql.append(columns[i]).append(" IS NOT NULL");
+            } else {
+                sql.append(columns[i]).append(" > ?");
+                args.add(values[i]);
+            }
+            sql.append(")");
+        }
+        return sql.append(")").toString();
+    }
+    //==============================================================================================
+
+    /**
+     * readBook:
+     *  Creates a book from the current row of a cursor that selected BOOK_COLUMNS, or of the
+     *   snapshot, which has the same columns (see BookSnapshot).
+     * @param data  Cursor positioned on a book row
+     * @return BookModel for that row
+     */
+    static BookModel readBook(Cursor data) {
+        // Get the book information here
+        int ID = data.getInt(0);
+        String title = data.getString(1);
+        String titleLower = data.getString(2);
+        String author = data.getString(3);
+        boolean readStatus = data.getInt(4) == 1;
+        String shelfLocation = data.getString(5);
+
+        // Create a new book with that
+        return new BookModel(title, titleLower, author, readStatus, ID, shelfLocation);
+    }
+    //==============================================================================================
+
+    /**
+     * setReadStatus:
+     *  Marks the given books as read or not read in one transaction, with one UPDATE ... WHERE
+     *   ID IN (...) per batch of MAX_BATCH_IDS books so no statement passes SQLite's limit of 999
+     *   bound values. Each batch first reads which of its books will change.
+     * @param ids         IDs of the books to change
+     * @param readStatus  New read status
+     * @return ArrayList of the IDs of the books that changed
+     */
+    public ArrayList<Integer> setReadStatus(Collection<Integer> ids, boolean readStatus) {
+        ArrayList<Integer> changed = new ArrayList<>();
+        if (ids.isEmpty()) { return changed;}
+
+        ArrayList<String> batch = new ArrayList<>(Math.min(ids.size(), MAX_BATCH_IDS) + 1);
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Integer id : ids) {
+                batch.add(Integer.toString(id));
+                if (batch.size() == MAX_BATCH_IDS) {
+                    setReadStatusOfBatch(db, batch, readStatus, changed);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) { setReadStatusOfBatch(db, batch, readStatus, changed);}
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(TAG, "setReadStatus: Updated " + changed.size() + " books");
+        return changed;
+    }
+
+    // Updates one batch of IDs, adding those that changed to changed
+    private void setReadStatusOfBatch(SQLiteDatabase db, ArrayList<String> batch, boolean readStatus,
+                                      ArrayList<Integer> changed) {
+        StringBuilder where = new StringBuilder("ID IN (");
+        for (int i = 0; i < batch.size(); i++) {
+            where.append(i == 0 ? "?" : ", ?");
+        }
+        where.append(") AND ").append(COL_IS_READ).append(" <> ").append(readStatus ? 1 : 0)
+                .append(" AND ").append(COL_DELETED_AT).append(" IS NULL");
+        String[] args = batch.toArray(new String[0]);
+
+        // The changed IDs are read first, afterwards they no longer match
+        Cursor data = db.rawQuery("SELECT ID FROM " + TABLE_NAME + " WHERE " + where, args);
+        while (data.moveToNext()) {
+            changed.add(data.getInt(0));
+        }
+        data.close();
+
+        ContentValues cv = new ContentValues();
+        cv.put(COL_IS_READ, readStatus ? 1 : 0);
+        db.update(TABLE_NAME, cv, where.toString(), args);
+    }
+    //==============================================================================================
+
     /**
      * generateStatsReport:
-     *  Obtains the statistics of stored books.
+     *  Obtains the statistics of stored books from the summary tables, which are kept up to date
+     *   by triggers. The cost depends only on the number of shelves, not on the number of books.
      * @return FragAppStats.BookListInformation holding the stats
      */
     public FragAppStats.BookListInformation generateStatsReport() {
-
-        String queryContent = "SELECT * FROM " + TABLE_NAME + " ORDER BY " + COL_TITLE_LOWERCASE;
         SQLiteDatabase db = this.getReadableDatabase();
 
         // general counters
         int bookCount = 0;
         int readCount = 0;
-        int notReadCount = 0;
+        Cursor totals = db.rawQuery("SELECT " + DatabaseMigrations.COL_BOOK_COUNT + ", "
+                + DatabaseMigrations.COL_READ_COUNT + " FROM " + DatabaseMigrations.STATS_TOTALS_TABLE, null);
+        if (totals.moveToFirst()) {
+            bookCount = totals.getInt(0);
+            readCount = totals.getInt(1);
+        }
+        totals.close();
 
-        // Obtain the data from db
-        Cursor data = db.rawQuery(queryContent, null);
+        // counters for each shelf
+        ArrayList<FragAppStats.ShelfInformation> shelves = new ArrayList<>();
+        Cursor perShelf = db.rawQuery("SELECT s." + COL_SHELF_NAME + ", st."
+                + DatabaseMigrations.COL_BOOK_COUNT + ", st." + DatabaseMigrations.COL_READ_COUNT + " FROM "
+                + DatabaseMigrations.STATS_SHELVES_TABLE + " st JOIN " + SHELF_TABLE_NAME + " s ON s.ID = st."
+                + COL_SHELF_ID + " ORDER BY s." + COL_SHELF_NAME, null);
+        while (perShelf.moveToNext()) {
+            shelves.add(new FragAppStats.ShelfInformation(perShelf.getString(0),
+                    perShelf.getInt(1), perShelf.getInt(2)));
+        }
+        perShelf.close();
 
-        if (data.moveToFirst()) {
-            // Create the book using the provided information
-            do {
-                // Get the book information here
-                if(data.getInt(4) == 1) {
-                    readCount++;
-                } else {notReadCount++; }
+        return new FragAppStats.BookListInformation(bookCount,
+                bookCount - readCount, readCount, shelves);
+    }
+    //==============================================================================================
 
-                bookCount++;
-            } while(data.moveToNext());
+    /**
+     * rebuildStatsSummary:
+     *  Recounts the whole book table and replaces the contents of the summary tables with the
+     *   result. Only needed if isStatsSummaryConsistent() reports a mismatch.
+     */
+    public void rebuildStatsSummary() {
+        Log.d(TAG, "rebuildStatsSummary: Recounting the stats summary");
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM " + DatabaseMigrations.STATS_TOTALS_TABLE);
+            db.execSQL("DELETE FROM " + DatabaseMigrations.STATS_SHELVES_TABLE);
+            db.execSQL("INSERT INTO " + DatabaseMigrations.STATS_TOTALS_TABLE + " " + RECOUNT_TOTALS_SQL);
+            db.execSQL("INSERT INTO " + DatabaseMigrations.STATS_SHELVES_TABLE + " " + RECOUNT_SHELVES_SQL);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+    //==============================================================================================
 
-        } else {
-            Log.d(TAG, "getStoredBooks: There was nothing to fetch");
+    /**
+     * isStatsSummaryConsistent:
+     *  Compares the summary tables against a full recount of the book table.
+     * @return boolean  True if every count matches, else false
+     */
+    public boolean isStatsSummaryConsistent() {
+        SQLiteDatabase db = this.getReadableDatabase();
+        String totals = "SELECT ID, " + DatabaseMigrations.COL_BOOK_COUNT + ", "
+                + DatabaseMigrations.COL_READ_COUNT + " FROM " + DatabaseMigrations.STATS_TOTALS_TABLE;
+        String shelves = "SELECT " + COL_SHELF_ID + ", " + DatabaseMigrations.COL_BOOK_COUNT
+                + ", " + DatabaseMigrations.COL_READ_COUNT + " FROM " + DatabaseMigrations.STATS_SHELVES_TABLE;
+
+        // Any row found in only one side of a comparison is a mismatch
+        String[] checks = {
+                totals + " EXCEPT " + RECOUNT_TOTALS_SQL,
+                RECOUNT_TOTALS_SQL + " EXCEPT " + totals,
+                shelves + " EXCEPT " + RECOUNT_SHELVES_SQL,
+                RECOUNT_SHELVES_SQL + " EXCEPT " + shelves,
+        };
+        for (String check : checks) {
+            Cursor mismatch = db.rawQuery(check + " LIMIT 1", null);
+            boolean found = mismatch.moveToFirst();
+            mismatch.close();
+            if (found) {
+                Log.e(TAG, "isStatsSummaryConsistent: Stats summary does not match the book table");
+                return false;
+            }
         }
-        data.close();
-        db.close();
-        return new FragAppStats.BookListInformation(bookCount,
-                notReadCount, readCount);
+        return true;
+    }
+    //==============================================================================================
+
+    /**
+     * getDatabaseFile:
+     *  Returns the file the database is stored in. Its write-ahead log is the same path with
+     *   "-wal" appended.
+     * @return File of the database
+     */
+    File getDatabaseFile() {
+        return mContext.getDatabasePath(getDatabaseName());
+    }
+    //==============================================================================================
+
+    /**
+     * updatePlannerStats:
+     *  Refreshes the statistics the query planner chooses indexes with (ANALYZE).
+     */
+    void updatePlannerStats() {
+        this.getWritableDatabase().execSQL("ANALYZE");
+    }
+    //==============================================================================================
+
+    /**
+     * reclaimFreePages:
+     *  Gives the pages left empty by deleted books back to the file system. New databases are
+     *   created with incremental vacuum turned on (see onConfigure()); one created before that is
+     *   switched over with a single full VACUUM, after which only the free pages are released.
+     * @return number of pages released
+     */
+    int reclaimFreePages() {
+        SQLiteDatabase db = this.getWritableDatabase();
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            int free = (int) DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            Log.d(TAG, "reclaimFreePages: Switching to incremental vacuum, " + free + " free pages");
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            return free;
+        }
+        // The pragma returns no rows, the pages it released are read from the free list
+        long free = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        Cursor vacuum = db.rawQuery("PRAGMA incremental_vacuum", null);
+        try {
+            // Stepping the cursor runs the pragma
+            vacuum.getCount();
+        } finally {
+            vacuum.close();
+        }
+        return (int) (free - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null));
+    }
+    //==============================================================================================
+
+    /**
+     * checkpointWal:
+     *  Copies every change in the write-ahead log into the database file and truncates the log.
+     * @return number of pages that were in the log, or -1 if a reader kept the checkpoint from
+     *          finishing
+     */
+    int checkpointWal() {
+        Cursor result = this.getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null);
+        try {
+            if (!result.moveToFirst()) {
+                return 0;
+            }
+            // Columns: busy, pages in the log, pages copied into the database
+            return result.getInt(0) != 0 ? -1 : result.getInt(1);
+        } finally {
+            result.close();
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * writeBooks:
+     *  Saves a batch of queued edits and new books in a single transaction, so the whole batch
+     *   costs one commit however many books it touches, see BookWriteQueue. Edits are applied
+     *   first, in order. An edit that would make a book a duplicate of another is left out
+     *   rather than failing the batch.
+     * @param updates  Books with edited information
+     * @param adds     Books to add, see addBooks()
+     * @return BatchWriteResult holding the outcome of the adds, the edits that were left out and
+     *          the values the edited books had before
+     */
+    public BatchWriteResult writeBooks(Collection<BookModel> updates, Collection<BookModel> adds) {
+        Log.d(TAG, "writeBooks: Saving " + updates.size() + " edits and " + adds.size() + " new books");
+        BatchWriteResult result = new BatchWriteResult();
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_NAME + " SET " + COL_TITLE
+                + " = ?, " + COL_TITLE_LOWERCASE + " = ?, " + COL_AUTHOR + " = ?, " + COL_IS_READ
+                + " = ?, " + COL_SHELF_ID + " = ? WHERE ID = ?");
+        HashMap<String, Long> shelfIDs = new HashMap<>();
+
+        db.beginTransaction();
+        try {
+            for (BookModel book : updates) {
+                String shelf = shelfNameOrDefault(book.getShelfLocation());
+                Long shelfID = shelfIDs.get(shelf);
+                if (shelfID == null) {
+                    shelfID = shelfIdFor(db, shelf);
+                    shelfIDs.put(shelf, shelfID);
+                }
+                // Kept so the change can be published with what it replaced
+                Cursor previous = db.rawQuery("SELECT " + BOOK_COLUMNS + " FROM " + BOOK_TABLES
+                        + " WHERE b.ID = ?", new String[]{Integer.toString(book.getID())});
+                try {
+                    if (previous.moveToFirst()) { result.previous.put(book.getID(), readBook(previous));}
+                } finally {
+                    previous.close();
+                }
+                update.clearBindings();
+                update.bindString(1, book.getTitle());
+                update.bindString(2, book.getTitleLowerCase() != null ?
+                        book.getTitleLowerCase() : book.getTitle().toLowerCase());
+                update.bindString(3, authorOrEmpty(book.getAuthor()));
+                update.bindLong(4, book.getReadStatus() ? 1 : 0);
+                update.bindLong(5, shelfID);
+                update.bindLong(6, book.getID());
+                // Only this statement is undone, the rest of the batch still commits
+                try {
+                    update.executeUpdateDelete();
+                } catch (SQLiteConstraintException e) {
+                    Log.e(TAG, "writeBooks: Edit would duplicate another book: " + book.getTitle());
+                    result.rejectedUpdates.add(book);
+                }
+            }
+            result.added = addBooks(adds);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            update.close();
+        }
+        return result;
+    }
+    //==============================================================================================
+
+    /**
+     * getShelfNames:
+     *  Returns the name of every shelf in the order they were created, "Default" always first.
+     * @return list of shelf names
+     */
+    public ArrayList<String> getShelfNames() {
+        SQLiteDatabase db = this.getReadableDatabase();
+        ArrayList<String> names = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT " + COL_SHELF_NAME + " FROM " + SHELF_TABLE_NAME
+                + " ORDER BY ID", null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+    //==============================================================================================
+
+    /**
+     * addShelf:
+     *  Adds a new, empty shelf.
+     * @param name      name of the shelf
+     * @return true if the shelf was added, false if a shelf with that name already exists
+     */
+    public boolean addShelf(String name) {
+        ContentValues cv = new ContentValues();
+        cv.put(COL_SHELF_NAME, name);
+        return this.getWritableDatabase().insertWithOnConflict(SHELF_TABLE_NAME, null, cv,
+                SQLiteDatabase.CONFLICT_IGNORE) != -1;
+    }
+    //==============================================================================================
+
+    /**
+     * renameShelf:
+     *  Renames a shelf. Every book on it follows through the foreign key, so this is a single row
+     *   update however many books are on the shelf. Renaming onto a name that is already taken
+     *   merges the two shelves.
+     * @param oldName   current name of the shelf
+     * @param newName   name to give the shelf
+     * @return true if the shelf existed and was renamed or merged
+     */
+    public boolean renameShelf(String oldName, String newName) {
+        if (DEFAULT_SHELF.equals(oldName) || oldName.equals(newName)) { return false;}
+
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (findShelfId(db, newName) != null) {
+                boolean merged = mergeShelves(db, oldName, newName);
+                db.setTransactionSuccessful();
+                return merged;
+            }
+            ContentValues cv = new ContentValues();
+            cv.put(COL_SHELF_NAME, newName);
+            boolean renamed = db.update(SHELF_TABLE_NAME, cv, COL_SHELF_NAME + " = ?",
+                    new String[]{oldName}) > 0;
+            db.setTransactionSuccessful();
+            return renamed;
+        } finally {
+            db.endTransaction();
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * deleteShelf:
+     *  Deletes a shelf, moving the books that were on it to the "Default" shelf.
+     * @param name      name of the shelf to delete
+     * @return true if the shelf existed and was deleted
+     */
+    public boolean deleteShelf(String name) {
+        if (DEFAULT_SHELF.equals(name)) { return false;}
+
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            boolean deleted = mergeShelves(db, name, DEFAULT_SHELF);
+            db.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * setShelfReadStatus:
+     *  Marks every book on a shelf as read or not read with a single UPDATE.
+     * @param shelfName   name of the shelf
+     * @param readStatus  new read status
+     * @return number of books that changed
+     */
+    public int setShelfReadStatus(String shelfName, boolean readStatus) {
+        String status = readStatus ? "1" : "0";
+        ContentValues cv = new ContentValues();
+        cv.put(COL_IS_READ, readStatus ? 1 : 0);
+        return this.getWritableDatabase().update(TABLE_NAME, cv, SHELF_MATCHES_NAME + " AND "
+                + COL_IS_READ + " <> ? AND " + COL_DELETED_AT + " IS NULL", new String[]{shelfName, status});
     }
     //==============================================================================================
 
     /**
-     * updateCol:
-     *  Updates the columns for a book that was edited.
-     * @param book   Book with edited information.
+     * moveShelfBooks:
+     *  Moves every book on one shelf to another with a single UPDATE. Unlike renameShelf() the
+     *   emptied shelf is kept.
+     * @param fromName  shelf to take the books from
+     * @param intoName  shelf to put the books on, created if it does not exist
+     * @return number of books moved
      */
-    public void updateCol(BookModel book) {
+    public int moveShelfBooks(String fromName, String intoName) {
+        if (fromName.equals(intoName)) { return 0;}
+
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            Long fromID = findShelfId(db, fromName);
+            int moved = fromID == null ? 0 : moveBooks(db, fromID, shelfIdFor(db, intoName));
+            db.setTransactionSuccessful();
+            return moved;
+        } finally {
+            db.endTransaction();
+        }
+    }
+    //==============================================================================================
 
-        int id = book.getID();  // Get ID from the class directly
-        SQLiteDatabase db= this.getWritableDatabase();
+    /**
+     * deleteShelfBooks:
+     *  Soft deletes every book on a shelf with a single UPDATE, like softDeleteBook() does for one
+     *   book. The rows are removed later by purgeDeletedBooks(). The shelf itself is kept.
+     * @param shelfName  name of the shelf
+     * @return number of books deleted, books that were already deleted are not counted
+     */
+    public int deleteShelfBooks(String shelfName) {
         ContentValues cv = new ContentValues();
-        cv.put(COL_TITLE, book.getTitle());
-        cv.put(COL_AUTHOR, book.getAuthor());
-        cv.put(COL_TITLE_LOWERCASE, book.getTitleLowerCase());
-        cv.put(COL_IS_READ, book.getReadStatus());
-        cv.put(COL_SHELF_LOCATION, book.getShelfLocation());
-
-        db.update(TABLE_NAME, cv, "ID = ?", new String[]{Integer.toString(id)});
-        db.close();
+        cv.put(COL_DELETED_AT, System.currentTimeMillis());
+        return this.getWritableDatabase().update(TABLE_NAME, cv, SHELF_MATCHES_NAME + " AND "
+                + COL_DELETED_AT + " IS NULL", new String[]{shelfName});
+    }
+    //==============================================================================================
+
+    /**
+     * mergeShelves:
+     *  Moves every book from one shelf onto another with a single update and then removes the
+     *   emptied shelf. Must be called inside a transaction.
+     * @param db        writable database
+     * @param fromName  shelf that is emptied and removed
+     * @param intoName  shelf that receives the books, created if it does not exist
+     * @return true if the source shelf existed
+     */
+    private static boolean mergeShelves(SQLiteDatabase db, String fromName, String intoName) {
+        Long fromID = findShelfId(db, fromName);
+        if (fromID == null) { return false;}
+
+        moveBooks(db, fromID, shelfIdFor(db, intoName));
+        db.delete(SHELF_TABLE_NAME, "ID = ?", new String[]{Long.toString(fromID)});
+        return true;
+    }
+    //==============================================================================================
+
+    private static int moveBooks(SQLiteDatabase db, long fromID, long intoID) {
+        ContentValues cv = new ContentValues();
+        cv.put(COL_SHELF_ID, intoID);
+        return db.update(TABLE_NAME, cv, COL_SHELF_ID + " = ?", new String[]{Long.toString(fromID)});
+    }
+    //==============================================================================================
+
+    /**
+     * findShelfId:
+     *  Looks up the ID of a shelf by name.
+     * @param db        database to read from
+     * @param name      name of the shelf
+     * @return the shelf ID, or null if there is no shelf with that name
+     */
+    private static Long findShelfId(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("SELECT ID FROM " + SHELF_TABLE_NAME + " WHERE " + COL_SHELF_NAME
+                + " = ?", new String[]{name});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * shelfIdFor:
+     *  Returns the ID of a shelf, creating the shelf first if it does not exist yet.
+     * @param db        writable database
+     * @param name      name of the shelf
+     * @return the shelf ID
+     */
+    private static long shelfIdFor(SQLiteDatabase db, String name) {
+        ContentValues cv = new ContentValues();
+        cv.put(COL_SHELF_NAME, name);
+        db.insertWithOnConflict(SHELF_TABLE_NAME, null, cv, SQLiteDatabase.CONFLICT_IGNORE);
+        return DatabaseUtils.longForQuery(db, "SELECT ID FROM " + SHELF_TABLE_NAME + " WHERE "
+                + COL_SHELF_NAME + " = ?", new String[]{name});
+    }
+    //==============================================================================================
+
+    /**
+     * shelfNameOrDefault:
+     *  Books without a shelf are kept on the "Default" shelf.
+     * @param name      shelf name of a book, may be null or empty
+     * @return the shelf name to store
+     */
+    private static String shelfNameOrDefault(String name) {
+        return name == null || name.length() == 0 ? DEFAULT_SHELF : name;
+    }
+    //==============================================================================================
+
+    /**
+     * authorOrEmpty:
+     *  Books without an author are stored with an empty one. NULLs never equal each other in the
+     *   unique title/author index, so a NULL author would let the same book be added twice.
+     * @param author    author of a book, may be null
+     * @return the author to store
+     */
+    static String authorOrEmpty(String author) {
+        return author == null ? "" : author;
+    }
+    //==============================================================================================
+
+    /**
+     * BulkInsertResult
+     *  Static class that holds the outcome of addBooks(). Inserted books carry their new database
+     *   ID, skipped books are the ones that were already stored.
+     */
+    public static class BulkInsertResult {
+        private final List<BookModel> inserted = new ArrayList<>();
+        private final List<BookModel> skipped = new ArrayList<>();
+
+        public List<BookModel> getInserted() {return inserted;}
+        public List<BookModel> getSkipped() {return skipped;}
+    }
+
+    /**
+     * BatchWriteResult
+     *  Static class that holds the outcome of writeBooks().
+     */
+    public static class BatchWriteResult {
+        private BulkInsertResult added;
+        private final List<BookModel> rejectedUpdates = new ArrayList<>();
+        private final HashMap<Integer, BookModel> previous = new HashMap<>();
+
+        public BulkInsertResult getAdded() {return added;}
+        public List<BookModel> getRejectedUpdates() {return rejectedUpdates;}
+        // Values of an edited book before the edit, null if it is not stored (or soft deleted)
+        public BookModel getPrevious(int id) {return previous.get(id);}
     }
 }
@@ -0,0 +1,219 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteException;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * DatabaseMaintenance
+ *  Housekeeping that keeps the database fast and small as books are added and removed:
+ *   refreshes the planner statistics, gives the pages freed by deletes back to the file system,
+ *   checks the stats summary, and checkpoints the write-ahead log. The file sizes and the time
+ *   taken by the main list and stats queries are logged before and after, so the effect of each
+ *   run can be seen.
+ *
+ *  Runs at most once a day while the device is idle and charging: from API 21 as a JobScheduler
+ *   job (MaintenanceJobService), below that when the app is closed while charging.
+ */
+public class DatabaseMaintenance {
+
+    private static final String TAG = "DatabaseMaintenance";
+
+    static final long INTERVAL_MS = 24 * 60 * 60 * 1000L;
+    // Saved in MainActivity.SHARED_PREFERENCES, only used below API 21
+    static final String LAST_RUN = "last_maintenance";
+
+    private final DatabaseHelper mDatabaseHelper;
+
+    /*-----------------------------------------------------------------------------------
+     * Report:
+     *  What a maintenance run did. Sizes are in bytes, timings in milliseconds, one per sort
+     *   order (in BookSortOrder order) followed by the stats report.
+     */
+    public static class Report {
+        long databaseBytesBefore;
+        long databaseBytesAfter;
+        long walBytesBefore;
+        long walBytesAfter;
+        int pagesFreed;
+        double[] queryMsBefore;
+        double[] queryMsAfter;
+
+        public long getDatabaseBytesBefore() { return databaseBytesBefore;}
+        public long getDatabaseBytesAfter() { return databaseBytesAfter;}
+        public long getWalBytesBefore() { return walBytesBefore;}
+        public long getWalBytesAfter() { return walBytesAfter;}
+        public int getPagesFreed() { return pagesFreed;}
+        public double[] getQueryMsBefore() { return queryMsBefore;}
+        public double[] getQueryMsAfter() { return queryMsAfter;}
+    }
+
+    //==============================================================================================
+    public DatabaseMaintenance(DatabaseHelper databaseHelper) {
+        this.mDatabaseHelper = databaseHelper;
+    }
+    //==============================================================================================
+
+    /**
+     * schedule:
+     *  Makes sure maintenance will run. From API 21 the job is handed to JobScheduler, which
+     *   keeps it across reboots; below that runIfDue() is called when the app is closed.
+     * @param context  Context of calling class
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            MaintenanceJobService.schedule(context);
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * runIfDue:
+     *  Fallback for devices without JobScheduler: runs maintenance in the background if the
+     *   device is plugged in and the last run was more than INTERVAL_MS ago.
+     * @param context  Context of calling class
+     */
+    public static void runIfDue(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) { return;}
+
+        final SharedPreferences preferences = context.getSharedPreferences(MainActivity.SHARED_PREFERENCES,
+                Context.MODE_PRIVATE);
+        final long now = System.currentTimeMillis();
+        if (now - preferences.getLong(LAST_RUN, 0) < INTERVAL_MS || !isCharging(context)) { return;}
+
+        preferences.edit().putLong(LAST_RUN, now).apply();
+        final DatabaseMaintenance maintenance = new DatabaseMaintenance(DatabaseHelper.getInstance(context));
+        DatabaseExecutor.getInstance().submitWrite(maintenance::run, null);
+    }
+    //==============================================================================================
+
+    /**
+     * isCharging:
+     *  Reads the last battery broadcast, which is sticky, so no receiver is left registered.
+     * @param context  Context of calling class
+     * @return boolean  True if the device is plugged in
+     */
+    private static boolean isCharging(Context context) {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+    //==============================================================================================
+
+    /**
+     * run:
+     *  Runs every maintenance step in turn. A step that fails is logged and the others still run;
+     *   cancelling stops between steps.
+     * @param signal  Stops the run between steps when triggered, may be null
+     * @return Report of the run
+     */
+    public Report run(CancellationSignal signal) {
+        File database = mDatabaseHelper.getDatabaseFile();
+        File wal = new File(database.getPath() + "-wal");
+        Report report = new Report();
+        report.databaseBytesBefore = database.length();
+        report.walBytesBefore = wal.length();
+        report.queryMsBefore = timeQueries();
+
+        try {
+            throwIfCanceled(signal);
+            mDatabaseHelper.updatePlannerStats();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "run: Updating planner statistics failed", e);
+        }
+        try {
+            throwIfCanceled(signal);
+            report.pagesFreed = mDatabaseHelper.reclaimFreePages();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "run: Reclaiming free pages failed", e);
+        }
+        try {
+            throwIfCanceled(signal);
+            if (!mDatabaseHelper.isStatsSummaryConsistent()) {
+                mDatabaseHelper.rebuildStatsSummary();
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "run: Checking the stats summary failed", e);
+        }
+        try {
+            throwIfCanceled(signal);
+            if (mDatabaseHelper.checkpointWal() < 0) {
+                Log.d(TAG, "run: Checkpoint could not finish, a reader was active");
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "run: Checkpointing the write-ahead log failed", e);
+        }
+
+        report.databaseBytesAfter = database.length();
+        report.walBytesAfter = wal.length();
+        report.queryMsAfter = timeQueries();
+        log(report);
+        return report;
+    }
+    //==============================================================================================
+
+    private static void throwIfCanceled(CancellationSignal signal) {
+        if (signal != null) { signal.throwIfCanceled();}
+    }
+    //==============================================================================================
+
+    /**
+     * timeQueries:
+     *  Times the queries the app runs most: the first page of the book list in every order, as
+     *   BookPager loads it, and the stats report. Only a page and the summary tables are read, so
+     *   timing stays cheap however large the library is. Searches run in memory (see
+     *   BookSearchIndex) and do not depend on the database.
+     * @return double[] of milliseconds, see Report
+     */
+    private double[] timeQueries() {
+        BookSortOrder[] orders = BookSortOrder.values();
+        double[] timings = new double[orders.length + 1];
+        for (int i = 0; i < orders.length; i++) {
+            long start = System.nanoTime();
+            mDatabaseHelper.getBooksPage(orders[i], null, BookPager.PAGE_SIZE, null);
+            timings[i] = (System.nanoTime() - start) / 1e6;
+        }
+        long start = System.nanoTime();
+        mDatabaseHelper.generateStatsReport();
+        timings[orders.length] = (System.nanoTime() - start) / 1e6;
+        return timings;
+    }
+    //==============================================================================================
+
+    private static void log(Report report) {
+        Log.d(TAG, String.format(Locale.US, "run: Database %d -> %d bytes, log %d -> %d bytes, %d pages freed",
+                report.databaseBytesBefore, report.databaseBytesAfter, report.walBytesBefore,
+                report.walBytesAfter, report.pagesFreed));
+        BookSortOrder[] orders = BookSortOrder.values();
+        for (int i = 0; i < report.queryMsBefore.length; i++) {
+            String name = i < orders.length ? orders[i].name() : "stats";
+            Log.d(TAG, String.format(Locale.US, "run: %s query %.2f -> %.2f ms", name,
+                    report.queryMsBefore[i], report.queryMsAfter[i]));
+        }
+    }
+    //==============================================================================================
+}
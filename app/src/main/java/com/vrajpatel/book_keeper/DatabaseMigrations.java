@@ -0,0 +1,435 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import static com.vrajpatel.book_keeper.DatabaseHelper.COL_AUTHOR;
+import static com.vrajpatel.book_keeper.DatabaseHelper.COL_DELETED_AT;
+import static com.vrajpatel.book_keeper.DatabaseHelper.COL_IS_READ;
+import static com.vrajpatel.book_keeper.DatabaseHelper.COL_SHELF_ID;
+import static com.vrajpatel.book_keeper.DatabaseHelper.COL_SHELF_LOCATION;
+import static com.vrajpatel.book_keeper.DatabaseHelper.COL_SHELF_NAME;
+import static com.vrajpatel.book_keeper.DatabaseHelper.COL_TITLE;
+import static com.vrajpatel.book_keeper.DatabaseHelper.COL_TITLE_LOWERCASE;
+import static com.vrajpatel.book_keeper.DatabaseHelper.SHELF_TABLE_NAME;
+import static com.vrajpatel.book_keeper.DatabaseHelper.TABLE_NAME;
+
+/**
+ * DatabaseMigrations
+ *  Ordered list of the schema changes made to the book database. Step N moves a database from
+ *   version N to version N + 1, and the helper's version is always the number of steps plus one.
+ *   To change the schema, append a step to STEPS; never edit a step that has already shipped.
+ */
+final class DatabaseMigrations {
+
+    private static final String TAG = "DatabaseMigrations";
+
+    // Index names
+    static final String INDEX_TITLE_AUTHOR = "index_book_title_author";
+    static final String INDEX_AUTHOR = "index_book_author";
+    static final String INDEX_SHELF_LOCATION = "index_book_shelf_location";
+    static final String INDEX_IS_READ = "index_book_is_read";
+    static final String INDEX_SHELF_ID = "index_book_shelf_id";
+    static final String INDEX_TITLE_ORDER = "index_book_title_order";
+    static final String INDEX_AUTHOR_ORDER = "index_book_author_order";
+    static final String INDEX_SHELF_ORDER = "index_book_shelf_order";
+    static final String INDEX_DELETED_AT = "index_book_deleted_at";
+
+    // Full-text index over titles and authors, kept in sync with the book table by triggers
+    //  from version 5 until step 13 -> 14 dropped it
+    static final String FTS_TABLE_NAME = "book_fts";
+
+    // Summary tables kept exact by triggers so the stats page never counts the book table
+    static final String STATS_TOTALS_TABLE = "book_stats_totals";
+    static final String STATS_SHELVES_TABLE = "book_stats_shelves";
+    static final String COL_BOOK_COUNT = "book_count";
+    static final String COL_READ_COUNT = "read_count";
+
+    // Position of each unfinished library import, see BookImporter
+    static final String IMPORT_PROGRESS_TABLE = "import_progress";
+    static final String COL_IMPORT_SOURCE = "source";
+    static final String COL_ROWS_READ = "rows_read";
+    static final String COL_INSERTED_COUNT = "inserted_count";
+    static final String COL_SKIPPED_COUNT = "skipped_count";
+    static final String COL_REJECTED_COUNT = "rejected_count";
+    static final String COL_IMPORT_UPDATED_AT = "updated_at";
+
+    // Append-only journal of changed books, read by LibraryBackup
+    static final String JOURNAL_TABLE = "book_journal";
+    static final String COL_SEQ = "seq";
+    static final String COL_BOOK_ID = "book_id";
+    static final String COL_OP = "op";
+    static final String OP_INSERT = "I";
+    static final String OP_UPDATE = "U";
+    static final String OP_DELETE = "D";
+
+    /*-----------------------------------------------------------------------------------
+     * Migration: (interface)
+     *  A single schema step. Runs inside the transaction opened by SQLiteOpenHelper.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    private static final Migration[] STEPS = {
+            // 1 -> 2: books can be placed on a shelf
+            db -> db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COL_SHELF_LOCATION
+                    + " TEXT DEFAULT 'Default'"),
+
+            // 2 -> 3: duplicates are rejected by a unique index, older versions only checked in
+            //  code so drop any duplicate that slipped in before creating it
+            db -> {
+                db.execSQL("DELETE FROM " + TABLE_NAME + " WHERE ID NOT IN (SELECT MIN(ID) FROM "
+                        + TABLE_NAME + " GROUP BY " + COL_TITLE_LOWERCASE + ", " + COL_AUTHOR + ")");
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_TITLE_AUTHOR + " ON "
+                        + TABLE_NAME + " (" + COL_TITLE_LOWERCASE + ", " + COL_AUTHOR + ")");
+            },
+
+            // 3 -> 4: indexes for the lookups and sorts. Lookups and ordering on lowercase_title
+            //  are already served by the leading column of the unique title/author index.
+            db -> {
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_AUTHOR + " ON " + TABLE_NAME
+                        + " (" + COL_AUTHOR + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SHELF_LOCATION + " ON " + TABLE_NAME
+                        + " (" + COL_SHELF_LOCATION + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_IS_READ + " ON " + TABLE_NAME
+                        + " (" + COL_IS_READ + ")");
+            },
+
+            // 4 -> 5: external content FTS4 table for title/author search. The triggers follow the
+            //  pattern in the FTS4 documentation: remove the old tokens before a row changes and
+            //  index the new ones afterwards. Changing only the read status or shelf does not
+            //  touch the index.
+            db -> {
+                db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(content=\""
+                        + TABLE_NAME + "\", " + COL_TITLE + ", " + COL_AUTHOR + ")");
+                db.execSQL("CREATE TRIGGER book_fts_after_insert AFTER INSERT ON " + TABLE_NAME
+                        + " BEGIN INSERT INTO " + FTS_TABLE_NAME + " (docid, " + COL_TITLE + ", "
+                        + COL_AUTHOR + ") VALUES (new.ID, new." + COL_TITLE + ", new." + COL_AUTHOR
+                        + "); END");
+                db.execSQL("CREATE TRIGGER book_fts_before_update BEFORE UPDATE OF " + COL_TITLE
+                        + ", " + COL_AUTHOR + " ON " + TABLE_NAME + " BEGIN DELETE FROM "
+                        + FTS_TABLE_NAME + " WHERE docid = old.ID; END");
+                db.execSQL("CREATE TRIGGER book_fts_after_update AFTER UPDATE OF " + COL_TITLE
+                        + ", " + COL_AUTHOR + " ON " + TABLE_NAME + " BEGIN INSERT INTO "
+                        + FTS_TABLE_NAME + " (docid, " + COL_TITLE + ", " + COL_AUTHOR
+                        + ") VALUES (new.ID, new." + COL_TITLE + ", new." + COL_AUTHOR + "); END");
+                db.execSQL("CREATE TRIGGER book_fts_before_delete BEFORE DELETE ON " + TABLE_NAME
+                        + " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old.ID; END");
+                // Index the books that are already stored
+                db.execSQL("INSERT INTO " + FTS_TABLE_NAME + " (" + FTS_TABLE_NAME
+                        + ") VALUES ('rebuild')");
+            },
+
+            // 5 -> 6: summary counts for the stats page. A single totals row plus one row per
+            //  shelf, adjusted by triggers on every insert, delete and read/shelf change. Shelf
+            //  rows are removed once they no longer hold any books.
+            db -> {
+                db.execSQL("CREATE TABLE " + STATS_TOTALS_TABLE + " (ID INTEGER PRIMARY KEY CHECK (ID = 0), "
+                        + COL_BOOK_COUNT + " INTEGER NOT NULL, " + COL_READ_COUNT + " INTEGER NOT NULL)");
+                db.execSQL("CREATE TABLE " + STATS_SHELVES_TABLE + " (" + COL_SHELF_LOCATION
+                        + " TEXT PRIMARY KEY NOT NULL, " + COL_BOOK_COUNT + " INTEGER NOT NULL, "
+                        + COL_READ_COUNT + " INTEGER NOT NULL)");
+                db.execSQL("INSERT INTO " + STATS_TOTALS_TABLE + " SELECT 0, COUNT(*), COALESCE(SUM("
+                        + COL_IS_READ + " = 1), 0) FROM " + TABLE_NAME);
+                db.execSQL("INSERT INTO " + STATS_SHELVES_TABLE + " SELECT COALESCE(" + COL_SHELF_LOCATION
+                        + ", ''), COUNT(*), SUM(" + COL_IS_READ + " = 1) FROM " + TABLE_NAME
+                        + " GROUP BY 1");
+
+                String addNew = "UPDATE " + STATS_TOTALS_TABLE + " SET " + COL_BOOK_COUNT + " = "
+                        + COL_BOOK_COUNT + " + 1, " + COL_READ_COUNT + " = " + COL_READ_COUNT + " + (new."
+                        + COL_IS_READ + " = 1) WHERE ID = 0; INSERT OR IGNORE INTO " + STATS_SHELVES_TABLE
+                        + " VALUES (COALESCE(new." + COL_SHELF_LOCATION + ", ''), 0, 0); UPDATE "
+                        + STATS_SHELVES_TABLE + " SET " + COL_BOOK_COUNT + " = " + COL_BOOK_COUNT + " + 1, "
+                        + COL_READ_COUNT + " = " + COL_READ_COUNT + " + (new." + COL_IS_READ + " = 1) WHERE "
+                        + COL_SHELF_LOCATION + " = COALESCE(new." + COL_SHELF_LOCATION + ", ''); ";
+                String removeOld = "UPDATE " + STATS_TOTALS_TABLE + " SET " + COL_BOOK_COUNT + " = "
+                        + COL_BOOK_COUNT + " - 1, " + COL_READ_COUNT + " = " + COL_READ_COUNT + " - (old."
+                        + COL_IS_READ + " = 1) WHERE ID = 0; UPDATE " + STATS_SHELVES_TABLE + " SET "
+                        + COL_BOOK_COUNT + " = " + COL_BOOK_COUNT + " - 1, " + COL_READ_COUNT + " = "
+                        + COL_READ_COUNT + " - (old." + COL_IS_READ + " = 1) WHERE " + COL_SHELF_LOCATION
+                        + " = COALESCE(old." + COL_SHELF_LOCATION + ", ''); ";
+                String removeEmpty = "DELETE FROM " + STATS_SHELVES_TABLE + " WHERE " + COL_BOOK_COUNT
+                        + " = 0; ";
+                db.execSQL("CREATE TRIGGER book_stats_after_insert AFTER INSERT ON " + TABLE_NAME
+                        + " BEGIN " + addNew + " END");
+                db.execSQL("CREATE TRIGGER book_stats_after_delete AFTER DELETE ON " + TABLE_NAME
+                        + " BEGIN " + removeOld + removeEmpty + " END");
+                db.execSQL("CREATE TRIGGER book_stats_after_update AFTER UPDATE OF " + COL_IS_READ
+                        + ", " + COL_SHELF_LOCATION + " ON " + TABLE_NAME + " BEGIN " + removeOld
+                        + addNew + removeEmpty + " END");
+            },
+
+            // 6 -> 7: shelves get their own table and books refer to them by ID instead of
+            //  repeating the name. Every shelf name found on a book is kept; the names saved in
+            //  the shared-preferences are imported by DatabaseHelper.onOpen(). The book table is
+            //  rebuilt to swap the text column for the foreign key, which drops its indexes and
+            //  triggers, so those are created again and the shelf stats are re-keyed by ID.
+            db -> {
+                db.execSQL("CREATE TABLE " + SHELF_TABLE_NAME + " (ID INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + COL_SHELF_NAME + " TEXT NOT NULL UNIQUE)");
+                db.execSQL("INSERT INTO " + SHELF_TABLE_NAME + " (" + COL_SHELF_NAME + ") VALUES ('Default')");
+                db.execSQL("INSERT OR IGNORE INTO " + SHELF_TABLE_NAME + " (" + COL_SHELF_NAME
+                        + ") SELECT COALESCE(" + COL_SHELF_LOCATION + ", 'Default') FROM " + TABLE_NAME
+                        + " GROUP BY 1 ORDER BY MIN(ID)");
+
+                db.execSQL("CREATE TABLE book_table_new (ID INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + COL_TITLE + " TEXT, " + COL_TITLE_LOWERCASE + " TEXT, " + COL_AUTHOR + " TEXT, "
+                        + COL_IS_READ + " INTEGER, " + COL_SHELF_ID + " INTEGER NOT NULL REFERENCES "
+                        + SHELF_TABLE_NAME + " (ID))");
+                db.execSQL("INSERT INTO book_table_new SELECT b.ID, b." + COL_TITLE + ", b."
+                        + COL_TITLE_LOWERCASE + ", b." + COL_AUTHOR + ", b." + COL_IS_READ + ", s.ID FROM "
+                        + TABLE_NAME + " b JOIN " + SHELF_TABLE_NAME + " s ON s." + COL_SHELF_NAME
+                        + " = COALESCE(b." + COL_SHELF_LOCATION + ", 'Default')");
+                db.execSQL("DROP TABLE " + TABLE_NAME);
+                db.execSQL("ALTER TABLE book_table_new RENAME TO " + TABLE_NAME);
+
+                db.execSQL("CREATE UNIQUE INDEX " + INDEX_TITLE_AUTHOR + " ON " + TABLE_NAME + " ("
+                        + COL_TITLE_LOWERCASE + ", " + COL_AUTHOR + ")");
+                db.execSQL("CREATE INDEX " + INDEX_AUTHOR + " ON " + TABLE_NAME + " (" + COL_AUTHOR + ")");
+                db.execSQL("CREATE INDEX " + INDEX_IS_READ + " ON " + TABLE_NAME + " (" + COL_IS_READ + ")");
+                db.execSQL("CREATE INDEX " + INDEX_SHELF_ID + " ON " + TABLE_NAME + " (" + COL_SHELF_ID + ")");
+                createFtsTriggers(db);
+
+                db.execSQL("DROP TABLE " + STATS_SHELVES_TABLE);
+                db.execSQL("CREATE TABLE " + STATS_SHELVES_TABLE + " (" + COL_SHELF_ID
+                        + " INTEGER PRIMARY KEY, " + COL_BOOK_COUNT + " INTEGER NOT NULL, "
+                        + COL_READ_COUNT + " INTEGER NOT NULL)");
+                db.execSQL("INSERT INTO " + STATS_SHELVES_TABLE + " SELECT " + COL_SHELF_ID
+                        + ", COUNT(*), SUM(" + COL_IS_READ + " = 1) FROM " + TABLE_NAME + " GROUP BY "
+                        + COL_SHELF_ID);
+                createStatsTriggers(db, false);
+            },
+
+            // 7 -> 8: one index per BookSortOrder, with the same columns in the same order (the
+            //  ID is implied as the last column of every index), so each sort and its keyset
+            //  pages are read straight from an index. The shelf order walks the unique shelf
+            //  names first and then this index for each shelf. The author and shelf_id indexes
+            //  are prefixes of the new ones and are dropped.
+            db -> {
+                db.execSQL("DROP INDEX " + INDEX_AUTHOR);
+                db.execSQL("DROP INDEX " + INDEX_SHELF_ID);
+                db.execSQL("CREATE INDEX " + INDEX_TITLE_ORDER + " ON " + TABLE_NAME + " ("
+                        + COL_TITLE_LOWERCASE + ")");
+                db.execSQL("CREATE INDEX " + INDEX_AUTHOR_ORDER + " ON " + TABLE_NAME + " ("
+                        + COL_AUTHOR + ", " + COL_TITLE_LOWERCASE + ")");
+                db.execSQL("CREATE INDEX " + INDEX_SHELF_ORDER + " ON " + TABLE_NAME + " ("
+                        + COL_SHELF_ID + ", " + COL_AUTHOR + ", " + COL_TITLE_LOWERCASE + ")");
+            },
+
+            // 8 -> 9: soft delete. A deleted book keeps its row with the time it was deleted
+            //  until it is purged, so the delete can be undone. The index lets the purge find
+            //  tombstones without a scan, and the stats triggers are recreated to only count
+            //  books that have not been deleted.
+            db -> {
+                db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COL_DELETED_AT + " INTEGER");
+                db.execSQL("CREATE INDEX " + INDEX_DELETED_AT + " ON " + TABLE_NAME + " ("
+                        + COL_DELETED_AT + ")");
+                db.execSQL("DROP TRIGGER book_stats_after_insert");
+                db.execSQL("DROP TRIGGER book_stats_after_delete");
+                db.execSQL("DROP TRIGGER book_stats_after_update");
+                createStatsTriggers(db, true);
+            },
+
+            // 9 -> 10: an import records how far it got in the same transaction as each chunk of
+            //  books it adds, so an import that was interrupted continues after the last chunk
+            //  that was committed. The row is removed when the import finishes.
+            db -> db.execSQL("CREATE TABLE " + IMPORT_PROGRESS_TABLE + " (" + COL_IMPORT_SOURCE
+                    + " TEXT PRIMARY KEY NOT NULL, " + COL_ROWS_READ + " INTEGER NOT NULL, "
+                    + COL_INSERTED_COUNT + " INTEGER NOT NULL, " + COL_SKIPPED_COUNT
+                    + " INTEGER NOT NULL, " + COL_REJECTED_COUNT + " INTEGER NOT NULL)"),
+
+            // 10 -> 11: change journal for incremental backups. Triggers append one entry per
+            //  inserted, updated or deleted book, whichever write path made the change, and
+            //  renaming a shelf journals every book on it. AUTOINCREMENT keeps sequence numbers
+            //  from being reused after the journal has been trimmed.
+            db -> {
+                db.execSQL("CREATE TABLE " + JOURNAL_TABLE + " (" + COL_SEQ
+                        + " INTEGER PRIMARY KEY AUTOINCREMENT, " + COL_BOOK_ID + " INTEGER NOT NULL, "
+                        + COL_OP + " TEXT NOT NULL)");
+                db.execSQL("CREATE TRIGGER book_journal_after_insert AFTER INSERT ON " + TABLE_NAME
+                        + " BEGIN " + journalSql("VALUES (new.ID, '" + OP_INSERT + "')") + " END");
+                db.execSQL("CREATE TRIGGER book_journal_after_update AFTER UPDATE ON " + TABLE_NAME
+                        + " BEGIN " + journalSql("VALUES (new.ID, '" + OP_UPDATE + "')") + " END");
+                db.execSQL("CREATE TRIGGER book_journal_after_delete AFTER DELETE ON " + TABLE_NAME
+                        + " BEGIN " + journalSql("VALUES (old.ID, '" + OP_DELETE + "')") + " END");
+                db.execSQL("CREATE TRIGGER book_journal_after_shelf_rename AFTER UPDATE OF "
+                        + COL_SHELF_NAME + " ON " + SHELF_TABLE_NAME + " BEGIN " + journalSql("SELECT ID, '"
+                        + OP_UPDATE + "' FROM " + TABLE_NAME + " WHERE " + COL_SHELF_ID + " = new.ID")
+                        + " END");
+            },
+
+            // 11 -> 12: books without an author are stored with an empty one, NULLs never clash
+            //  in the unique title/author index so the same book could be added twice. The
+            //  oldest copy of such a duplicate is kept, like in step 2 -> 3.
+            db -> {
+                db.execSQL("DELETE FROM " + TABLE_NAME + " WHERE ID NOT IN (SELECT MIN(ID) FROM "
+                        + TABLE_NAME + " GROUP BY " + COL_TITLE_LOWERCASE + ", COALESCE(" + COL_AUTHOR
+                        + ", ''))");
+                db.execSQL("UPDATE " + TABLE_NAME + " SET " + COL_AUTHOR + " = '' WHERE " + COL_AUTHOR
+                        + " IS NULL");
+            },
+
+            // 12 -> 13: a saved import position records when it was last written, so the position
+            //  of an import that is never picked up again expires. Positions saved before were
+            //  keyed by the file name alone and could resume a different file, they are dropped.
+            db -> {
+                db.execSQL("DELETE FROM " + IMPORT_PROGRESS_TABLE);
+                db.execSQL("ALTER TABLE " + IMPORT_PROGRESS_TABLE + " ADD COLUMN "
+                        + COL_IMPORT_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0");
+            },
+
+            // 13 -> 14: titles and authors are searched in memory (see BookSearchIndex), so the
+            //  full-text index is no longer read. It is dropped with its triggers, which only
+            //  slowed every write to the book table down.
+            db -> {
+                db.execSQL("DROP TRIGGER IF EXISTS book_fts_after_insert");
+                db.execSQL("DROP TRIGGER IF EXISTS book_fts_before_update");
+                db.execSQL("DROP TRIGGER IF EXISTS book_fts_after_update");
+                db.execSQL("DROP TRIGGER IF EXISTS book_fts_before_delete");
+                db.execSQL("DROP TABLE IF EXISTS " + FTS_TABLE_NAME);
+            },
+    };
+
+    static final int LATEST_VERSION = STEPS.length + 1;
+
+    private DatabaseMigrations() {}
+
+    //==============================================================================================
+    /*
+     * The helpers below are used by steps that have shipped, so they must keep producing the same
+     *  statements. A change to the triggers goes in a new step with statements of its own.
+     */
+
+    /**
+     * createFtsTriggers:
+     *  Creates the triggers that keep the full-text index in line with the book table, as step
+     *   4 -> 5 did. They follow the pattern in the FTS4 documentation: remove the old tokens
+     *   before a row changes and index the new ones afterwards.
+     * @param db SQ-lite database
+     */
+    private static void createFtsTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER book_fts_after_insert AFTER INSERT ON " + TABLE_NAME
+                + " BEGIN INSERT INTO " + FTS_TABLE_NAME + " (docid, " + COL_TITLE + ", "
+                + COL_AUTHOR + ") VALUES (new.ID, new." + COL_TITLE + ", new." + COL_AUTHOR
+                + "); END");
+        db.execSQL("CREATE TRIGGER book_fts_before_update BEFORE UPDATE OF " + COL_TITLE
+                + ", " + COL_AUTHOR + " ON " + TABLE_NAME + " BEGIN DELETE FROM "
+                + FTS_TABLE_NAME + " WHERE docid = old.ID; END");
+        db.execSQL("CREATE TRIGGER book_fts_after_update AFTER UPDATE OF " + COL_TITLE
+                + ", " + COL_AUTHOR + " ON " + TABLE_NAME + " BEGIN INSERT INTO "
+                + FTS_TABLE_NAME + " (docid, " + COL_TITLE + ", " + COL_AUTHOR
+                + ") VALUES (new.ID, new." + COL_TITLE + ", new." + COL_AUTHOR + "); END");
+        db.execSQL("CREATE TRIGGER book_fts_before_delete BEFORE DELETE ON " + TABLE_NAME
+                + " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old.ID; END");
+    }
+    //==============================================================================================
+
+    /**
+     * createStatsTriggers:
+     *  Creates the triggers that keep the stats summary tables exact, with shelves keyed by their
+     *   ID as from version 7 on (step 5 -> 6 keyed them by name). From version 9 on only books
+     *   that have not been soft deleted are counted, so deleting and restoring a book is an
+     *   update of deleted_at.
+     * @param db         SQ-lite database
+     * @param liveOnly   True to skip books whose deleted_at is set
+     */
+    private static void createStatsTriggers(SQLiteDatabase db, boolean liveOnly) {
+        String columns = COL_IS_READ + ", " + COL_SHELF_ID + (liveOnly ? ", " + COL_DELETED_AT : "");
+        db.execSQL("CREATE TRIGGER book_stats_after_insert AFTER INSERT ON " + TABLE_NAME
+                + " BEGIN " + adjustTotalsSql("new", "+", liveOnly) + addShelfRowSql("new")
+                + adjustShelfSql("new", "+", liveOnly) + " END");
+        db.execSQL("CREATE TRIGGER book_stats_after_delete AFTER DELETE ON " + TABLE_NAME
+                + " BEGIN " + adjustTotalsSql("old", "-", liveOnly)
+                + adjustShelfSql("old", "-", liveOnly) + removeEmptyShelvesSql() + " END");
+        db.execSQL("CREATE TRIGGER book_stats_after_update AFTER UPDATE OF " + columns + " ON "
+                + TABLE_NAME + " BEGIN "
+                + adjustTotalsSql("old", "-", liveOnly) + adjustShelfSql("old", "-", liveOnly)
+                + adjustTotalsSql("new", "+", liveOnly) + addShelfRowSql("new")
+                + adjustShelfSql("new", "+", liveOnly) + removeEmptyShelvesSql() + " END");
+    }
+    //==============================================================================================
+
+    /*
+     * Statements used by the summary triggers. row is "new" or "old", sign is "+" or "-". With
+     *  liveOnly the adjustment is skipped for a soft deleted row.
+     */
+    private static String adjustTotalsSql(String row, String sign, boolean liveOnly) {
+        return "UPDATE " + STATS_TOTALS_TABLE + " SET " + COL_BOOK_COUNT + " = " + COL_BOOK_COUNT
+                + " " + sign + " 1, " + COL_READ_COUNT + " = " + COL_READ_COUNT + " " + sign + " ("
+                + row + "." + COL_IS_READ + " = 1) WHERE ID = 0" + liveSql(row, liveOnly) + "; ";
+    }
+
+    private static String liveSql(String row, boolean liveOnly) {
+        return liveOnly ? " AND " + row + "." + COL_DELETED_AT + " IS NULL" : "";
+    }
+
+    private static String addShelfRowSql(String row) {
+        return "INSERT OR IGNORE INTO " + STATS_SHELVES_TABLE + " VALUES (" + row + "." + COL_SHELF_ID
+                + ", 0, 0); ";
+    }
+
+    private static String adjustShelfSql(String row, String sign, boolean liveOnly) {
+        return "UPDATE " + STATS_SHELVES_TABLE + " SET " + COL_BOOK_COUNT + " = " + COL_BOOK_COUNT
+                + " " + sign + " 1, " + COL_READ_COUNT + " = " + COL_READ_COUNT + " " + sign + " ("
+                + row + "." + COL_IS_READ + " = 1) WHERE " + COL_SHELF_ID + " = " + row + "."
+                + COL_SHELF_ID + liveSql(row, liveOnly) + "; ";
+    }
+
+    // Statement used by the journal triggers, rows supplies the book ID and operation
+    private static String journalSql(String rows) {
+        return "INSERT INTO " + JOURNAL_TABLE + " (" + COL_BOOK_ID + ", " + COL_OP + ") " + rows + ";";
+    }
+
+    private static String removeEmptyShelvesSql() {
+        return "DELETE FROM " + STATS_SHELVES_TABLE + " WHERE " + COL_BOOK_COUNT + " = 0; ";
+    }
+
+    //==============================================================================================
+    /**
+     * createInitialSchema:
+     *  Creates the book table as it was in version 1 of the database.
+     * @param db SQ-lite database
+     */
+    static void createInitialSchema(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " (ID INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COL_TITLE + " TEXT, " + COL_TITLE_LOWERCASE + " TEXT, " + COL_AUTHOR + " TEXT, "
+                + COL_IS_READ + " INTEGER)");
+    }
+    //==============================================================================================
+
+    /**
+     * migrate:
+     *  Runs every step needed to move the database from one version to another, in order.
+     * @param db           SQ-lite database
+     * @param fromVersion  Version the database is currently at
+     * @param toVersion    Version the database should end at
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        if (fromVersion < 1 || toVersion > LATEST_VERSION) {
+            throw new IllegalArgumentException("No migration from version " + fromVersion
+                    + " to " + toVersion);
+        }
+        for (int version = fromVersion; version < toVersion; version++) {
+            Log.d(TAG, "migrate: Upgrading database from version " + version + " to " + (version + 1));
+            STEPS[version - 1].migrate(db);
+        }
+    }
+    //==============================================================================================
+}
@@ -34,12 +34,12 @@ import androidx.appcompat.widget.SwitchCompat;
 import androidx.fragment.app.Fragment;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 
 public class FragAddBook extends Fragment {
 
     private static final String TAG = "FragAddBook";
-    private DatabaseHelper mDatabaseHelper;
+    private BookRepository mRepository;
+    private DatabaseExecutor.TaskScope mTasks;
     private Button submitBTN, resetBTN;
     private SwitchCompat readStatus;
     private EditText authorField;
@@ -86,17 +86,17 @@ public class FragAddBook extends Fragment {
      */
     public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
-        mDatabaseHelper = new DatabaseHelper(getContext());
+        mRepository = BookRepository.getInstance(getContext());
+        mTasks = new DatabaseExecutor.TaskScope();
 
-        ArrayList<String> storedNames = loadShelfNames();
+        // Start with the last used shelf so a book can be added before the rest are loaded
+        ArrayList<String> storedNames = new ArrayList<>();
+        storedNames.add(lastShelfName != null ? lastShelfName : DatabaseHelper.DEFAULT_SHELF);
 
         ArrayAdapter<String> dropDownArrayAdapter = new ArrayAdapter<>(getContext(),
                 android.R.layout.simple_spinner_dropdown_item, storedNames);
         spinner.setAdapter(dropDownArrayAdapter);
-        int shelfIndex = storedNames.indexOf(lastShelfName);
-        int indexOfName = Math.max(shelfIndex, 0);
-
-        spinner.setSelection(indexOfName);
+        loadShelfNames(dropDownArrayAdapter, storedNames.get(0));
 
         resetBTN.setOnClickListener(v -> {
             readStatus.setChecked(false);
@@ -120,17 +120,27 @@ public class FragAddBook extends Fragment {
             boolean readBook = readStatus.isChecked();
 
             if (title.length() > 0) {
-                // Attempt to add to DB and report success/failure
-                if (mDatabaseHelper.addData(title, author, title.toLowerCase(), readBook, shelfLocation)) {
-                    String message = "Title: " + title + ", Author: " + author;
-                    Log.d(TAG, "onClick: Retrieved Information: " + message);
-                    displayMessageMaker("Book Added!");
-                    resetAllFields();
-                    saveLastShelfName(shelfLocation);
-                } else {
-                    Log.e(TAG, "onClick: Book was not able to be added: " + title + " by: " + author);
-                    displayMessageMaker("Book could not be added!");
-                }
+                // Attempt to add to DB in the background and report success/failure
+                submitBTN.setEnabled(false);
+                BookModel book = new BookModel(title, title.toLowerCase(), author, readBook, 0,
+                        shelfLocation);
+                mRepository.addBook(book, mTasks.guard(added -> {
+                    submitBTN.setEnabled(true);
+                    if (added != null) {
+                        String message = "Title: " + title + ", Author: " + author;
+                        Log.d(TAG, "onClick: Retrieved Information: " + message);
+                        displayMessageMaker("Book Added!");
+                        resetAllFields();
+                        saveLastShelfName(shelfLocation);
+                    } else {
+                        Log.e(TAG, "onClick: Book was not able to be added: " + title + " by: " + author);
+                        displayMessageMaker("Book could not be added!");
+                    }
+                    titleField.requestFocus();
+                }), mTasks.guardError(error -> {
+                    submitBTN.setEnabled(true);
+                    displayMessageMaker("Book could not be saved!");
+                }));
             } else {
                 displayMessageMaker("Please enter valid title!");
             }
@@ -139,6 +149,17 @@ public class FragAddBook extends Fragment {
     }
     //==============================================================================================
 
+    /**
+     * onDestroyView: (overridden method)
+     *  Drops the result of an add that is still running, the book itself is still saved.
+     */
+    @Override
+    public void onDestroyView() {
+        mTasks.cancelAll();
+        super.onDestroyView();
+    }
+    //==============================================================================================
+
     /**
      * resetAllFields:
      *  Clears all the fields and sets them to default values.
@@ -166,19 +187,16 @@ public class FragAddBook extends Fragment {
 
     /**
      * loadShelfNames:
-     *  Extracts the saved shelf names that the user has defined from the shared-preferences.
-     * @return ArrayList of strings holding the shelf names.
+     *  Loads the shelf names that the user has defined into the spinner in the background.
+     * @param names         Adapter of the spinner
+     * @param selectedName  Shelf to select once the names are loaded
      */
-    private ArrayList<String> loadShelfNames() {
-        SharedPreferences sharedPreferences = getContext().getSharedPreferences(MainActivity.SHARED_PREFERENCES,
-                MainActivity.MODE_PRIVATE);
-
-        String storedNames = sharedPreferences.getString(MainActivity.SHELVES, "");
-        if (storedNames.length() == 0) { storedNames = "Default";}
-
-        String[] namesArr = storedNames.split("@",-1);
-
-        return new ArrayList<>(Arrays.asList(namesArr));
+    private void loadShelfNames(ArrayAdapter<String> names, String selectedName) {
+        mTasks.submitQuery(signal -> mRepository.getShelfNames(), storedNames -> {
+            names.clear();
+            names.addAll(storedNames);
+            spinner.setSelection(Math.max(storedNames.indexOf(selectedName), 0));
+        });
     }
     //==============================================================================================
 
@@ -27,27 +27,31 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 
-public class FragAppStats extends Fragment {
+public class FragAppStats extends Fragment implements BookChange.Listener {
     private static final String TAG = "FragAppStats";
 
     /**
      * BookListInformation
      *  Static class that holds information used on the stats page. Considers read books,
-     *   books that have not yet been read, and the total book count.
+     *   books that have not yet been read, the total book count and the counts for each shelf.
      */
     public static class BookListInformation {
         private final int bookCount;
         private final int notReadCount;
         private final int readCount;
+        private final List<ShelfInformation> shelves;
 
-        public BookListInformation(int bookCount, int notReadCount, int readCount) {
+        public BookListInformation(int bookCount, int notReadCount, int readCount,
+                                   List<ShelfInformation> shelves) {
             this.bookCount = bookCount;
             this.notReadCount = notReadCount;
             this.readCount = readCount;
+            this.shelves = shelves;
         }
 
         // public void setBookCount(int bookCount) {this.bookCount = bookCount;}
@@ -56,10 +60,78 @@ public class FragAppStats extends Fragment {
         public int getNotReadCount() {return notReadCount;}
         // public void setReadCount(int readCount) {this.readCount = readCount;}
         public int getReadCount() {return readCount;}
+        public List<ShelfInformation> getShelves() {return shelves;}
+
+        /**
+         * withChanges:
+         *  Returns the counts after the given changes, adjusted from these counts instead of
+         *   read again. Shelves left without books are dropped, as in the stats report.
+         * @param changes  Changes without RELOADED, see BookChange.isReload()
+         * @return BookListInformation after the changes
+         */
+        public BookListInformation withChanges(List<BookChange> changes) {
+            int[] totals = {bookCount, readCount};
+            TreeMap<String, int[]> perShelf = new TreeMap<>();
+            for (ShelfInformation shelf : shelves) {
+                perShelf.put(shelf.getShelfName(), new int[]{shelf.getBookCount(), shelf.getReadCount()});
+            }
+            for (BookChange change : changes) {
+                if (change.getBefore() != null) { count(totals, perShelf, change.getBefore(), -1);}
+                if (change.getAfter() != null) { count(totals, perShelf, change.getAfter(), 1);}
+            }
+
+            ArrayList<ShelfInformation> shelfCounts = new ArrayList<>();
+            for (Map.Entry<String, int[]> shelf : perShelf.entrySet()) {
+                if (shelf.getValue()[0] > 0) {
+                    shelfCounts.add(new ShelfInformation(shelf.getKey(), shelf.getValue()[0], shelf.getValue()[1]));
+                }
+            }
+            return new BookListInformation(totals[0], totals[0] - totals[1], totals[1], shelfCounts);
+        }
+
+        private static void count(int[] totals, TreeMap<String, int[]> perShelf, BookModel book, int delta) {
+            int read = book.getReadStatus() ? delta : 0;
+            totals[0] += delta;
+            totals[1] += read;
+            String name = book.getShelfLocation() == null || book.getShelfLocation().length() == 0
+                    ? DatabaseHelper.DEFAULT_SHELF : book.getShelfLocation();
+            int[] shelf = perShelf.get(name);
+            if (shelf == null) {
+                shelf = new int[2];
+                perShelf.put(name, shelf);
+            }
+            shelf[0] += delta;
+            shelf[1] += read;
+        }
+    }
+
+    /**
+     * ShelfInformation
+     *  Static class that holds the book count and read count of a single shelf.
+     */
+    public static class ShelfInformation {
+        private final String shelfName;
+        private final int bookCount;
+        private final int readCount;
+
+        public ShelfInformation(String shelfName, int bookCount, int readCount) {
+            this.shelfName = shelfName;
+            this.bookCount = bookCount;
+            this.readCount = readCount;
+        }
+
+        public String getShelfName() {return shelfName;}
+        public int getBookCount() {return bookCount;}
+        public int getReadCount() {return readCount;}
+        public int getNotReadCount() {return bookCount - readCount;}
     }
 
     private TextView hashmapDebug;
-    private ArrayList<BookModel> books;
+    private TextView bookCountField, readCountField, notReadCountField;
+    private DatabaseExecutor.TaskScope mTasks;
+    private DatabaseHelper mDatabaseHelper;
+    private BookRepository mRepository;
+    private BookListInformation shownStats;    // null until the report has been loaded
 
     //==============================================================================================
     /**
@@ -77,16 +149,67 @@ public class FragAppStats extends Fragment {
         Log.d(TAG, "onCreateView: Creating initial stats view");
 
         View view = inflater.inflate(R.layout.frag_appstats_layout, container, false);
-        DatabaseHelper mDatabaseHelper = new DatabaseHelper(getContext());
-        BookListInformation bookListInformation = mDatabaseHelper.generateStatsReport();
-        books = mDatabaseHelper.getStoredBooks();
-
-        TextView bookCountField = view.findViewById(R.id.appstats_numbooks);
-        TextView readCountField = view.findViewById(R.id.appstats_readbooks);
-        TextView notReadCountField = view.findViewById(R.id.appstats_notreadbooks);
+        mDatabaseHelper = DatabaseHelper.getInstance(getContext());
+        mRepository = BookRepository.getInstance(getContext());
+        mTasks = new DatabaseExecutor.TaskScope();
 
+        bookCountField = view.findViewById(R.id.appstats_numbooks);
+        readCountField = view.findViewById(R.id.appstats_readbooks);
+        notReadCountField = view.findViewById(R.id.appstats_notreadbooks);
         hashmapDebug = view.findViewById(R.id.appstats_hashmap_debug);
-        genMap();
+
+        loadStats();
+        mRepository.addChangeListener(this);
+
+        return view;
+    }
+    //==============================================================================================
+
+    /**
+     * onDestroyView: (overridden method)
+     *  Stops listening for changes and cancels the stats query if it is still running.
+     */
+    @Override
+    public void onDestroyView() {
+        mRepository.removeChangeListener(this);
+        mTasks.cancelAll();
+        super.onDestroyView();
+    }
+    //==============================================================================================
+
+    /**
+     * loadStats:
+     *  Reads the stats report in the background and shows it.
+     */
+    private void loadStats() {
+        mTasks.submitQuery(signal -> mDatabaseHelper.generateStatsReport(), this::showStats);
+    }
+    //==============================================================================================
+
+    /**
+     * onBooksChanged: (overridden method)
+     *  Adjusts the shown counts for books that were added, edited or deleted on another page.
+     *   The report is only read again after a change to many books at once.
+     * @param changes  Changes of one commit
+     */
+    @Override
+    public void onBooksChanged(List<BookChange> changes) {
+        if (shownStats == null || BookChange.isReload(changes)) {
+            loadStats();
+        } else {
+            showStats(shownStats.withChanges(changes));
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * showStats:
+     *  Fills in the counts for each criteria once the stats report has been loaded.
+     * @param bookListInformation Stats report
+     */
+    private void showStats(BookListInformation bookListInformation) {
+        shownStats = bookListInformation;
+        showShelfCounts(bookListInformation);
 
         // Set the counts for each criteria
         bookCountField.setText(String.format(Locale.getDefault(), "%d",
@@ -95,23 +218,21 @@ public class FragAppStats extends Fragment {
                 bookListInformation.getReadCount()));
         notReadCountField.setText(String.format(Locale.getDefault(), "%d",
                 bookListInformation.getNotReadCount()));
-
-        return view;
     }
+    //==============================================================================================
 
-    private void genMap() {
-        HashMap<String, ArrayList<BookModel>> shelfBooks = new HashMap<>();
-        for (BookModel book : books) {
-            ArrayList<BookModel> currList = shelfBooks.get(book.getShelfLocation());
-            if (currList == null) { currList = new ArrayList<>();}
-            currList.add(book);
-            shelfBooks.put(book.getShelfLocation(), currList);
-        }
+    /**
+     * showShelfCounts:
+     *  Lists the number of books on each shelf using the counts from the stats report.
+     * @param bookListInformation Stats report
+     */
+    private void showShelfCounts(BookListInformation bookListInformation) {
         StringBuilder message = new StringBuilder("Shelf and book count\n");
-        for (Map.Entry<String, ArrayList<BookModel>> entry : shelfBooks.entrySet()) {
-            message.append(entry.getKey()).append(": ").append(entry.getValue().size()).append("\n");
+        for (ShelfInformation shelf : bookListInformation.getShelves()) {
+            message.append(shelf.getShelfName()).append(": ").append(shelf.getBookCount()).append("\n");
         }
 
         hashmapDebug.setText(message.toString());
     }
+    //==============================================================================================
 }
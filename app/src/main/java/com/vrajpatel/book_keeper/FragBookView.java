@@ -18,7 +18,6 @@ package com.vrajpatel.book_keeper;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.ContextMenu;
@@ -30,23 +29,23 @@ import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Spinner;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.widget.SwitchCompat;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.android.material.snackbar.Snackbar;
+
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 
-public class FragBookView extends Fragment implements RecyclerViewAdapter.onDeleteCallListener, RecyclerViewAdapter.onEditCallListener {
+public class FragBookView extends Fragment implements RecyclerViewAdapter.onDeleteCallListener,
+        RecyclerViewAdapter.onEditCallListener, BookChange.Listener, BookPager.Listener {
 
     // To create the popup menu---------------------
     private AlertDialog.Builder dialogBuilder;
@@ -59,10 +58,14 @@ public class FragBookView extends Fragment implements RecyclerViewAdapter.onDele
 
     private static final String TAG = "BookListFragment";
     private RecyclerView recyclerView;
-    private ArrayList<BookModel> books;
     private RecyclerViewAdapter adapter;
-    private DatabaseHelper mDatabaseHelper;
+    private BookSortOrder sortOrder;
+    private BookRepository mRepository;
+    private DatabaseExecutor.TaskScope mTasks;
     private Context mContext;
+    private BookPager pager;
+    private boolean showingSnapshot;    // The adapter shows the snapshot, not the loaded books
+    private boolean showingBooks;       // The loaded books have been shown, the snapshot is late
 
     //==============================================================================================
     /**
@@ -80,7 +83,6 @@ public class FragBookView extends Fragment implements RecyclerViewAdapter.onDele
         View view = inflater.inflate(R.layout.frag_bookview_layout, container, false);
         recyclerView = view.findViewById(R.id.recycler_view_holder);
         recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
-        books = new ArrayList<>();
         mContext = getContext();
         return view;
     }
@@ -88,72 +90,98 @@ public class FragBookView extends Fragment implements RecyclerViewAdapter.onDele
 
     /**
      *  onViewCreated:
-     *   Sets up the fragment and initializes the page. Sorts the contents of the page depending
-     *    on user's preference and sets up a custom recycler adapter. Requires Android 7.0.
+     *   Sets up the fragment and initializes the page. Sets up a custom recycler adapter that
+     *    shows the books, sorted in the user's preferred order, loaded a page at a time as the
+     *    user scrolls. On a cold start the books are first bound from the snapshot saved by the
+     *    last run.
      * @param view                 View to create
      * @param savedInstanceState   Saved instance
      */
-    @RequiresApi(api = Build.VERSION_CODES.N)
     public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         Log.d(TAG, "onViewCreated: FirstFragment has started");
-        mDatabaseHelper = new DatabaseHelper(getContext());
-        // Get the list view layout here
+        mRepository = BookRepository.getInstance(getContext());
+        mTasks = new DatabaseExecutor.TaskScope();
 
-        // Populate the list
-        books = mDatabaseHelper.getStoredBooks();
-        processBooks();
-        
-        // Create and set the adapter using the list of books
-        adapter = new RecyclerViewAdapter(books, mContext, this, this);
+        // Create and set the adapter, the pages are loaded in the background
+        adapter = new RecyclerViewAdapter(new ArrayList<>(), mContext, this, this);
         recyclerView.setAdapter(adapter);
         registerForContextMenu(recyclerView);
+
+        sortOrder = BookSortOrder.fromViewChoice(loadViewChoice());
+        pager = new BookPager(mRepository, sortOrder, mTasks, this, adapter.getRowUpdates());
+        recyclerView.addOnScrollListener(pager);
+        mRepository.addChangeListener(this);
+        pager.loadAtLeast(BookPager.PAGE_SIZE);
+        openSnapshot();
     }
     //==============================================================================================
 
     /**
-     *  compareBooksByAuthor:
-     *   Sorts the books by author's name. Requires Android 7.0.
+     * openSnapshot:
+     *  Opens the list saved by the last run in the background and draws it until the loaded books
+     *   replace it. Reading the snapshot does not wait for the database, so it is normally shown
+     *   long before the first page; it is dropped if the first page was shown already.
      */
-    @RequiresApi(api = Build.VERSION_CODES.N)
-    private void compareBooksByAuthor() {
-        Log.d(TAG, "compareBooksByAuthor: Layout by author name");
-        Comparator<BookModel> compareByAuthor = Comparator.comparing(BookModel::getAuthor);
-        List<BookModel> sortedAuthor = books.stream().sorted(compareByAuthor).collect(Collectors.toList());
-        books.clear();
-        books.addAll(sortedAuthor);
+    private void openSnapshot() {
+        mTasks.submitQuery(signal -> mRepository.openSnapshot(sortOrder), snapshot -> {
+            if (snapshot == null) { return;}
+            if (showingBooks) {
+                snapshot.close();
+                return;
+            }
+            showingSnapshot = true;
+            adapter.swapCursor(snapshot);
+        });
     }
     //==============================================================================================
 
     /**
-     * compareBooksByShelfName:
-     *  Sorts the books by the shelf's name. Requires Android 7.0.
+     * onDestroyView: (overridden method)
+     *  Stops listening for changes and cancels any database work still running for this page,
+     *   then closes the cursors it was showing.
      */
-    @RequiresApi(api = Build.VERSION_CODES.N)
-    private void compareBooksByShelfName() {
-        Log.d(TAG, "compareBooksByShelfName: Layout by shelf name");
-        Comparator<BookModel> compareByShelf = Comparator.comparing(BookModel::getShelfLocation);
-        List<BookModel> sortedAuthor = books.stream().sorted(compareByShelf).collect(Collectors.toList());
-        books.clear();
-        books.addAll(sortedAuthor);
+    @Override
+    public void onDestroyView() {
+        mRepository.removeChangeListener(this);
+        mTasks.cancelAll();
+        adapter.swapCursor(null);
+        pager.close();
+        super.onDestroyView();
     }
     //==============================================================================================
 
     /**
-     * processBooks:
-     *  Determines the sort order depending on the user's preference. Requires Android 7.0.
+     * onBooksLoaded: (overridden method)
+     *  Shows the rows loaded by the pager. The snapshot stays up until the loaded rows reach
+     *   past the rows it shows on screen, so the list does not jump back to the top.
+     * @param rows  Rows loaded so far, in order
      */
-    @RequiresApi(api = Build.VERSION_CODES.N)
-    private void processBooks() {
-        int layout = loadViewChoice();
-        switch (layout) {
-            case 1:
-                compareBooksByAuthor(); break;
-            case 2:
-                compareBooksByShelfName(); break;
-            default:
-                break;
+    @Override
+    public void onBooksLoaded(BookRows rows) {
+        if (showingSnapshot && !pager.isComplete()) {
+            LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+            int needed = layoutManager.findLastVisibleItemPosition() + BookPager.PREFETCH_DISTANCE + 1;
+            if (rows.size() < needed) {
+                pager.loadAtLeast(needed);
+                return;
+            }
         }
+        showingSnapshot = false;
+        showingBooks = true;
+        adapter.showRows(rows);
+    }
+    //==============================================================================================
+
+    /**
+     * onBooksChanged: (overridden method)
+     *  Updates the loaded books after books were added, edited or deleted, here or on another
+     *   page.
+     * @param changes  Changes of one commit
+     */
+    @Override
+    public void onBooksChanged(List<BookChange> changes) {
+        pager.applyChanges(changes);
     }
     //==============================================================================================
 
@@ -192,18 +220,40 @@ public class FragBookView extends Fragment implements RecyclerViewAdapter.onDele
 
     /**
      * deleteItem: (overridden method)
-     *  Deletes the item that is selected on the recycler view.
+     *  Deletes the item that is selected on the recycler view. The row is animated out when the
+     *   repository publishes the removal, see onBooksChanged().
      * @param position  Position of the item to delete.
      */
     @Override
     public void deleteItem(int position) {
-        if (mDatabaseHelper.deleteBookWithID(books.get(position))) {
-            Log.e(TAG, "deleteItem: Should be reset??");
-            books.remove(position);
-            adapter.notifyDataSetChanged();
-        } else {
-            Log.e(TAG, "deleteItem: Book Could not be removed");
-        }
+        final BookModel book = adapter.getBook(position);
+        mTasks.submitWrite(signal -> mRepository.deleteBook(book), deleted -> {
+            if (deleted) {
+                showUndo(book);
+            } else {
+                Log.e(TAG, "deleteItem: Book Could not be removed");
+            }
+        });
+    }
+    //==============================================================================================
+
+    /**
+     * showUndo:
+     *  Offers to undo a delete. The book is only soft deleted, so restoring it is one update. The
+     *   row comes back through onBooksChanged(); if the book could not be restored, e.g. it was
+     *   purged already, the user is told instead.
+     * @param book  Book that was deleted
+     */
+    private void showUndo(BookModel book) {
+        Snackbar.make(recyclerView, "Deleted: " + book.getTitle(), Snackbar.LENGTH_LONG)
+                .setAction("Undo", v -> mTasks.submitWrite(signal -> mRepository.restoreBook(book), restored -> {
+                    if (!restored) {
+                        Toast.makeText(mContext, "Could not restore \"" + book.getTitle() + "\"",
+                                Toast.LENGTH_LONG).show();
+                    }
+                }, error -> Toast.makeText(mContext, "Not restored: " + error.getMessage(),
+                        Toast.LENGTH_LONG).show()))
+                .show();
     }
     //==============================================================================================
 
@@ -214,7 +264,7 @@ public class FragBookView extends Fragment implements RecyclerViewAdapter.onDele
      */
     @Override
     public void openEditFragment(int position) {
-        generatePopup(books.get(position));
+        generatePopup(adapter.getBook(position));
     }
     //==============================================================================================
 
@@ -236,19 +286,18 @@ public class FragBookView extends Fragment implements RecyclerViewAdapter.onDele
         readSwitch = (SwitchCompat) popupView.findViewById(R.id.pop_read_switch);
         spinner = (Spinner) popupView.findViewById(R.id.popup_spinner);
 
-        // Add shelves the spinner
-        ArrayList<String> storedNames = loadShelfNames();
+        // Add shelves the spinner, starting with the book's own shelf until the rest are loaded
+        ArrayList<String> storedNames = new ArrayList<>();
+        storedNames.add(book.getShelfLocation());
         ArrayAdapter<String> dropDownArrayAdapter = new ArrayAdapter<>(getContext(),
                 android.R.layout.simple_spinner_dropdown_item, storedNames);
         spinner.setAdapter(dropDownArrayAdapter);
+        loadShelfNames(dropDownArrayAdapter, book.getShelfLocation());
 
         // Set fields to current book information
         titleField.setText(book.getTitle());
         authorField.setText(book.getAuthor());
         readSwitch.setChecked(book.getReadStatus());
-        if (storedNames.contains(book.getShelfLocation())) {
-            spinner.setSelection(dropDownArrayAdapter.getPosition(book.getShelfLocation()));
-        } else { spinner.setSelection(0);}
 
         // Create the popup view
         dialogBuilder.setView(popupView);
@@ -272,14 +321,19 @@ public class FragBookView extends Fragment implements RecyclerViewAdapter.onDele
             String shelfLocation = spinner.getSelectedItem().toString();
             boolean newStatus = readSwitch.isChecked();
 
-            book.setAuthor(author);
-            book.setTitle(title);
-            book.setTitleLowerCase(title.toLowerCase());
-            book.setReadStatus(newStatus);
-            book.setShelfLocation(shelfLocation);
+            // The shown book is shared with the background threads, so the edit goes on a copy
+            BookModel edited = new BookModel(title, title.toLowerCase(), author, newStatus,
+                    book.getID(), shelfLocation);
 
-            mDatabaseHelper.updateCol(book);
-            adapter.notifyDataSetChanged();
+            // The row is rebound once the edit has been committed, see onBooksChanged(); until
+            //  then it still shows the old values, so a refused edit only needs to be reported
+            mRepository.updateBook(edited, mTasks.guard(saved -> {
+                if (saved == null) {
+                    Toast.makeText(mContext, "Not saved, \"" + title + "\" is already stored",
+                            Toast.LENGTH_LONG).show();
+                }
+            }), mTasks.guardError(error -> Toast.makeText(mContext, "Not saved: " + error.getMessage(),
+                    Toast.LENGTH_LONG).show()));
             dialog.dismiss();
         });
     }
@@ -287,18 +341,15 @@ public class FragBookView extends Fragment implements RecyclerViewAdapter.onDele
 
     /**
      * loadShelfNames:
-     *  Extracts the saved shelf names that the user has defined from the shared-preferences.
-     * @return Arraylist of shelf names
+     *  Loads the shelf names that the user has defined into the spinner in the background.
+     * @param names         Adapter of the spinner
+     * @param selectedName  Shelf to select once the names are loaded
      */
-    private ArrayList<String> loadShelfNames() {
-        SharedPreferences sharedPreferences = getContext().getSharedPreferences(MainActivity.SHARED_PREFERENCES,
-                MainActivity.MODE_PRIVATE);
-
-        String storedNames = sharedPreferences.getString(MainActivity.SHELVES, "");
-        if (storedNames.length() == 0) { storedNames = "Default";}
-
-        String[] namesArr = storedNames.split("@",-1);
-
-        return new ArrayList<>(Arrays.asList(namesArr));
+    private void loadShelfNames(ArrayAdapter<String> names, String selectedName) {
+        mTasks.submitQuery(signal -> mRepository.getShelfNames(), storedNames -> {
+            names.clear();
+            names.addAll(storedNames);
+            spinner.setSelection(Math.max(storedNames.indexOf(selectedName), 0));
+        });
     }
 }
@@ -17,7 +17,6 @@
 package com.vrajpatel.book_keeper;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.ContextMenu;
@@ -35,6 +34,7 @@ import android.widget.ImageView;
 import android.widget.PopupMenu;
 
 import android.widget.Spinner;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -45,11 +45,14 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.android.material.snackbar.Snackbar;
+
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.List;
 
 public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClickListener,
-        RecyclerViewAdapter.onDeleteCallListener, RecyclerViewAdapter.onEditCallListener {
+        RecyclerViewAdapter.onDeleteCallListener, RecyclerViewAdapter.onEditCallListener,
+        BookChange.Listener {
 
     // To create the popup menu---------------------
     private AlertDialog.Builder dialogBuilder;
@@ -67,13 +70,16 @@ public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClic
     private ImageView filterIcon;
 
     private SearchView searchBar;
-    private DatabaseHelper mDatabaseHelper;
+    private BookRepository mRepository;
+    private DatabaseExecutor.TaskScope mTasks;
+    private SearchPipeline mSearch;
 
     // Filter options and popup menu for filters
     private PopupMenu popupMenu;
     private View popupMenuLocationView;
     private boolean read;
     private boolean notRead;
+    private boolean fuzzy;    // also show books matching with typos
     private String searchQuery;
     private Context mContext;
     private RecyclerViewAdapter.onDeleteCallListener myDeleteListener;
@@ -129,27 +135,34 @@ public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClic
     public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         Log.d(TAG, "onViewCreated: FirstFragment has started");
-        mDatabaseHelper = new DatabaseHelper(getContext());
+        mRepository = BookRepository.getInstance(getContext());
+        mTasks = new DatabaseExecutor.TaskScope();
+        mSearch = new SearchPipeline(mRepository, SearchPipeline.DEFAULT_DEBOUNCE_MS, result -> {
+            if (adapter != null) { adapter.showResults(result.getBooks());}
+        });
 
-        // Populate the list
-        allBooks = mDatabaseHelper.getStoredBooks();
+        // Populate the list in the background
         searchQuery = "";
-        // Create and set the adapter using the list of books
-        adapter = new RecyclerViewAdapter(allBooks, mContext, myDeleteListener, myEditListener);
-        adapter.provideFilters(true, true, "");
-        recyclerView.setAdapter(adapter);
+        mTasks.submitQuery(mRepository::getBooks, storedBooks -> {
+            allBooks = storedBooks;
+            // Create and set the adapter using the list of books
+            adapter = new RecyclerViewAdapter(allBooks, mContext, myDeleteListener, myEditListener);
+            mSearch.searchNow(searchQuery, read, notRead, fuzzy);
+            recyclerView.setAdapter(adapter);
+        });
+        mRepository.addChangeListener(this);
         registerForContextMenu(recyclerView);
 
         // Allows the search bar to be opened fully
         searchBar.setOnClickListener(v -> searchBar.setIconified(false));
-        // Modify results as characters are inserted into the search
+        // Modify results as characters are inserted into the search, once typing pauses
         searchBar.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
             @Override
             public boolean onQueryTextSubmit(String query) {return false;}
             @Override
             public boolean onQueryTextChange(String newText) {
                 searchQuery = newText;
-                adapter.getFilter().filter(newText);
+                mSearch.search(newText, read, notRead, fuzzy);
                 return false;
             }
         });
@@ -162,6 +175,36 @@ public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClic
     }
     //==============================================================================================
 
+    /**
+     * onDestroyView: (overridden method)
+     *  Stops listening for changes and cancels any database work still running for this page.
+     */
+    @Override
+    public void onDestroyView() {
+        mRepository.removeChangeListener(this);
+        mTasks.cancelAll();
+        mSearch.cancel();
+        super.onDestroyView();
+    }
+    //==============================================================================================
+
+    /**
+     * onBooksChanged: (overridden method)
+     *  Rebinds the results that were edited and takes out the ones that were deleted, here or on
+     *   another page. After a change to many books at once the search is run again.
+     * @param changes  Changes of one commit
+     */
+    @Override
+    public void onBooksChanged(List<BookChange> changes) {
+        if (adapter == null) { return;}
+        if (BookChange.isReload(changes)) {
+            mSearch.searchNow(searchQuery, read, notRead, fuzzy);
+        } else {
+            adapter.applyChanges(changes);
+        }
+    }
+    //==============================================================================================
+
     /**
      * onCreateContextMenu:
      *  Generates an option menu for each item present in the recycler view.
@@ -190,6 +233,7 @@ public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClic
         Menu menu = popupMenu.getMenu();
         menu.findItem(R.id.filter_not_read_books).setChecked(notRead);
         menu.findItem(R.id.filter_read_books).setChecked(read);
+        menu.findItem(R.id.filter_fuzzy).setChecked(fuzzy);
         popupMenu.show();
     }
     //==============================================================================================
@@ -197,20 +241,26 @@ public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClic
     /**
      * onMenuClick: (overridden method)
      *  Registers the menu clicks from the filter menu. The selected options from the menu will are
-     *   then used to filter the results.
+     *   then used to filter the results. The mark options update every current result at once.
      * @param item  Item in the menu
      * @return false
      */
     @Override
     public boolean onMenuItemClick(MenuItem item) {
+        if (item.getItemId() == R.id.filter_mark_read || item.getItemId() == R.id.filter_mark_not_read) {
+            markResults(item.getItemId() == R.id.filter_mark_read);
+            return true;
+        }
 
         if (item.getItemId() == R.id.filter_not_read_books) {
             notRead = !item.isChecked();
         } else if (item.getItemId() == R.id.filter_read_books) {
             read = !item.isChecked();
+        } else if (item.getItemId() == R.id.filter_fuzzy) {
+            fuzzy = !item.isChecked();
         }
 
-        adapter.provideFilters(read, notRead, searchQuery);
+        mSearch.searchNow(searchQuery, read, notRead, fuzzy);
         item.setChecked(!item.isChecked());
         item.setShowAsAction(MenuItem.SHOW_AS_ACTION_COLLAPSE_ACTION_VIEW);
         item.setActionView(new View(getContext()));
@@ -229,19 +279,61 @@ public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClic
     }
     //==============================================================================================
 
+    /**
+     * markResults:
+     *  Marks every book matching the current search and filters as read or not read, with one
+     *   UPDATE per batch of books (see DatabaseHelper.setReadStatus()). The results are refreshed
+     *   by onBooksChanged().
+     * @param readStatus  New read status
+     */
+    private void markResults(boolean readStatus) {
+        final String query = searchQuery;
+        final boolean includeRead = read, includeNotRead = notRead, includeTypos = fuzzy;
+        mTasks.submitWrite(signal -> mRepository.setReadStatusForSearch(query, includeRead,
+                includeNotRead, includeTypos, readStatus), count -> {
+            Toast.makeText(mContext, "Updated " + count + " books", Toast.LENGTH_SHORT).show();
+        });
+    }
+    //==============================================================================================
+
     /**
      * deleteItem: (overridden method)
-     *  Deletes the item that is selected on the recycler view.
+     *  Deletes the item that is selected on the recycler view. The row is taken out when the
+     *   repository publishes the removal, see onBooksChanged().
      * @param position Position of item to delete.
      */
     @Override
     public void deleteItem(int position) {
-        if (mDatabaseHelper.deleteBookWithID(allBooks.get(position))) {
-            allBooks.remove(position);
-            adapter.notifyDataSetChanged();
-        } else {
-            Log.e(TAG, "deleteItem: Book Could not be removed");
-        }
+        final BookModel book = adapter.getBook(position);
+        mTasks.submitWrite(signal -> mRepository.deleteBook(book), deleted -> {
+            if (deleted) {
+                showUndo(book, position);
+            } else {
+                Log.e(TAG, "deleteItem: Book Could not be removed");
+            }
+        });
+    }
+    //==============================================================================================
+
+    /**
+     * showUndo:
+     *  Offers to undo a delete. The book is only soft deleted, so restoring it is one update.
+     * @param book   Book that was deleted
+     * @param index  Position the book was shown at
+     */
+    private void showUndo(BookModel book, int index) {
+        Snackbar.make(recyclerView, "Deleted: " + book.getTitle(), Snackbar.LENGTH_LONG)
+                .setAction("Undo", v -> mTasks.submitWrite(signal -> mRepository.restoreBook(book), restored -> {
+                    // The search only picks a restored book up again when it is rerun
+                    if (restored) {
+                        adapter.restoreBook(book, index);
+                    } else {
+                        Toast.makeText(mContext, "Could not restore \"" + book.getTitle() + "\"",
+                                Toast.LENGTH_LONG).show();
+                    }
+                }, error -> Toast.makeText(mContext, "Not restored: " + error.getMessage(),
+                        Toast.LENGTH_LONG).show()))
+                .show();
     }
     //==============================================================================================
 
@@ -252,7 +344,7 @@ public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClic
      */
     @Override
     public void openEditFragment(int position) {
-        generatePopup(allBooks.get(position));
+        generatePopup(adapter.getBook(position));
     }
     //==============================================================================================
 
@@ -274,19 +366,18 @@ public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClic
         readSwitch = (SwitchCompat) popupView.findViewById(R.id.pop_read_switch);
         spinner = (Spinner) popupView.findViewById(R.id.popup_spinner);
 
-        // Add shelves the spinner
-        ArrayList<String> storedNames = loadShelfNames();
+        // Add shelves the spinner, starting with the book's own shelf until the rest are loaded
+        ArrayList<String> storedNames = new ArrayList<>();
+        storedNames.add(book.getShelfLocation());
         ArrayAdapter<String> dropDownArrayAdapter = new ArrayAdapter<>(getContext(),
                 android.R.layout.simple_spinner_dropdown_item, storedNames);
         spinner.setAdapter(dropDownArrayAdapter);
+        loadShelfNames(dropDownArrayAdapter, book.getShelfLocation());
 
         // Set fields to current book information
         titleField.setText(book.getTitle());
         authorField.setText(book.getAuthor());
         readSwitch.setChecked(book.getReadStatus());
-        if (storedNames.contains(book.getShelfLocation())) {
-            spinner.setSelection(dropDownArrayAdapter.getPosition(book.getShelfLocation()));
-        } else { spinner.setSelection(0);}
 
         // Create the popup view
         dialogBuilder.setView(popupView);
@@ -311,14 +402,19 @@ public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClic
             String shelfLocation = spinner.getSelectedItem().toString();
             boolean newStatus = readSwitch.isChecked();
 
-            book.setAuthor(author);
-            book.setTitle(title);
-            book.setTitleLowerCase(title.toLowerCase());
-            book.setReadStatus(newStatus);
-            book.setShelfLocation(shelfLocation);
-
-            mDatabaseHelper.updateCol(book);
-            adapter.notifyDataSetChanged();
+            // The shown book is shared with the background threads, so the edit goes on a copy
+            BookModel edited = new BookModel(title, title.toLowerCase(), author, newStatus,
+                    book.getID(), shelfLocation);
+
+            // The row is rebound once the edit has been committed, see onBooksChanged(); until
+            //  then it still shows the old values, so a refused edit only needs to be reported
+            mRepository.updateBook(edited, mTasks.guard(saved -> {
+                if (saved == null) {
+                    Toast.makeText(mContext, "Not saved, \"" + title + "\" is already stored",
+                            Toast.LENGTH_LONG).show();
+                }
+            }), mTasks.guardError(error -> Toast.makeText(mContext, "Not saved: " + error.getMessage(),
+                    Toast.LENGTH_LONG).show()));
             dialog.dismiss();
         });
     }
@@ -326,18 +422,15 @@ public class FragSearchBook extends Fragment implements PopupMenu.OnMenuItemClic
 
     /**
      * loadShelfNames:
-     *  Extracts the saved shelf names that the user has defined from the shared-preferences.
-     * @return Arraylist of shelf names
+     *  Loads the shelf names that the user has defined into the spinner in the background.
+     * @param names         Adapter of the spinner
+     * @param selectedName  Shelf to select once the names are loaded
      */
-    private ArrayList<String> loadShelfNames() {
-        SharedPreferences sharedPreferences = getContext().getSharedPreferences(MainActivity.SHARED_PREFERENCES,
-                MainActivity.MODE_PRIVATE);
-
-        String storedNames = sharedPreferences.getString(MainActivity.SHELVES, "");
-        if (storedNames.length() == 0) { storedNames = "Default";}
-
-        String[] namesArr = storedNames.split("@",-1);
-
-        return new ArrayList<>(Arrays.asList(namesArr));
+    private void loadShelfNames(ArrayAdapter<String> names, String selectedName) {
+        mTasks.submitQuery(signal -> mRepository.getShelfNames(), storedNames -> {
+            names.clear();
+            names.addAll(storedNames);
+            spinner.setSelection(Math.max(storedNames.indexOf(selectedName), 0));
+        });
     }
 }
@@ -16,7 +16,11 @@
 
 package com.vrajpatel.book_keeper;
 
+import android.app.Activity;
+import android.content.ContentResolver;
+import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -26,17 +30,28 @@ import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.Spinner;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 
-public class FragSettings extends Fragment implements ListViewAdapter.onDeleteIconPressListener {
+public class FragSettings extends Fragment implements ListViewAdapter.onDeleteIconPressListener,
+        ListViewAdapter.onShelfNamePressListener {
 
     private static final String TAG = "Settings Fragment";
+    private static final int REQUEST_IMPORT = 1;
     // View for this fragment
     private View settingsView;
 
@@ -51,6 +66,18 @@ public class FragSettings extends Fragment implements ListViewAdapter.onDeleteIc
     private ArrayList<String> shelfNames;
     private ListViewAdapter listViewAdapter;
 
+    // For library import card
+    private Button importBTN;
+    private ProgressBar importProgress;
+    private TextView importStatus;
+
+    // For backup card
+    private Button backupBTN, restoreBTN;
+    private TextView backupStatus;
+
+    private BookRepository mRepository;
+    private DatabaseExecutor.TaskScope mTasks;
+
     //==============================================================================================
     /**
      * onCreateView: (overridden method)
@@ -66,12 +93,27 @@ public class FragSettings extends Fragment implements ListViewAdapter.onDeleteIc
     public View onCreateView(LayoutInflater inflater, @Nullable ViewGroup container, Bundle savedInstanceState) {
         settingsView = inflater.inflate(R.layout.frag_settings_layout, container, false);
         Log.d(TAG, "onCreateView: creating view of settings page");
+        mRepository = BookRepository.getInstance(getContext());
+        mTasks = new DatabaseExecutor.TaskScope();
         initLayoutPrefCard();
         initShelfNameCard();
+        initImportCard();
+        initBackupCard();
         return settingsView;
     }
     //==============================================================================================
 
+    /**
+     * onDestroyView: (overridden method)
+     *  Cancels any shelf queries that are still running.
+     */
+    @Override
+    public void onDestroyView() {
+        mTasks.cancelAll();
+        super.onDestroyView();
+    }
+    //==============================================================================================
+
     /**
      * initLayoutPrefCard:
      *  Initializes the components inside the fragment and sets up respective functions and
@@ -113,30 +155,204 @@ public class FragSettings extends Fragment implements ListViewAdapter.onDeleteIc
         shelfName = settingsView.findViewById(R.id.settings_shelf_et);
         addShelfBTN = settingsView.findViewById(R.id.settings_add_btn);
         shelves = settingsView.findViewById(R.id.settings_shelf_names_lv);
-        loadShelfNames();
+        shelfNames = new ArrayList<String>();
 
-        listViewAdapter = new ListViewAdapter(getContext(), R.layout.listview_single_item, shelfNames, this);
+        listViewAdapter = new ListViewAdapter(getContext(), R.layout.listview_single_item, shelfNames,
+                this, this);
         shelves.setAdapter(listViewAdapter);
+        loadShelfNames();
 
         addShelfBTN.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 if (shelfName.getText().toString().length() != 0) {
                     String newName = shelfName.getText().toString();
-                    if (!shelfNames.contains(newName)) {
-                        shelfNames.add(shelfName.getText().toString());
-                        saveShelfName();
-                    }
+                    mTasks.submitWrite(signal -> mRepository.addShelf(newName), added -> {
+                        if (added) {
+                            shelfNames.add(newName);
+                            listViewAdapter.notifyDataSetChanged();
+                        }
+                    });
                     shelfName.setText("");
                 } else {
                     Toast.makeText(getContext(), "Must add shelf name!", Toast.LENGTH_LONG).show();
                 }
-                listViewAdapter.notifyDataSetChanged();
             }
         });
     }
     //==============================================================================================
 
+    /**
+     * initImportCard:
+     *  Initializes the components of the import card. The button lets the user pick a CSV or JSON
+     *   file to add books from.
+     */
+    private void initImportCard() {
+        Log.d(TAG, "initImportCard: Initialized objects in the import card");
+        importBTN = settingsView.findViewById(R.id.settings_import_btn);
+        importProgress = settingsView.findViewById(R.id.settings_import_progress);
+        importStatus = settingsView.findViewById(R.id.settings_import_status);
+
+        importBTN.setOnClickListener(view -> {
+            Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{"text/csv",
+                    "text/comma-separated-values", "text/plain", "application/json"});
+            startActivityForResult(Intent.createChooser(intent, "Import library"), REQUEST_IMPORT);
+        });
+    }
+    //==============================================================================================
+
+    /**
+     * onActivityResult: (overridden method)
+     *  Starts importing the file picked from the import card.
+     * @param requestCode
+     * @param resultCode
+     * @param data
+     */
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT && resultCode == Activity.RESULT_OK && data != null
+                && data.getData() != null) {
+            importLibrary(data.getData());
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * importLibrary:
+     *  Streams the file into the database in the background and shows the progress after every
+     *   chunk. Picking a file whose import was interrupted continues where it stopped.
+     * @param uri  File to import
+     */
+    private void importLibrary(Uri uri) {
+        ContentResolver resolver = getContext().getContentResolver();
+        BookImporter.Format format = BookImporter.Format.detect(resolver.getType(uri),
+                uri.getLastPathSegment());
+        String source = uri.toString();
+        Log.d(TAG, "importLibrary: importing " + source + " as " + format);
+
+        importBTN.setEnabled(false);
+        importProgress.setVisibility(View.VISIBLE);
+        importStatus.setVisibility(View.VISIBLE);
+        importStatus.setText("Importing...");
+
+        // The import is a write, so it runs to the end even if this page is closed
+        mTasks.submitWrite(signal -> {
+            InputStream in = null;
+            try {
+                in = resolver.openInputStream(uri);
+                if (in == null) { return null;}
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 64 * 1024);
+                return mRepository.importBooks(reader, format, source,
+                        progress -> importStatus.post(() -> showImportProgress(progress)), signal);
+            } catch (IOException e) {
+                // A file that cannot be parsed is reported by the error callback, not as stopped
+                Log.e(TAG, "importLibrary: Import failed", e);
+                throw new RuntimeException(e.getMessage(), e);
+            } finally {
+                if (in != null) {
+                    try { in.close();} catch (IOException e) { Log.e(TAG, "importLibrary: close failed", e);}
+                }
+            }
+        }, progress -> {
+            importBTN.setEnabled(true);
+            importProgress.setVisibility(View.GONE);
+            if (progress == null) {
+                importStatus.setText("Could not open the file.");
+                return;
+            }
+            showImportProgress(progress);
+            Toast.makeText(getContext(), "Imported " + progress.getInserted() + " books",
+                    Toast.LENGTH_LONG).show();
+        }, error -> {
+            importBTN.setEnabled(true);
+            importProgress.setVisibility(View.GONE);
+            importStatus.setText("Import failed: " + error.getMessage());
+        });
+    }
+    //==============================================================================================
+
+    /**
+     * showImportProgress:
+     *  Shows the counts of the import that is running.
+     * @param progress  Progress after the last chunk
+     */
+    private void showImportProgress(BookImporter.Progress progress) {
+        String status = "Read " + progress.getRowsRead() + " rows: " + progress.getInserted()
+                + " added, " + progress.getSkipped() + " already stored, " + progress.getRejected()
+                + " invalid";
+        if (progress.getResumedAt() > 0) {
+            status += " (resumed after row " + progress.getResumedAt() + ")";
+        }
+        importStatus.setText(status);
+    }
+    //==============================================================================================
+
+    /**
+     * initBackupCard:
+     *  Initializes the components of the backup card. Backups also run on their own whenever the
+     *   app is closed, these buttons are for backing up or restoring by hand.
+     */
+    private void initBackupCard() {
+        Log.d(TAG, "initBackupCard: Initialized objects in the backup card");
+        backupBTN = settingsView.findViewById(R.id.settings_backup_btn);
+        restoreBTN = settingsView.findViewById(R.id.settings_restore_btn);
+        backupStatus = settingsView.findViewById(R.id.settings_backup_status);
+        File directory = LibraryBackup.defaultDirectory(getContext());
+
+        backupBTN.setOnClickListener(view -> runBackupTask(signal -> {
+            try {
+                LibraryBackup.Result result = mRepository.backUp(directory);
+                return (result.isBase() ? "Full backup of " : "Backed up ") + result.getBooks()
+                        + " books";
+            } catch (IOException e) {
+                Log.e(TAG, "initBackupCard: Backup failed", e);
+                return "Backup failed: " + e.getMessage();
+            }
+        }));
+
+        restoreBTN.setOnClickListener(view -> new AlertDialog.Builder(getContext())
+                .setTitle("Replace all books with the last backup?")
+                .setPositiveButton("Restore", (dialogInterface, which) -> runBackupTask(signal -> {
+                    try {
+                        return "Restored " + mRepository.restoreBackup(directory).getBooks() + " books";
+                    } catch (IOException e) {
+                        Log.e(TAG, "initBackupCard: Restore failed", e);
+                        return "Restore failed: " + e.getMessage();
+                    }
+                }))
+                .setNegativeButton("Cancel", null)
+                .show());
+    }
+    //==============================================================================================
+
+    /**
+     * runBackupTask:
+     *  Runs a backup or restore in the background with the buttons disabled, then shows its
+     *   outcome and reloads the shelves, which a restore may have changed.
+     * @param task  Work returning the message to show
+     */
+    private void runBackupTask(DatabaseExecutor.Query<String> task) {
+        backupBTN.setEnabled(false);
+        restoreBTN.setEnabled(false);
+        mTasks.submitWrite(task, message -> showBackupOutcome(message),
+                error -> showBackupOutcome("Backup task failed: " + error.getMessage()));
+    }
+    //==============================================================================================
+
+    // Enables the backup buttons again and shows how the last task went
+    private void showBackupOutcome(String message) {
+        backupBTN.setEnabled(true);
+        restoreBTN.setEnabled(true);
+        backupStatus.setVisibility(View.VISIBLE);
+        backupStatus.setText(message);
+        loadShelfNames();
+    }
+    //==============================================================================================
+
     /**
      * saveViewChoice:
      *  Saves the sort preference in the shared-preferences.
@@ -190,56 +406,148 @@ public class FragSettings extends Fragment implements ListViewAdapter.onDeleteIc
     //==============================================================================================
 
     /**
-     * saveShelfName:
-     *  Saves all the shelf names present in the list view into a single string and then saves into
-     *   a shared-preference.
+     * loadShelfNames:
+     *  Loads all the shelf names from the shelf table into the list view.
      */
-    private void saveShelfName() {
-        StringBuilder newNames = new StringBuilder();
-        for (String name : shelfNames) {
-            newNames.append(name);
-            newNames.append("@");
-        }
-        newNames.deleteCharAt(newNames.length()-1);
+    private void loadShelfNames() {
+        mTasks.submitQuery(signal -> mRepository.getShelfNames(), names -> {
+            shelfNames.clear();
+            shelfNames.addAll(names);
+            listViewAdapter.notifyDataSetChanged();
+        });
+    }
+    //==============================================================================================
 
-        SharedPreferences sharedPreferences = getContext().getSharedPreferences(MainActivity.SHARED_PREFERENCES,
-                MainActivity.MODE_PRIVATE);
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putString(MainActivity.SHELVES, newNames.toString());
-        editor.apply();
+    /**
+     * deleteItem: (overridden method)
+     *  Deletes the selected shelf name and removes it from the arraylist.
+     * @param position
+     */
+    @Override
+    public void deleteItem(int position) {
+        String name = shelfNames.get(position);
+        Log.d(TAG, "onItemClick-> removing: " + name);
+        mTasks.submitWrite(signal -> mRepository.deleteShelf(name), deleted -> {
+            if (deleted) {
+                Toast.makeText(getContext(), "Removed: " + name, Toast.LENGTH_SHORT).show();
+                shelfNames.remove(name);
+                listViewAdapter.notifyDataSetChanged();
+            }
+        });
     }
     //==============================================================================================
 
     /**
-     * loadShelfNames:
-     *  Loads all teh shelf names from the shared-preference and breaks apart the string.
+     * openShelfOptions: (overridden method)
+     *  Shows the actions for the selected shelf. Each bulk action is a single statement run in
+     *   the background, however many books are on the shelf. The "Default" shelf cannot be
+     *   renamed.
+     * @param position
      */
-    private void loadShelfNames() {
-        SharedPreferences sharedPreferences = getContext().getSharedPreferences(MainActivity.SHARED_PREFERENCES,
-                MainActivity.MODE_PRIVATE);
+    @Override
+    public void openShelfOptions(int position) {
+        String name = shelfNames.get(position);
+        boolean canRename = !name.equals(DatabaseHelper.DEFAULT_SHELF);
+        String[] options = {"Mark all read", "Mark all not read", "Move books to...", "Delete all books",
+                "Rename"};
+        if (!canRename) { options = Arrays.copyOf(options, options.length - 1);}
+
+        new AlertDialog.Builder(getContext())
+                .setTitle(name)
+                .setItems(options, (dialogInterface, which) -> {
+                    switch (which) {
+                        case 0:
+                            runShelfAction(signal -> mRepository.setShelfReadStatus(name, true), "Marked read: ");
+                            break;
+                        case 1:
+                            runShelfAction(signal -> mRepository.setShelfReadStatus(name, false), "Marked not read: ");
+                            break;
+                        case 2:
+                            chooseShelfToMoveTo(name);
+                            break;
+                        case 3:
+                            confirmDeleteShelfBooks(name);
+                            break;
+                        default:
+                            renameShelf(name);
+                    }
+                })
+                .show();
+    }
+    //==============================================================================================
 
-        String storedNames = sharedPreferences.getString(MainActivity.SHELVES, "");
-        if (storedNames.length() == 0) { storedNames = "Default";}
+    /**
+     * runShelfAction:
+     *  Runs a bulk shelf action in the background and reports how many books it changed.
+     * @param action   Action returning the number of books changed
+     * @param message  Start of the message shown when done
+     */
+    private void runShelfAction(DatabaseExecutor.Query<Integer> action, String message) {
+        mTasks.submitWrite(action, count ->
+                Toast.makeText(getContext(), message + count + " books", Toast.LENGTH_SHORT).show(),
+                error -> Toast.makeText(getContext(), "Could not change the shelf: " + error.getMessage(),
+                        Toast.LENGTH_LONG).show());
+    }
+    //==============================================================================================
 
-        String[] namesArr = storedNames.split("@",-1);
-        shelfNames = new ArrayList<String>();
+    /**
+     * chooseShelfToMoveTo:
+     *  Asks which shelf the books should be moved to, then moves them all at once.
+     * @param fromName  Shelf to take the books from
+     */
+    private void chooseShelfToMoveTo(String fromName) {
+        ArrayList<String> targets = new ArrayList<>(shelfNames);
+        targets.remove(fromName);
+        String[] targetNames = targets.toArray(new String[0]);
 
-        for (String name : namesArr) { shelfNames.add(name);}
+        new AlertDialog.Builder(getContext())
+                .setTitle("Move books to")
+                .setItems(targetNames, (dialogInterface, which) -> runShelfAction(
+                        signal -> mRepository.moveShelfBooks(fromName, targetNames[which]), "Moved: "))
+                .show();
     }
     //==============================================================================================
 
     /**
-     * deleteItem: (overridden method)
-     *  Deletes the selected shelf name and removes it from the arraylist.
-     * @param position
+     * confirmDeleteShelfBooks:
+     *  Asks before deleting every book on a shelf. The shelf itself is kept.
+     * @param name  Shelf to empty
      */
-    @Override
-    public void deleteItem(int position) {
-        String message = "Removed: " + shelfNames.get(position).toString();
-        Log.d(TAG, "onItemClick-> removing: " + shelfNames.get(position).toString());
-        Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
-        shelfNames.remove(position);
-        listViewAdapter.notifyDataSetChanged();
-        saveShelfName();
+    private void confirmDeleteShelfBooks(String name) {
+        new AlertDialog.Builder(getContext())
+                .setTitle("Delete all books on " + name + "?")
+                .setPositiveButton("Delete", (dialogInterface, which) -> runShelfAction(
+                        signal -> mRepository.deleteShelfBooks(name), "Deleted: "))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+    //==============================================================================================
+
+    /**
+     * renameShelf:
+     *  Asks for a new name for the selected shelf. The books on the shelf move with it; picking the
+     *   name of another shelf merges the two.
+     * @param oldName  Shelf to rename
+     */
+    private void renameShelf(String oldName) {
+        EditText input = new EditText(getContext());
+        input.setText(oldName);
+
+        new AlertDialog.Builder(getContext())
+                .setTitle("Rename shelf")
+                .setView(input)
+                .setPositiveButton("Rename", (dialogInterface, which) -> {
+                    String newName = input.getText().toString();
+                    if (newName.length() == 0) {
+                        Toast.makeText(getContext(), "Must add shelf name!", Toast.LENGTH_LONG).show();
+                        return;
+                    }
+                    Log.d(TAG, "renameShelf: renaming " + oldName + " to " + newName);
+                    mTasks.submitWrite(signal -> mRepository.renameShelf(oldName, newName), renamed -> {
+                        if (renamed) { loadShelfNames();}
+                    });
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
     }
 }
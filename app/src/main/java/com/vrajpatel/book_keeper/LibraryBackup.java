@@ -0,0 +1,435 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * LibraryBackup
+ *  Incremental backups built from the change journal. A backup directory holds one base file
+ *   with every book as of a journal sequence number, followed by a chain of change files, each
+ *   holding the books changed by the journal entries since the previous file. A backup only
+ *   writes the books changed since the end of the chain; once the change files add up to more
+ *   than the base (or MAX_CHANGE_FILES of them), a new base is written and the old files are
+ *   removed, so a restore never replays much more than one copy of the library.
+ *
+ *  Books are written with the values they have when the backup runs, which may be newer than the
+ *   sequence number it is filed under. Replaying a book twice gives the same result, so the
+ *   next change file simply writes it again.
+ *
+ *  Files are JSON (streamed with JsonWriter/JsonReader):
+ *   base-SEQ.json         {"seq": S, "shelves": [...], "books": [{"id", "title", "author", "read", "shelf"}]}
+ *   changes-FROM-TO.json  {"from": F, "to": T, "changes": [{book} or {"id", "deleted": true}]}
+ */
+public class LibraryBackup {
+
+    private static final String TAG = "LibraryBackup";
+
+    static final String DIRECTORY_NAME = "backups";
+    // A new base is written after this many change files, even if they are small
+    static final int MAX_CHANGE_FILES = 20;
+
+    private static final String BASE_PREFIX = "base-";
+    private static final String CHANGES_PREFIX = "changes-";
+    private static final String SUFFIX = ".json";
+
+    private final DatabaseHelper mDatabaseHelper;
+
+    /*-----------------------------------------------------------------------------------
+     * Library: (interface)
+     *  Receives the contents of a backup while it is replayed.
+     */
+    interface Library {
+        void putBook(int id, String title, String author, boolean readStatus, String shelf);
+        void deleteBook(int id);
+        void addShelf(String name);
+    }
+
+    /*-----------------------------------------------------------------------------------
+     * Replay: (interface)
+     *  Feeds a backup into a Library, see DatabaseHelper.restoreLibrary().
+     */
+    interface Replay {
+        void run(Library library) throws IOException;
+    }
+
+    //==============================================================================================
+    public LibraryBackup(DatabaseHelper databaseHelper) {
+        this.mDatabaseHelper = databaseHelper;
+    }
+    //==============================================================================================
+
+    /**
+     * defaultDirectory:
+     *  Directory backups are written to: app storage on the external volume, which is kept apart
+     *   from the database, or internal storage if there is no external volume.
+     * @param context  Context of calling class
+     * @return File of the backup directory
+     */
+    public static File defaultDirectory(Context context) {
+        File base = context.getExternalFilesDir(null);
+        if (base == null) { base = context.getFilesDir();}
+        return new File(base, DIRECTORY_NAME);
+    }
+    //==============================================================================================
+
+    /**
+     * backUp:
+     *  Brings the backup in the directory up to date, writing either a change file or a new base.
+     *   The journal entries that were backed up are trimmed afterwards.
+     * @param directory  Backup directory
+     * @return Result of the backup
+     * @throws IOException if the backup cannot be written
+     */
+    public Result backUp(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        // Taken before any book is read, see the class comment
+        long seq = mDatabaseHelper.getJournalSeq();
+        Chain chain = findChain(directory);
+
+        Result result;
+        if (chain == null || chain.endSeq > seq || chain.changes.size() >= MAX_CHANGE_FILES
+                || chain.changesLength() > chain.base.length()) {
+            result = writeBase(directory, seq);
+            // Everything else is now covered by the new base
+            for (File file : listBackupFiles(directory)) {
+                if (!file.getName().equals(baseName(seq))) { file.delete();}
+            }
+        } else if (seq > chain.endSeq) {
+            result = writeChanges(directory, chain.endSeq, seq);
+        } else {
+            result = new Result(false, 0, seq);
+        }
+        mDatabaseHelper.trimJournal(seq);
+        Log.d(TAG, "backUp: " + (result.base ? "base" : "changes") + " with " + result.books
+                + " books up to " + seq);
+        return result;
+    }
+    //==============================================================================================
+
+    /**
+     * restore:
+     *  Replaces the library with the one in the backup directory: the base, then every change file
+     *   in order. Nothing is changed if any file cannot be read.
+     * @param directory  Backup directory
+     * @return Result of the restore
+     * @throws IOException if there is no backup or it cannot be read
+     */
+    public Result restore(File directory) throws IOException {
+        final Chain chain = findChain(directory);
+        if (chain == null) { throw new FileNotFoundException("No backup in " + directory);}
+        final int[] books = new int[1];
+        mDatabaseHelper.restoreLibrary(library -> {
+            books[0] += readFile(chain.base, library);
+            for (File changes : chain.changes) {
+                books[0] += readFile(changes, library);
+            }
+        }, chain.endSeq);
+        Log.d(TAG, "restore: Replayed " + books[0] + " books up to " + chain.endSeq);
+        return new Result(true, books[0], chain.endSeq);
+    }
+    //==============================================================================================
+
+    private Result writeBase(File directory, long seq) throws IOException {
+        File file = new File(directory, baseName(seq));
+        File temp = new File(directory, file.getName() + ".tmp");
+        Cursor books = mDatabaseHelper.queryBackupBooks();
+        int count = 0;
+        JsonWriter json = openWriter(temp);
+        try {
+            json.beginObject();
+            json.name("seq").value(seq);
+            json.name("shelves").beginArray();
+            for (String shelf : mDatabaseHelper.getShelfNames()) { json.value(shelf);}
+            json.endArray();
+            json.name("books").beginArray();
+            while (books.moveToNext()) {
+                writeBook(json, books);
+                count++;
+            }
+            json.endArray();
+            json.endObject();
+        } finally {
+            json.close();
+            books.close();
+        }
+        moveIntoPlace(temp, file);
+        return new Result(true, count, seq);
+    }
+    //==============================================================================================
+
+    private Result writeChanges(File directory, long fromSeq, long toSeq) throws IOException {
+        File file = new File(directory, changesName(fromSeq, toSeq));
+        File temp = new File(directory, file.getName() + ".tmp");
+        Cursor books = mDatabaseHelper.queryJournalChanges(fromSeq, toSeq);
+        int count = 0;
+        JsonWriter json = openWriter(temp);
+        try {
+            json.beginObject();
+            json.name("from").value(fromSeq);
+            json.name("to").value(toSeq);
+            json.name("changes").beginArray();
+            int colID = books.getColumnIndexOrThrow(DatabaseHelper.COL_ID);
+            int colTitle = books.getColumnIndexOrThrow(DatabaseHelper.COL_TITLE);
+            while (books.moveToNext()) {
+                if (books.isNull(colTitle)) {
+                    json.beginObject().name("id").value(books.getInt(colID)).name("deleted").value(true)
+                            .endObject();
+                } else {
+                    writeBook(json, books);
+                }
+                count++;
+            }
+            json.endArray();
+            json.endObject();
+        } finally {
+            json.close();
+            books.close();
+        }
+        moveIntoPlace(temp, file);
+        return new Result(false, count, toSeq);
+    }
+    //==============================================================================================
+
+    private static void writeBook(JsonWriter json, Cursor books) throws IOException {
+        json.beginObject();
+        json.name("id").value(books.getInt(books.getColumnIndexOrThrow(DatabaseHelper.COL_ID)));
+        json.name("title").value(books.getString(books.getColumnIndexOrThrow(DatabaseHelper.COL_TITLE)));
+        int colAuthor = books.getColumnIndexOrThrow(DatabaseHelper.COL_AUTHOR);
+        if (!books.isNull(colAuthor)) { json.name("author").value(books.getString(colAuthor));}
+        json.name("read").value(books.getInt(books.getColumnIndexOrThrow(DatabaseHelper.COL_IS_READ)) == 1);
+        json.name("shelf").value(books.getString(books.getColumnIndexOrThrow(DatabaseHelper.COL_SHELF_NAME)));
+        json.endObject();
+    }
+    //==============================================================================================
+
+    // Replays one backup file into the library, returns the number of book entries in it
+    private static int readFile(File file, Library library) throws IOException {
+        JsonReader json = new JsonReader(new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"), 64 * 1024));
+        int count = 0;
+        try {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (name.equals("shelves")) {
+                    json.beginArray();
+                    while (json.hasNext()) { library.addShelf(json.nextString());}
+                    json.endArray();
+                } else if (name.equals("books") || name.equals("changes")) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        readBook(json, library);
+                        count++;
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        } finally {
+            json.close();
+        }
+        return count;
+    }
+    //==============================================================================================
+
+    private static void readBook(JsonReader json, Library library) throws IOException {
+        int id = -1;
+        String title = null;
+        String author = null;
+        String shelf = null;
+        boolean readStatus = false;
+        boolean deleted = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.skipValue();
+            } else if (name.equals("id")) {
+                id = json.nextInt();
+            } else if (name.equals("title")) {
+                title = json.nextString();
+            } else if (name.equals("author")) {
+                author = json.nextString();
+            } else if (name.equals("read")) {
+                readStatus = json.nextBoolean();
+            } else if (name.equals("shelf")) {
+                shelf = json.nextString();
+            } else if (name.equals("deleted")) {
+                deleted = json.nextBoolean();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (id < 0 || (!deleted && title == null)) { throw new IOException("Invalid book entry");}
+        if (deleted) {
+            library.deleteBook(id);
+        } else {
+            library.putBook(id, title, author, readStatus, shelf);
+        }
+    }
+    //==============================================================================================
+
+    private static JsonWriter openWriter(File file) throws IOException {
+        return new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8"), 64 * 1024));
+    }
+    //==============================================================================================
+
+    private static void moveIntoPlace(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+    //==============================================================================================
+
+    private static String baseName(long seq) {
+        return String.format(Locale.US, "%s%020d%s", BASE_PREFIX, seq, SUFFIX);
+    }
+
+    private static String changesName(long fromSeq, long toSeq) {
+        return String.format(Locale.US, "%s%020d-%020d%s", CHANGES_PREFIX, fromSeq, toSeq, SUFFIX);
+    }
+    //==============================================================================================
+
+    private static ArrayList<File> listBackupFiles(File directory) {
+        ArrayList<File> files = new ArrayList<>();
+        File[] all = directory.listFiles();
+        if (all == null) { return files;}
+        for (File file : all) {
+            String name = file.getName();
+            if (name.startsWith(BASE_PREFIX) || name.startsWith(CHANGES_PREFIX)) { files.add(file);}
+        }
+        return files;
+    }
+    //==============================================================================================
+
+    /**
+     * findChain:
+     *  Finds the newest base file and the unbroken run of change files that follows it.
+     * @param directory  Backup directory
+     * @return Chain, or null if there is no base
+     */
+    private static Chain findChain(File directory) {
+        Chain chain = null;
+        ArrayList<File> changes = new ArrayList<>();
+        for (File file : listBackupFiles(directory)) {
+            String name = file.getName();
+            if (!name.endsWith(SUFFIX)) { continue;}
+            String seqs = name.substring(0, name.length() - SUFFIX.length());
+            try {
+                if (name.startsWith(BASE_PREFIX)) {
+                    long seq = Long.parseLong(seqs.substring(BASE_PREFIX.length()));
+                    if (chain == null || seq > chain.endSeq) { chain = new Chain(file, seq);}
+                } else {
+                    changes.add(file);
+                }
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "findChain: Ignoring " + name);
+            }
+        }
+        if (chain == null) { return null;}
+
+        // Follow the change files from the base, each starts where the previous one ended
+        boolean extended = true;
+        while (extended) {
+            extended = false;
+            String prefix = String.format(Locale.US, "%s%020d-", CHANGES_PREFIX, chain.endSeq);
+            for (File file : changes) {
+                String name = file.getName();
+                if (!name.startsWith(prefix)) { continue;}
+                try {
+                    long toSeq = Long.parseLong(name.substring(prefix.length(),
+                            name.length() - SUFFIX.length()));
+                    if (toSeq <= chain.endSeq) { continue;}
+                    chain.endSeq = toSeq;
+                    chain.changes.add(file);
+                    extended = true;
+                    break;
+                } catch (NumberFormatException e) {
+                    Log.e(TAG, "findChain: Ignoring " + name);
+                }
+            }
+        }
+        return chain;
+    }
+    //==============================================================================================
+
+    /**
+     * Chain
+     *  A base file and the change files that follow it, up to endSeq.
+     */
+    private static class Chain {
+        final File base;
+        final ArrayList<File> changes = new ArrayList<>();
+        long endSeq;
+
+        Chain(File base, long baseSeq) {
+            this.base = base;
+            this.endSeq = baseSeq;
+        }
+
+        long changesLength() {
+            long length = 0;
+            for (File file : changes) { length += file.length();}
+            return length;
+        }
+    }
+
+    /**
+     * Result
+     *  Outcome of a backup or restore.
+     */
+    public static class Result {
+        private final boolean base;     // a full copy was written or restored
+        private final int books;        // book entries written or replayed
+        private final long seq;         // journal sequence number the backup reaches
+
+        Result(boolean base, int books, long seq) {
+            this.base = base;
+            this.books = books;
+            this.seq = seq;
+        }
+
+        public boolean isBase() {return base;}
+        public int getBooks() {return books;}
+        public long getSeq() {return seq;}
+    }
+}
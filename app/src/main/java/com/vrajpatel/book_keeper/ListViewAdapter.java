@@ -37,6 +37,7 @@ public class ListViewAdapter extends ArrayAdapter<String> {
     private final int mResource;
     private final ArrayList<String> shelfNames;
     private final onDeleteIconPressListener deleteIconPressListener;
+    private final onShelfNamePressListener shelfNamePressListener;
 
     //==============================================================================================
     /**
@@ -46,21 +47,26 @@ public class ListViewAdapter extends ArrayAdapter<String> {
      * @param resource                  Resource identification
      * @param objects                   Objects that will be used in the list
      * @param deleteIconPressListener   Delete handler
+     * @param shelfNamePressListener    Shelf options handler
      */
     public ListViewAdapter(@NonNull Context context, int resource, @NonNull ArrayList<String> objects,
-                           onDeleteIconPressListener deleteIconPressListener) {
+                           onDeleteIconPressListener deleteIconPressListener,
+                           onShelfNamePressListener shelfNamePressListener) {
         super(context, resource, objects);
         mContext = context;
         mResource = resource;
         this.shelfNames = objects;
         this.deleteIconPressListener = deleteIconPressListener;
+        this.shelfNamePressListener = shelfNamePressListener;
     }
     //==============================================================================================
 
     /**
      * getView: (overridden method)
      *  Fills in the values corresponding the layout in use for the listview adapter class with
-     *   the shelf name/location. The delete icon is only added for user added items.
+     *   the shelf name/location. Tapping the name opens the shelf's options, the delete icon is
+     *   only shown for user added items. A recycled row may have shown any other shelf, so the
+     *   icon's visibility and listener are set either way.
      * @param position          Position of the list item
      * @param convertView       Convert View
      * @param parent            Parent Layout
@@ -71,17 +77,22 @@ public class ListViewAdapter extends ArrayAdapter<String> {
     public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
         String location = getItem(position);
 
-        LayoutInflater inflater = LayoutInflater.from(mContext);
-        convertView = inflater.inflate(mResource, parent, false);
+        if (convertView == null) {
+            LayoutInflater inflater = LayoutInflater.from(mContext);
+            convertView = inflater.inflate(mResource, parent, false);
+        }
 
         TextView tvLocation = convertView.findViewById(R.id.listview_shelf_name);
         tvLocation.setText(location);
         ImageButton deleteIcon = convertView.findViewById(R.id.listview_shelf_delete);
         Log.e(TAG, "getView: Adding: " + location);
+        tvLocation.setOnClickListener(v -> shelfNamePressListener.openShelfOptions(position));
         if (!location.equals("Default")) {
+            deleteIcon.setVisibility(View.VISIBLE);
             deleteIcon.setOnClickListener(v -> deleteIconPressListener.deleteItem(position));
         } else {
             deleteIcon.setVisibility(View.INVISIBLE);
+            deleteIcon.setOnClickListener(null);
         }
 
         return convertView;
@@ -116,4 +127,9 @@ public class ListViewAdapter extends ArrayAdapter<String> {
     public interface onDeleteIconPressListener {
         void deleteItem(int position);
     }
+
+    // Interface used to help facilitate renaming and the bulk actions on a shelf
+    public interface onShelfNamePressListener {
+        void openShelfOptions(int position);
+    }
 }
@@ -26,6 +26,9 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.MenuItem;
 
+import java.io.File;
+import java.io.IOException;
+
 import com.google.android.material.navigation.NavigationBarView;
 
 public class MainActivity extends AppCompatActivity {
@@ -64,6 +67,36 @@ public class MainActivity extends AppCompatActivity {
         getSupportFragmentManager().beginTransaction().replace(R.id.container_frags,
                 new FragBookView()).commit();
 
+        // Clear out books deleted in an earlier session once the app has settled
+        BookRepository.getInstance(this).schedulePurge();
+        DatabaseMaintenance.schedule(this);
+
+    }
+    //==============================================================================================
+
+    /**
+     * onStop: (overridden method)
+     *  Commits any queued edits and backs up the changes made while the app was open. Only the
+     *   books that changed since the last backup are written, so this is cheap when little has
+     *   changed. Below API 21 this is also where database maintenance is started, see
+     *   DatabaseMaintenance.runIfDue().
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        BookRepository repository = BookRepository.getInstance(this);
+        File directory = LibraryBackup.defaultDirectory(this);
+        // Queued edits are committed before the app may be killed in the background
+        DatabaseExecutor.getInstance().submitWrite(repository::flushWrites, null);
+        DatabaseExecutor.getInstance().submitWrite(signal -> {
+            try {
+                return repository.backUp(directory);
+            } catch (IOException e) {
+                Log.e(TAG, "onStop: Backup failed", e);
+                return null;
+            }
+        }, null);
+        DatabaseMaintenance.runIfDue(this);
     }
     //==============================================================================================
 
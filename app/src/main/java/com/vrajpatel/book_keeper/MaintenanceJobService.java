@@ -0,0 +1,96 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * MaintenanceJobService
+ *  Runs DatabaseMaintenance once a day while the device is idle and charging. The work runs on
+ *   the DatabaseExecutor; if the system stops the job it is cancelled between steps and
+ *   rescheduled.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class MaintenanceJobService extends JobService {
+
+    private static final int JOB_ID = 1;
+
+    private CancellationSignal task;
+
+    //==============================================================================================
+    /**
+     * schedule:
+     *  Registers the daily job unless it is already pending. The job is persisted, so it survives
+     *   a reboot without the app being opened again.
+     * @param context  Context of calling class
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) { return;}
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) { return;}
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(DatabaseMaintenance.INTERVAL_MS)
+                .setPersisted(true)
+                .build());
+    }
+    //==============================================================================================
+
+    /**
+     * onStartJob: (overridden method)
+     *  Starts maintenance on the write lane, since it vacuums and checkpoints, and reports the
+     *   job finished once it is done. If maintenance fails or cannot be queued the job is
+     *   reported finished with a retry, so JobScheduler runs it again later.
+     * @param params  Parameters of the job
+     * @return boolean  True, the work carries on after returning
+     */
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final DatabaseMaintenance maintenance = new DatabaseMaintenance(DatabaseHelper.getInstance(this));
+        task = DatabaseExecutor.getInstance().submitWrite(maintenance::run,
+                report -> jobFinished(params, false),
+                error -> jobFinished(params, true));
+        return true;
+    }
+    //==============================================================================================
+
+    /**
+     * onStopJob: (overridden method)
+     *  Called when the device is no longer idle or charging. Stops maintenance after the current
+     *   step.
+     * @param params  Parameters of the job
+     * @return boolean  True, so the job runs again later
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (task != null) { task.cancel();}
+        return true;
+    }
+    //==============================================================================================
+}
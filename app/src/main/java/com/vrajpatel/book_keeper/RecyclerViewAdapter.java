@@ -17,13 +17,14 @@
 package com.vrajpatel.book_keeper;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
 import android.os.Build;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.Filter;
-import android.widget.Filterable;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.PopupMenu;
@@ -31,23 +32,33 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 
 import java.util.ArrayList;
 import java.util.List;
 
-public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.MyViewHolder> implements Filterable {
+public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.MyViewHolder> {
 
-    private final ArrayList<BookModel> books;
-    private final ArrayList<BookModel> allBooks;   // will hold all the books that are present
+    // List mode: the books shown, diffed against the previous list off the UI thread
+    private final AsyncListDiffer<BookModel> books;
+    private List<BookModel> latestBooks;    // Last list submitted, ahead of books while diffing
     private final Context mContext;
     private final onDeleteCallListener deleteCallListener;
     private final onEditCallListener editCallListener;
 
-    // Search filter booleans
-    private boolean read;
-    private boolean notRead;
+    // Cursor mode: rows are bound straight from the cursor, column indices are looked up once
+    private Cursor mCursor;
+    private int colTitle, colAuthor, colIsRead, colShelf;
+
+    // Rows mode: the rows loaded by a BookPager, bound from the cursors of their pages
+    private BookRows mRows;
+    private boolean rowColumnsKnown;    // col* hold the indices of the pages' columns
+    private final ListUpdateCallback rowUpdates = new ListUpdates(true);
 
     //====================================- View Holder Class -=====================================
     class MyViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener,
@@ -59,6 +70,11 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapte
         ImageButton moreOptions;       // Clickable feature on the recycler view
         ImageView readIcon;            // Item in layout to set check mark
 
+        // Reused for every row bound from a cursor so that binding does not allocate strings
+        final CharArrayBuffer titleBuffer = new CharArrayBuffer(64);
+        final CharArrayBuffer authorBuffer = new CharArrayBuffer(64);
+        final CharArrayBuffer shelfBuffer = new CharArrayBuffer(32);
+
         //==========================================================================================
         /**
          * MyViewHolder:
@@ -141,12 +157,12 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapte
     public RecyclerViewAdapter(ArrayList<BookModel> books, Context mContext,
                                onDeleteCallListener deleteCallListener,
                                onEditCallListener editCallListener) {
-        this.books = books;
-        this.allBooks = new ArrayList<>(books);
+        this.books = new AsyncListDiffer<>(new ListUpdates(false),
+                new AsyncDifferConfig.Builder<>(SAME_BOOK).build());
+        submit(books);
         this.mContext = mContext;
         this.deleteCallListener = deleteCallListener;
         this.editCallListener = editCallListener;
-        read = notRead = true;
     }
     //==============================================================================================
 
@@ -169,17 +185,36 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapte
     /**
      * onBindViewHolder: (overridden method)
      *  Attaches the content to the view using the ViewHolder class. Sets all respective fields in
-     *   the layout file with the information from the list of books.
+     *   the layout file with the information from the list of books, or from the cursor's
+     *   current window in cursor mode and the window of the row's page in rows mode.
      * @param holder    Item that holds the view
      * @param position  Position of item.
      */
     @Override
     public void onBindViewHolder(@NonNull MyViewHolder holder, int position) {
+        if (mCursor != null) {
+            mCursor.moveToPosition(position);
+            bindFromCursor(holder, mCursor);
+            return;
+        }
+        BookModel book;
+        if (mRows != null) {
+            Cursor row = mRows.moveTo(position);
+            if (row != null) {
+                if (!rowColumnsKnown) { rowColumnsKnown = lookUpColumns(row);}
+                bindFromCursor(holder, row);
+                return;
+            }
+            // Changed since its page was loaded
+            book = mRows.getBook(position);
+        } else {
+            book = books.getCurrentList().get(position);
+        }
         // Insert the information from each book into the slots
-        holder.tvTitleField.setText(books.get(position).getTitle());
-        holder.tvAuthorField.setText(books.get(position).getAuthor());
-        holder.tvLocationField.setText(books.get(position).getShelfLocation());
-        if (books.get(position).getReadStatus()) {
+        holder.tvTitleField.setText(book.getTitle());
+        holder.tvAuthorField.setText(book.getAuthor());
+        holder.tvLocationField.setText(book.getShelfLocation());
+        if (book.getReadStatus()) {
             holder.readIcon.setImageResource(R.drawable.bookview_check_icon);
         } else {
             holder.readIcon.setImageResource(R.drawable.shape_empty_box);
@@ -187,102 +222,261 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapte
     }
     //==============================================================================================
 
+    /**
+     * bindFromCursor:
+     *  Copies the row's characters into the holder's buffers and shows them from there, so no
+     *   String or BookModel is created while scrolling.
+     * @param holder  Item that holds the view
+     * @param cursor  Cursor positioned on the row
+     */
+    private void bindFromCursor(MyViewHolder holder, Cursor cursor) {
+        setText(holder.tvTitleField, cursor, colTitle, holder.titleBuffer);
+        setText(holder.tvAuthorField, cursor, colAuthor, holder.authorBuffer);
+        setText(holder.tvLocationField, cursor, colShelf, holder.shelfBuffer);
+        if (cursor.getInt(colIsRead) == 1) {
+            holder.readIcon.setImageResource(R.drawable.bookview_check_icon);
+        } else {
+            holder.readIcon.setImageResource(R.drawable.shape_empty_box);
+        }
+    }
+
+    private void setText(TextView view, Cursor cursor, int column, CharArrayBuffer buffer) {
+        cursor.copyStringToBuffer(column, buffer);
+        view.setText(buffer.data, 0, buffer.sizeCopied);
+    }
+    //==============================================================================================
+
     /**
      * getItemCount: (overridden method)
-     *  This will return the number of items stored in the list that will be displayed in the
-     *   recycler view.
+     *  This will return the number of items stored in the list (or the cursor, or the rows) that
+     *   will be displayed in the recycler view.
      * @return count of books.
      */
     @Override
     public int getItemCount() {
-        return books.size();
+        if (mCursor != null) { return mCursor.getCount();}
+        return mRows != null ? mRows.size() : books.getCurrentList().size();
     }
     //==============================================================================================
 
     /**
-     * provideFilters:
-     *  This will reset/update the filter requirements that are sent in by the search fragment.
-     * @param read     boolean option reflecting user choice
-     * @param notRead  boolean option reflecting user choice
-     * @param currStr  current search item in the view.
+     * swapCursor:
+     *  Switches the adapter to cursor mode and shows the rows of the given cursor, such as the
+     *   snapshot from BookRepository.openSnapshot(). The previous cursor is closed. Passing null
+     *   closes the current cursor and goes back to showing the rows or the list of books.
+     * @param cursor  Cursor over the books to show, may be null
      */
-    public void provideFilters(boolean read, boolean notRead, String currStr) {
-        this.read = read;
-        this.notRead = notRead;
-        getFilter().filter(currStr);
+    public void swapCursor(Cursor cursor) {
+        if (setCursor(cursor)) {
+            notifyDataSetChanged();
+        }
     }
     //==============================================================================================
 
-    //======================================-Filter Requests-=======================================
+    /**
+     * showRows:
+     *  Switches the adapter to rows mode and shows the rows loaded by a BookPager, bound straight
+     *   from the windows of their pages. Closes the cursor of cursor mode. Rows the pager adds,
+     *   removes or changes later are passed on through getRowUpdates(), so showing the same rows
+     *   again does nothing and only new rows rebind every row. The rows stay owned by the pager.
+     * @param rows  Rows to show
+     */
+    public void showRows(BookRows rows) {
+        if (rows == mRows && mCursor == null) { return;}
+        // Drops the list, any diff still running lands without updating the rows
+        books.submitList(null);
+        latestBooks = new ArrayList<>();
+        mRows = rows;
+        rowColumnsKnown = false;
+        setCursor(null);
+        notifyDataSetChanged();
+    }
+    //==============================================================================================
 
     /**
-     * getFilter:
-     *  Create the initial filter request. Filtering will occur on the back thread to prevent
-     *   the app from slowing down when filtering large quantities.
-     * @return Initial filter request.
+     * getRowUpdates:
+     *  Returns the callback a BookPager passes its row updates to. They are only passed on to
+     *   the RecyclerView while its rows are shown.
+     * @return ListUpdateCallback for the pager
      */
-    @Override
-    public Filter getFilter() {
-        return searchFilter;
+    public ListUpdateCallback getRowUpdates() {
+        return rowUpdates;
     }
     //==============================================================================================
 
     /**
-     * searchFilter:
-     *  Performs the filtering and provides feedback to the UI fragment (search fragment) after
-     *   providing any user provided search constraints.
+     * applyChanges:
+     *  Updates the rows of the list of books (not cursor or rows mode) for changes published by the
+     *   repository: edited books are replaced by their new values and removed books taken out.
+     *   Books that were added are not shown until the list is filtered again. Works from the last
+     *   list submitted rather than the one on screen, so a change that arrives while a diff is
+     *   still running is not lost when the diff lands.
+     * @param changes  Changes of one commit, without RELOADED
      */
-    private final Filter searchFilter = new Filter() {
-        // Executing on the background thread
-        @Override
-        protected FilterResults performFiltering(CharSequence constraint) {
-            ArrayList<BookModel> filteredList;
-
-            if (constraint == null || constraint.length() == 0) {
-                filteredList = new ArrayList<>(generateSearchResults(""));
-            } else {
-                String filterQuery = constraint.toString().toLowerCase().trim();
-                filteredList = generateSearchResults(filterQuery);
+    public void applyChanges(List<BookChange> changes) {
+        if (mCursor != null || mRows != null) { return;}
+        ArrayList<BookModel> kept = null;
+        for (BookChange change : changes) {
+            int index = indexOf(kept != null ? kept : latestBooks, change.getBookID());
+            if (index < 0) { continue;}
+            if (kept == null) { kept = new ArrayList<>(latestBooks);}
+            if (change.getType() == BookChange.Type.REMOVED) {
+                kept.remove(index);
+            } else if (change.getType() == BookChange.Type.UPDATED) {
+                kept.set(index, change.getAfter());
             }
-            FilterResults results = new FilterResults();
-            results.values = filteredList;
-            return results;
         }
+        if (kept != null) { submit(kept);}
+    }
+    //==============================================================================================
 
-        // Results automatically published
-        @Override
-        protected void publishResults(CharSequence constraint, FilterResults results) {
-            books.clear();
-            books.addAll((List<BookModel>) results.values);
-            notifyDataSetChanged();
+    /**
+     * restoreBook:
+     *  Puts a book whose delete was undone back into the list of books, at the position it had.
+     *   Does nothing if the last list submitted already holds it, or in cursor or rows mode.
+     * @param book      Book that was restored
+     * @param position  Position the book was shown at
+     */
+    public void restoreBook(BookModel book, int position) {
+        if (mCursor != null || mRows != null) { return;}
+        if (indexOf(latestBooks, book.getID()) >= 0) { return;}
+        ArrayList<BookModel> restored = new ArrayList<>(latestBooks);
+        restored.add(Math.min(position, restored.size()), book);
+        submit(restored);
+    }
+
+    private static int indexOf(List<BookModel> list, int id) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).getID() == id) { return i;}
         }
-    };
+        return -1;
+    }
+
+    // Keeps the list being submitted, the differ only shows it once the diff is done
+    private void submit(List<BookModel> list) {
+        latestBooks = list;
+        books.submitList(list);
+    }
+    //==============================================================================================
+
+    // Closes the previous cursor and looks up the column indices, false if nothing changed
+    private boolean setCursor(Cursor cursor) {
+        if (cursor == mCursor) { return false;}
+        if (mCursor != null) { mCursor.close();}
+        mCursor = cursor;
+        if (cursor != null) { lookUpColumns(cursor);}
+        // The pages' columns are looked up again when the rows are shown next
+        rowColumnsKnown = false;
+        return true;
+    }
+
+    private boolean lookUpColumns(Cursor cursor) {
+        colTitle = cursor.getColumnIndexOrThrow(DatabaseHelper.COL_TITLE);
+        colAuthor = cursor.getColumnIndexOrThrow(DatabaseHelper.COL_AUTHOR);
+        colIsRead = cursor.getColumnIndexOrThrow(DatabaseHelper.COL_IS_READ);
+        colShelf = cursor.getColumnIndexOrThrow(DatabaseHelper.COL_SHELF_NAME);
+        return true;
+    }
     //==============================================================================================
 
     /**
-     * generateSearchResults:
-     *  Helper function that narrows down the search results and applies any filter constraints.
-     * @param query Search/Filter query entered by user.
-     * @return Arraylist of filtered books
+     * getBook:
+     *  Returns the book shown at a position. In cursor and rows mode the book is only built now,
+     *   e.g. when the user opens the edit popup. Nothing is looked up in the repository, so this
+     *   never waits on its lock.
+     * @param position  Position of item.
+     * @return BookModel shown at that position
      */
-    private ArrayList<BookModel> generateSearchResults(String query) {
-        ArrayList<BookModel> searchFinds = new ArrayList<>();
-        for (BookModel book : allBooks) {
-            // Implement with shared preferences here??
-            if (book.getTitle().toLowerCase().contains(query) ||
-                    book.getAuthor().toLowerCase().contains(query)) {
-                if (read && book.getReadStatus()) {
-                    searchFinds.add(book);
-                }
-                if (notRead && !book.getReadStatus()) {
-                    searchFinds.add(book);
-                }
-            }
+    public BookModel getBook(int position) {
+        if (mCursor != null) {
+            mCursor.moveToPosition(position);
+            return DatabaseHelper.readBook(mCursor);
+        }
+        return mRows != null ? mRows.getBook(position) : books.getCurrentList().get(position);
+    }
+    //==============================================================================================
+
+    /**
+     * showResults:
+     *  Shows a list of books, such as the results of a search (see SearchPipeline). Only the rows
+     *   that differ are updated once the new list has been diffed against the shown one in the
+     *   background. In cursor or rows mode the cursor is closed and every row rebound instead.
+     * @param results  Books to show, not modified by the adapter
+     */
+    public void showResults(List<BookModel> results) {
+        if (mCursor == null && mRows == null) {
+            submit(results);
+            return;
+        }
+        // Without a current list the differ takes the new one straight away, and its row updates
+        //  are not passed on while the cursor or the rows are still shown
+        books.submitList(null);
+        submit(results);
+        mRows = null;
+        setCursor(null);
+        notifyDataSetChanged();
+    }
+    //==============================================================================================
+
+    /*-----------------------------------------------------------------------------------
+     * ListUpdates:
+     *  Passes the row updates of the differ, or of a BookPager's rows, on to the RecyclerView
+     *   while the rows they are about are the ones shown.
+     */
+    private class ListUpdates implements ListUpdateCallback {
+        private final boolean forRows;
+
+        ListUpdates(boolean forRows) {
+            this.forRows = forRows;
+        }
+
+        private boolean isShown() {
+            return mCursor == null && (mRows != null) == forRows;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            if (isShown()) { notifyItemRangeInserted(position, count);}
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            if (isShown()) { notifyItemRangeRemoved(position, count);}
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            if (isShown()) { notifyItemMoved(fromPosition, toPosition);}
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            if (isShown()) { notifyItemRangeChanged(position, count, payload);}
         }
-        return searchFinds;
     }
     //==============================================================================================
 
+    /**
+     * SAME_BOOK:
+     *  Tells the differ that two entries are the same book by ID, and that it needs rebinding if
+     *   a shown field differs. Books are never edited in place, an edit arrives as a new copy.
+     */
+    private static final DiffUtil.ItemCallback<BookModel> SAME_BOOK = new DiffUtil.ItemCallback<BookModel>() {
+        @Override
+        public boolean areItemsTheSame(BookModel oldBook, BookModel newBook) {
+            return oldBook.getID() == newBook.getID();
+        }
+
+        @Override
+        public boolean areContentsTheSame(BookModel oldBook, BookModel newBook) {
+            return oldBook == newBook || (TextUtils.equals(oldBook.getTitle(), newBook.getTitle())
+                    && TextUtils.equals(oldBook.getAuthor(), newBook.getAuthor())
+                    && TextUtils.equals(oldBook.getShelfLocation(), newBook.getShelfLocation())
+                    && oldBook.getReadStatus() == newBook.getReadStatus());
+        }
+    };
+    //==============================================================================================
+
     /*-----------------------------------------------------------------------------------
      * onDeleteCallListener: (interface)
      *  Must be implemented in the Fragments/Activities that use this custom adapter.
@@ -0,0 +1,267 @@
+//****************************************************************************************
+//* Copyright (c) 2022 Vraj Patel <vrajpatel098@gmail.com>                               *
+//*                                                                                      *
+//* This program is free software; you can redistribute it and/or modify it under        *
+//* the terms of the GNU General Public License as published by the Free Software        *
+//* Foundation; either version 3 of the License, or (at your option) any later           *
+//* version.                                                                             *
+//*                                                                                      *
+//* This program is distributed in the hope that it will be useful, but WITHOUT ANY      *
+//* WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A      *
+//* PARTICULAR PURPOSE. See the GNU General Public License for more details.             *
+//*                                                                                      *
+//* You should have received a copy of the GNU General Public License along with         *
+//* this program.  If not, see <http://www.gnu.org/licenses/>.                           *
+//****************************************************************************************/
+
+package com.vrajpatel.book_keeper;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SearchPipeline
+ *  Runs the searches of the search page. Typed queries are debounced: a search only starts once
+ *   the user has stopped typing for the debounce window, so a burst of keystrokes costs one
+ *   search. Every search runs on the database executor and is cancelled as soon as a newer one
+ *   is requested; the scans check the signal as they go, so a search that is no longer wanted
+ *   stops early and its results are never delivered after those of a newer query.
+ *
+ *  Results of the previous queries are kept while the user types: a query that extends one of
+ *   them only filters its results if they are fewer than the books an index lookup would check,
+ *   and going back to one (backspace) returns them as they are. An empty query matches every
+ *   book and is never kept, it would only be slower to filter than the index. The results are
+ *   dropped when the read filters or the books change. Typo tolerant searches (see
+ *   BookRepository.fuzzySearchBooks()) are not narrowed this way, a longer query can match
+ *   books a shorter one did not.
+ *
+ *  Each result reports how long the search took and how long after the request it was
+ *   delivered, which is also logged, to tune the debounce window for large libraries.
+ */
+class SearchPipeline {
+
+    private static final String TAG = "SearchPipeline";
+
+    static final long DEFAULT_DEBOUNCE_MS = 250;
+    private static final int MAX_SEARCH_STEPS = 32;
+
+    /*-----------------------------------------------------------------------------------
+     * Result:
+     *  The books matching one query, with the time it took to find them.
+     */
+    static class Result {
+        private final String query;
+        private final List<BookModel> books;
+        private final boolean fuzzy;
+        private final boolean refined;
+        private final long searchMs;
+        private long latencyMs;
+
+        private Result(String query, List<BookModel> books, boolean fuzzy, boolean refined, long searchMs) {
+            this.query = query;
+            this.books = books;
+            this.fuzzy = fuzzy;
+            this.refined = refined;
+            this.searchMs = searchMs;
+        }
+
+        String getQuery() { return query;}
+        // Shared with the cached steps, must not be modified
+        List<BookModel> getBooks() { return books;}
+        // True if books matching with typos were included, best matches first
+        boolean isFuzzy() { return fuzzy;}
+        // True if an earlier query's results were reused instead of searching every book
+        boolean isRefined() { return refined;}
+        // Time spent searching on the background thread
+        long getSearchMs() { return searchMs;}
+        // Time from the request, before the debounce, until the results reached the UI thread
+        long getLatencyMs() { return latencyMs;}
+    }
+
+    /*-----------------------------------------------------------------------------------
+     * SearchStep:
+     *  A query and the books it matched.
+     */
+    private static final class SearchStep {
+        final String query;
+        final List<BookModel> results;
+
+        SearchStep(String query, List<BookModel> results) {
+            this.query = query;
+            this.results = results;
+        }
+    }
+
+    private final BookRepository mRepository;
+    private final DatabaseExecutor.Callback<Result> callback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long debounceMs;
+
+    // Only used on the UI thread
+    private Runnable pending;              // search waiting for the debounce window to pass
+    private CancellationSignal running;    // search submitted to the executor
+
+    // Searches of the query being typed, each extending the one before it. Guarded by steps.
+    private final ArrayList<SearchStep> steps = new ArrayList<>();
+    private boolean stepsRead, stepsNotRead;    // filters the steps were searched with
+    private int stepsWriteCount;                // BookRepository.getWriteCount() at the time
+
+    //==============================================================================================
+    /**
+     * SearchPipeline:
+     * @param repository  Repository holding the books and their search index
+     * @param debounceMs  Time to wait after a typed query before searching
+     * @param callback    Receives the results on the UI thread
+     */
+    SearchPipeline(BookRepository repository, long debounceMs, DatabaseExecutor.Callback<Result> callback) {
+        this.mRepository = repository;
+        this.debounceMs = debounceMs;
+        this.callback = callback;
+    }
+    //==============================================================================================
+
+    void setDebounceMs(long debounceMs) {
+        this.debounceMs = debounceMs;
+    }
+    //==============================================================================================
+
+    /**
+     * search:
+     *  Searches once no newer query has arrived for the debounce window, e.g. while typing.
+     *   Must be called from the UI thread.
+     * @param query    Search text entered by the user
+     * @param read     Include books that have been read
+     * @param notRead  Include books that have not been read
+     * @param fuzzy    Include books matching the query with a few typos
+     */
+    void search(String query, boolean read, boolean notRead, boolean fuzzy) {
+        start(query, read, notRead, fuzzy, debounceMs);
+    }
+    //==============================================================================================
+
+    /**
+     * searchNow:
+     *  Searches straight away, e.g. after the filters changed or the books were reloaded. Must be
+     *   called from the UI thread.
+     * @param query    Search text entered by the user
+     * @param read     Include books that have been read
+     * @param notRead  Include books that have not been read
+     * @param fuzzy    Include books matching the query with a few typos
+     */
+    void searchNow(String query, boolean read, boolean notRead, boolean fuzzy) {
+        start(query, read, notRead, fuzzy, 0);
+    }
+    //==============================================================================================
+
+    /**
+     * cancel:
+     *  Drops the waiting search and stops the running one, its results are not delivered. Must
+     *   be called from the UI thread.
+     */
+    void cancel() {
+        if (pending != null) {
+            mainHandler.removeCallbacks(pending);
+            pending = null;
+        }
+        if (running != null) {
+            running.cancel();
+            running = null;
+        }
+    }
+    //==============================================================================================
+
+    private void start(String query, final boolean read, final boolean notRead, final boolean fuzzy,
+                       long delay) {
+        cancel();
+        final long requestedAt = SystemClock.uptimeMillis();
+        final String normalized = query == null ? "" : query.toLowerCase().trim();
+        pending = () -> {
+            pending = null;
+            final CancellationSignal[] task = new CancellationSignal[1];
+            task[0] = DatabaseExecutor.getInstance().submitQuery(
+                    signal -> run(normalized, read, notRead, fuzzy, signal), result -> {
+                        // Cancelled searches never get here, so this is the newest query
+                        if (running == task[0]) { running = null;}
+                        result.latencyMs = SystemClock.uptimeMillis() - requestedAt;
+                        Log.d(TAG, "search: \"" + result.query + "\" matched " + result.books.size()
+                                + " books in " + result.searchMs + " ms" + (result.fuzzy ? " (fuzzy)" : "")
+                                + (result.refined ? " (refined)" : "")
+                                + ", shown " + result.latencyMs + " ms after the request");
+                        callback.onResult(result);
+                    });
+            running = task[0];
+        };
+        if (delay > 0) {
+            mainHandler.postDelayed(pending, delay);
+        } else {
+            pending.run();
+        }
+    }
+    //==============================================================================================
+
+    /**
+     * run:
+     *  Finds the books matching a query on the executor, reusing the results of an earlier query
+     *   that this one extends. Also called directly by tests.
+     * @param query    Lowercase, trimmed search text
+     * @param read     Include books that have been read
+     * @param notRead  Include books that have not been read
+     * @param fuzzy    Include books matching the query with a few typos
+     * @param signal   Stops the search when a newer one is requested
+     * @return Result of the search
+     */
+    Result run(String query, boolean read, boolean notRead, boolean fuzzy, CancellationSignal signal) {
+        long start = SystemClock.uptimeMillis();
+        if (fuzzy) {
+            List<BookModel> results = mRepository.fuzzySearchBooks(query, read, notRead, signal);
+            return new Result(query, results, true, false, SystemClock.uptimeMillis() - start);
+        }
+        synchronized (steps) {
+            // Queued writes are left to the write lane, their commit changes the count later
+            int writeCount = mRepository.getWriteCount();
+            if (read != stepsRead || notRead != stepsNotRead || writeCount != stepsWriteCount) {
+                steps.clear();
+                stepsRead = read;
+                stepsNotRead = notRead;
+                stepsWriteCount = writeCount;
+            }
+            // Every book matches a query without words, not worth keeping as a step to refine
+            if (BookSearchIndex.terms(query).length == 0) {
+                List<BookModel> results = mRepository.searchBooks(query, read, notRead, signal);
+                return new Result(query, results, false, false, SystemClock.uptimeMillis() - start);
+            }
+
+            // Drop the steps the query no longer extends, e.g. after a backspace
+            SearchStep previous = null;
+            while (!steps.isEmpty()) {
+                previous = steps.get(steps.size() - 1);
+                if (query.startsWith(previous.query)) { break;}
+                steps.remove(steps.size() - 1);
+                previous = null;
+            }
+            if (previous != null && previous.query.equals(query)) {
+                return new Result(query, previous.results, false, true, SystemClock.uptimeMillis() - start);
+            }
+            List<BookModel> results;
+            boolean refined = previous != null
+                    && previous.results.size() < mRepository.countSearchCandidates(query, signal);
+            if (refined) {
+                // Every word of the previous query is part of a word of this one, so the books
+                //  matching this query are among the previous results
+                results = mRepository.refineSearch(previous.results, query, signal);
+            } else {
+                // No earlier results, or more of them than the index would check for this query
+                results = mRepository.searchBooks(query, read, notRead, signal);
+            }
+            if (steps.size() == MAX_SEARCH_STEPS) { steps.remove(0);}
+            steps.add(new SearchStep(query, results));
+            return new Result(query, results, false, refined, SystemClock.uptimeMillis() - start);
+        }
+    }
+}